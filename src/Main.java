@@ -13,6 +13,16 @@ public class Main {
                 "tests/us7_1.txt", "tests/us7_2.txt",
                 "tests/us8_1.txt", "tests/us8_2.txt",
                 "tests/us9_1.txt", "tests/us9_2.txt",
+                "tests/us10_1.txt", "tests/us10_2.txt",
+                "tests/us11_1.txt", "tests/us11_2.txt",
+                "tests/us12_1.txt", "tests/us12_2.txt",
+                "tests/us13_1.txt", "tests/us13_2.txt",
+                "tests/us14_1.txt", "tests/us14_2.txt",
+                "tests/us15_1.txt", "tests/us15_2.txt",
+                "tests/us16_1.txt", "tests/us16_2.txt",
+                "tests/us17_1.txt", "tests/us17_2.txt",
+                "tests/us18_1.txt", "tests/us18_2.txt",
+                "tests/us19_1.txt", "tests/us19_2.txt",
         };
 
         Scanner scanner = new Scanner(System.in);
@@ -8,7 +8,13 @@ import br.ufal.ic.p2.jackut.exceptions.Note.*;
 import br.ufal.ic.p2.jackut.exceptions.Profile.*;
 import br.ufal.ic.p2.jackut.exceptions.Session.*;
 import br.ufal.ic.p2.jackut.exceptions.User.*;
+import br.ufal.ic.p2.jackut.exceptions.Search.*;
+import br.ufal.ic.p2.jackut.exceptions.Analytics.*;
+import br.ufal.ic.p2.jackut.exceptions.Batch.*;
 import br.ufal.ic.p2.jackut.models.*;
+import br.ufal.ic.p2.jackut.services.CommandBatch;
+
+import java.io.IOException;
 
 /**
  * Fachada principal do sistema Jackut que fornece a interface pblica para interao com o sistema.
@@ -49,6 +55,149 @@ public class Facade {
         return sistema.getAtributoUsuario(login, atributo);
     }
 
+    /**
+     * Obtm a memria aproximada, em bytes, ocupada pelos atributos do perfil de um usurio.
+     *
+     * @param login Login do usurio
+     * @return Tamanho aproximado em bytes
+     * @throws UserNotFoundException Se o usurio no for encontrado
+     */
+    public long getMemoriaAtributos(String login) throws UserNotFoundException {
+        return sistema.getMemoriaAtributos(login);
+    }
+
+    /**
+     * Busca os usurios cujo atributo de perfil possui um determinado valor.
+     *
+     * @param atributo Nome do atributo
+     * @param valor Valor procurado
+     * @param inicio Posio do primeiro resultado (a partir de 0)
+     * @param limite Quantidade mxima de resultados
+     * @return Logins encontrados, no formato {login1,login2}
+     * @throws InvalidPageException Se os parmetros da pgina forem invlidos
+     */
+    public String buscarUsuariosPorAtributo(String atributo, String valor, int inicio, int limite)
+            throws InvalidPageException {
+        return sistema.buscarUsuariosPorAtributo(atributo, valor, inicio, limite);
+    }
+
+    /**
+     * Busca os usurios que possuem um atributo de perfil preenchido.
+     *
+     * @param atributo Nome do atributo
+     * @param inicio Posio do primeiro resultado (a partir de 0)
+     * @param limite Quantidade mxima de resultados
+     * @return Logins encontrados, no formato {login1,login2}
+     * @throws InvalidPageException Se os parmetros da pgina forem invlidos
+     */
+    public String buscarUsuariosComAtributo(String atributo, int inicio, int limite)
+            throws InvalidPageException {
+        return sistema.buscarUsuariosComAtributo(atributo, inicio, limite);
+    }
+
+    /**
+     * Busca usurios por palavras-chave nos valores dos atributos de perfil.
+     * A busca ignora maisculas e acentos.
+     *
+     * @param consulta Palavras-chave da busca
+     * @param inicio Posio do primeiro resultado (a partir de 0)
+     * @param limite Quantidade mxima de resultados
+     * @return Logins encontrados, do mais para o menos relevante, no formato {login1,login2}
+     * @throws InvalidPageException Se os parmetros da pgina forem invlidos
+     */
+    public String buscarUsuarios(String consulta, int inicio, int limite) throws InvalidPageException {
+        return sistema.buscarUsuarios(consulta, inicio, limite);
+    }
+
+    /**
+     * Busca comunidades por palavras-chave na descrio.
+     * A busca ignora maisculas e acentos.
+     *
+     * @param consulta Palavras-chave da busca
+     * @param inicio Posio do primeiro resultado (a partir de 0)
+     * @param limite Quantidade mxima de resultados
+     * @return Nomes das comunidades, da mais para a menos relevante, no formato {nome1,nome2}
+     * @throws InvalidPageException Se os parmetros da pgina forem invlidos
+     */
+    public String buscarComunidades(String consulta, int inicio, int limite) throws InvalidPageException {
+        return sistema.buscarComunidades(consulta, inicio, limite);
+    }
+
+    /**
+     * Obtm os amigos em comum entre dois usurios.
+     *
+     * @param login Login do primeiro usurio
+     * @param outro Login do segundo usurio
+     * @return Logins dos amigos em comum, no formato {login1,login2}
+     * @throws UserNotFoundException Se algum usurio no for encontrado
+     */
+    public String getAmigosEmComum(String login, String outro) throws UserNotFoundException {
+        return sistema.getAmigosEmComum(login, outro);
+    }
+
+    /**
+     * Obtm o menor caminho de amizades entre dois usurios (graus de separao).
+     * A busca  limitada em profundidade e em tempo.
+     *
+     * @param login Login do usurio de origem
+     * @param outro Login do usurio de destino
+     * @return Logins do caminho, no formato {origem,...,destino}, ou {} se no houver caminho
+     * @throws UserNotFoundException Se algum usurio no for encontrado
+     */
+    public String getCaminhoAmizade(String login, String outro) throws UserNotFoundException {
+        return sistema.getCaminhoAmizade(login, outro);
+    }
+
+    /**
+     * Obtm os caminhos de amizade de um usurio at vrios outros, calculados em paralelo.
+     *
+     * @param login Login do usurio de origem
+     * @param destinos Logins de destino, separados por vrgula
+     * @return Um caminho por destino, no formato {{origem,...,destino1},{origem,...,destino2}}
+     * @throws UserNotFoundException Se algum usurio no for encontrado
+     */
+    public String getCaminhosAmizade(String login, String destinos) throws UserNotFoundException {
+        return sistema.getCaminhosAmizade(login, destinos);
+    }
+
+    /**
+     * Sugere novos amigos para um usurio: os amigos dos seus amigos, ordenados pelo
+     * nmero de amigos em comum. Amigos, inimigos e convites pendentes so excludos.
+     *
+     * @param login Login do usurio
+     * @param k Quantidade mxima de sugestes
+     * @return Logins sugeridos, no formato {login1,login2}
+     * @throws UserNotFoundException Se o usurio no for encontrado
+     * @throws InvalidPageException Se a quantidade de sugestes no for positiva
+     */
+    public String sugerirAmigos(String login, int k) throws UserNotFoundException, InvalidPageException {
+        return sistema.sugerirAmigos(login, k);
+    }
+
+    /**
+     * Sugere logins de usurios que comeam com o prefixo digitado.
+     *
+     * @param prefixo Prefixo digitado
+     * @param limite Quantidade mxima de sugestes
+     * @return Logins em ordem alfabtica, no formato {login1,login2}
+     * @throws InvalidPageException Se o limite no for positivo
+     */
+    public String autocompletarUsuarios(String prefixo, int limite) throws InvalidPageException {
+        return sistema.autocompletarUsuarios(prefixo, limite);
+    }
+
+    /**
+     * Sugere nomes de comunidades que comeam com o prefixo digitado.
+     *
+     * @param prefixo Prefixo digitado
+     * @param limite Quantidade mxima de sugestes
+     * @return Nomes em ordem alfabtica, no formato {nome1,nome2}
+     * @throws InvalidPageException Se o limite no for positivo
+     */
+    public String autocompletarComunidades(String prefixo, int limite) throws InvalidPageException {
+        return sistema.autocompletarComunidades(prefixo, limite);
+    }
+
     /**
      * Cria um novo usurio no sistema.
      *
@@ -222,6 +371,40 @@ public class Facade {
         return sistema.getMembrosComunidade(nome);
     }
 
+    /**
+     * Obtm os membros de uma comunidade que tambm participam de outra.
+     *
+     * @param nome Nome da primeira comunidade
+     * @param outra Nome da segunda comunidade
+     * @return Lista de membros em comum
+     * @throws CommunityNotFoundException Se alguma das comunidades no for encontrada
+     */
+    public String getMembrosEmComum(String nome, String outra) throws CommunityNotFoundException {
+        return sistema.getMembrosEmComum(nome, outra);
+    }
+
+    /**
+     * Obtm o nmero exato de membros de uma comunidade.
+     *
+     * @param nome Nome da comunidade
+     * @return Nmero de membros
+     * @throws CommunityNotFoundException Se a comunidade no existir
+     */
+    public long getNumeroMembrosComunidade(String nome) throws CommunityNotFoundException {
+        return sistema.getNumeroMembrosComunidade(nome);
+    }
+
+    /**
+     * Obtm as comunidades com mais membros.
+     *
+     * @param n Quantidade de comunidades
+     * @return Nomes das comunidades, da maior para a menor, no formato {nome1,nome2}
+     * @throws InvalidPageException Se a quantidade no for positiva
+     */
+    public String getMaioresComunidades(int n) throws InvalidPageException {
+        return sistema.getMaioresComunidades(n);
+    }
+
     /**
      * Adiciona um usurio a uma comunidade existente.
      *
@@ -369,6 +552,39 @@ public class Facade {
         return sistema.getFas(loginIdolo);
     }
 
+    /**
+     * Obtm o nmero exato de fs de um usurio.
+     *
+     * @param login Login do usurio
+     * @return Nmero de fs
+     * @throws UserNotFoundException Se o usurio no for encontrado
+     */
+    public long getNumeroFas(String login) throws UserNotFoundException {
+        return sistema.getNumeroFas(login);
+    }
+
+    /**
+     * Obtm o nmero de dolos de um usurio.
+     *
+     * @param login Login do usurio
+     * @return Nmero de dolos
+     * @throws UserNotFoundException Se o usurio no for encontrado
+     */
+    public long getNumeroIdolos(String login) throws UserNotFoundException {
+        return sistema.getNumeroIdolos(login);
+    }
+
+    /**
+     * Obtm os dolos com mais fs.
+     *
+     * @param n Quantidade de dolos
+     * @return Logins dos dolos, do com mais fs para o com menos, no formato {login1,login2}
+     * @throws InvalidPageException Se a quantidade no for positiva
+     */
+    public String getTopIdolos(int n) throws InvalidPageException {
+        return sistema.getTopIdolos(n);
+    }
+
     /**
      * Remove um usurio do sistema.
      *
@@ -379,4 +595,211 @@ public class Facade {
         sistema.removerUsuario(sessaoId);
     }
 
+    /**
+     * Inicia uma anlise em lote do grafo de relacionamentos. A anlise roda em segundo
+     * plano e grava o relatrio (componentes conexos, histograma de graus e dolos com
+     * mais fs) no arquivo indicado.
+     *
+     * @param arquivo Caminho do arquivo de relatrio
+     * @return Identificador da anlise
+     */
+    public String iniciarAnalise(String arquivo) {
+        return sistema.iniciarAnalise(arquivo);
+    }
+
+    /**
+     * Obtm o progresso de uma anlise em lote.
+     *
+     * @param id Identificador da anlise
+     * @return Porcentagem concluda (0 a 100)
+     * @throws AnalysisNotFoundException Se a anlise no existir
+     */
+    public int getProgressoAnalise(String id) throws AnalysisNotFoundException {
+        return sistema.getProgressoAnalise(id);
+    }
+
+    /**
+     * Aguarda o fim de uma anlise em lote e obtm o seu resumo.
+     *
+     * @param id Identificador da anlise
+     * @return Resumo da anlise
+     * @throws AnalysisNotFoundException Se a anlise no existir
+     */
+    public String aguardarAnalise(String id) throws AnalysisNotFoundException {
+        return sistema.aguardarAnalise(id);
+    }
+
+    /**
+     * Obtm uma pgina da lista de amigos.
+     *
+     * @param login Login do usurio
+     * @param inicio Posio do primeiro item (a partir de 0)
+     * @param limite Quantidade mxima de itens
+     * @return Itens da pgina, no formato {item1,item2}
+     * @throws UserNotFoundException Se o usurio no for encontrado
+     * @throws InvalidPageException Se os parmetros da pgina forem invlidos
+     */
+    public String getAmigosPaginado(String login, int inicio, int limite)
+            throws UserNotFoundException, InvalidPageException {
+        return sistema.getAmigosPaginado(login, inicio, limite);
+    }
+
+    /**
+     * Escreve a lista de amigos no destino, item a item, sem montar a string inteira em memria.
+     *
+     * @param login Login do usurio
+     * @param destino Destino da escrita
+     * @throws UserNotFoundException Se o usurio no for encontrado
+     * @throws IOException Se ocorrer erro ao escrever no destino
+     */
+    public void escreverAmigos(String login, Appendable destino) throws UserNotFoundException, IOException {
+        sistema.escreverAmigos(login, destino);
+    }
+
+    /**
+     * Obtm uma pgina da lista de comunidades do usurio.
+     *
+     * @param login Login do usurio
+     * @param inicio Posio do primeiro item (a partir de 0)
+     * @param limite Quantidade mxima de itens
+     * @return Itens da pgina, no formato {item1,item2}
+     * @throws UserNotFoundException Se o usurio no for encontrado
+     * @throws InvalidPageException Se os parmetros da pgina forem invlidos
+     */
+    public String getComunidadesPaginado(String login, int inicio, int limite)
+            throws UserNotFoundException, InvalidPageException {
+        return sistema.getComunidadesPaginado(login, inicio, limite);
+    }
+
+    /**
+     * Escreve a lista de comunidades do usurio no destino, item a item, sem montar a string inteira em memria.
+     *
+     * @param login Login do usurio
+     * @param destino Destino da escrita
+     * @throws UserNotFoundException Se o usurio no for encontrado
+     * @throws IOException Se ocorrer erro ao escrever no destino
+     */
+    public void escreverComunidades(String login, Appendable destino) throws UserNotFoundException, IOException {
+        sistema.escreverComunidades(login, destino);
+    }
+
+    /**
+     * Obtm uma pgina da lista de paqueras.
+     *
+     * @param sessaoId Login do usurio
+     * @param inicio Posio do primeiro item (a partir de 0)
+     * @param limite Quantidade mxima de itens
+     * @return Itens da pgina, no formato {item1,item2}
+     * @throws UserNotFoundException Se o usurio no for encontrado
+     * @throws InvalidPageException Se os parmetros da pgina forem invlidos
+     */
+    public String getPaquerasPaginado(String sessaoId, int inicio, int limite)
+            throws UserNotFoundException, InvalidPageException {
+        return sistema.getPaquerasPaginado(sessaoId, inicio, limite);
+    }
+
+    /**
+     * Escreve a lista de paqueras no destino, item a item, sem montar a string inteira em memria.
+     *
+     * @param sessaoId Login do usurio
+     * @param destino Destino da escrita
+     * @throws UserNotFoundException Se o usurio no for encontrado
+     * @throws IOException Se ocorrer erro ao escrever no destino
+     */
+    public void escreverPaqueras(String sessaoId, Appendable destino) throws UserNotFoundException, IOException {
+        sistema.escreverPaqueras(sessaoId, destino);
+    }
+
+    /**
+     * Obtm uma pgina da lista de fs.
+     *
+     * @param loginIdolo Login do dolo
+     * @param inicio Posio do primeiro item (a partir de 0)
+     * @param limite Quantidade mxima de itens
+     * @return Itens da pgina, no formato {item1,item2}
+     * @throws UserNotFoundException Se o usurio no for encontrado
+     * @throws InvalidPageException Se os parmetros da pgina forem invlidos
+     */
+    public String getFasPaginado(String loginIdolo, int inicio, int limite)
+            throws UserNotFoundException, InvalidPageException {
+        return sistema.getFasPaginado(loginIdolo, inicio, limite);
+    }
+
+    /**
+     * Escreve a lista de fs no destino, item a item, sem montar a string inteira em memria.
+     *
+     * @param loginIdolo Login do dolo
+     * @param destino Destino da escrita
+     * @throws UserNotFoundException Se o usurio no for encontrado
+     * @throws IOException Se ocorrer erro ao escrever no destino
+     */
+    public void escreverFas(String loginIdolo, Appendable destino) throws UserNotFoundException, IOException {
+        sistema.escreverFas(loginIdolo, destino);
+    }
+
+    /**
+     * Obtm uma pgina da lista de membros da comunidade.
+     *
+     * @param nome Nome da comunidade
+     * @param inicio Posio do primeiro item (a partir de 0)
+     * @param limite Quantidade mxima de itens
+     * @return Itens da pgina, no formato {item1,item2}
+     * @throws CommunityNotFoundException Se a comunidade no existir
+     * @throws InvalidPageException Se os parmetros da pgina forem invlidos
+     */
+    public String getMembrosComunidadePaginado(String nome, int inicio, int limite)
+            throws CommunityNotFoundException, InvalidPageException {
+        return sistema.getMembrosComunidadePaginado(nome, inicio, limite);
+    }
+
+    /**
+     * Escreve a lista de membros da comunidade no destino, item a item, sem montar a string inteira em memria.
+     *
+     * @param nome Nome da comunidade
+     * @param destino Destino da escrita
+     * @throws CommunityNotFoundException Se a comunidade no existir
+     * @throws IOException Se ocorrer erro ao escrever no destino
+     */
+    public void escreverMembrosComunidade(String nome, Appendable destino) throws CommunityNotFoundException, IOException {
+        sistema.escreverMembrosComunidade(nome, destino);
+    }
+
+    /**
+     * Obtm as mtricas do cache de listas formatadas (amigos, comunidades e membros).
+     *
+     * @return Acertos, falhas, despejos, entradas e memria estimada, formatados
+     */
+    public String getMetricasCache() {
+        return sistema.getMetricasCache();
+    }
+
+    /**
+     * Obtm as mtricas de entrega de mensagens de comunidade.
+     *
+     * @return Entregas agendadas, concludas e pendentes, e faixas em andamento, formatadas
+     */
+    public String getMetricasEntregas() {
+        return sistema.getMetricasEntregas();
+    }
+
+    /**
+     * Aplica um lote de alteraes de uma vez, desfazendo todas se alguma falhar.
+     *
+     * @param lote Comandos a aplicar
+     * @return Quantidade de comandos aplicados
+     * @throws BatchFailedException Se um comando falhar
+     */
+    public int executarLote(CommandBatch lote) throws BatchFailedException {
+        return sistema.executarLote(lote);
+    }
+
+    /**
+     * Ativa ou desativa o modo de caixas postais, em que as alteraes de cada usurio
+     * so processadas por um nico escritor. As chamadas continuam sncronas.
+     *
+     * @param ativo true para ativar o modo
+     */
+    public void setModoCaixaPostal(boolean ativo) {
+        sistema.setModoCaixaPostal(ativo);
+    }
 }
@@ -2,17 +2,42 @@ package br.ufal.ic.p2.jackut;
 
 import br.ufal.ic.p2.jackut.exceptions.Community.CommunityNotFoundException;
 import br.ufal.ic.p2.jackut.exceptions.Message.EmptyMessagesException;
+import br.ufal.ic.p2.jackut.models.AttributeDictionary;
+import br.ufal.ic.p2.jackut.models.Community;
 import br.ufal.ic.p2.jackut.models.Message;
 import br.ufal.ic.p2.jackut.models.Note;
 import br.ufal.ic.p2.jackut.models.User;
+import br.ufal.ic.p2.jackut.Utils.Mailboxes;
+import br.ufal.ic.p2.jackut.Utils.SnapshotEpoch;
+import br.ufal.ic.p2.jackut.Utils.StringPool;
+import br.ufal.ic.p2.jackut.Utils.StripedLocks;
 import br.ufal.ic.p2.jackut.persistence.*;
 import br.ufal.ic.p2.jackut.services.*;
+import br.ufal.ic.p2.jackut.analytics.AnalyticsService;
+import br.ufal.ic.p2.jackut.exceptions.Analytics.*;
+import br.ufal.ic.p2.jackut.exceptions.Batch.*;
 import br.ufal.ic.p2.jackut.exceptions.User.*;
 import br.ufal.ic.p2.jackut.exceptions.Community.*;
 import br.ufal.ic.p2.jackut.exceptions.Profile.*;
 import br.ufal.ic.p2.jackut.exceptions.Session.*;
 import br.ufal.ic.p2.jackut.exceptions.Note.*;
 import br.ufal.ic.p2.jackut.exceptions.Relationship.*;
+import br.ufal.ic.p2.jackut.exceptions.Search.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 
 /**
  * Classe principal que coordena os servios do sistema Jackut.
@@ -25,20 +50,64 @@ import br.ufal.ic.p2.jackut.exceptions.Relationship.*;
  *   <li>{@link CommunityService} - Administra comunidades e mensagens coletivas</li>
  * </ul>
  *
+ * <p>O sistema aceita requisies de vrias threads. Cada operao trava apenas os
+ * usurios e comunidades que envolve (ver {@link StripedLocks}); operaes que mudam
+ * a estrutura do sistema ou percorrem o grafo inteiro so executadas com exclusividade.
+ * As consultas mais frequentes (ehAmigo, ehFa, getAtributoUsuario, listas) so
+ * otimistas: no travam nada e s se repetem se uma alterao as atravessar.
+ * As alteraes no so gravadas uma a uma: a primeira alterao agenda uma gravao
+ * para dali a {@value #ATRASO_GRAVACAO_MS} ms, que grava de uma vez tudo o que mudou
+ * nesse intervalo e avana a varredura de usurios removidos. A gravao captura o
+ * estado com exclusividade por um instante e escreve os arquivos em segundo plano,
+ * sem impedir novas alteraes (ver {@link SnapshotEpoch}). Alteraes pendentes
+ * tambm so gravadas ao encerrar o sistema e ao finalizar a JVM.</p>
+ *
+ * <p>Leituras longas que cruzam vrios usurios e comunidades usam uma viso de
+ * leitura (ver {@link #abrirVisaoLeitura()}), que enxerga o estado da abertura pelo
+ * mesmo mecanismo de verses da gravao. As buscas de caminhos, as sugestes de
+ * amigos e as anlises abrem uma poca s durante a consulta (ver
+ * {@link #abrirEpoca()}).</p>
+ *
+ * <p>No modo de caixas postais (ver {@link #setModoCaixaPostal(boolean)}), as alteraes
+ * de perfil, recados, mensagens e relacionamentos no so executadas pela thread que
+ * chama: vo para a caixa postal do usurio alterado (ver {@link Mailboxes}), processada
+ * por um nico escritor, e a chamada espera o resultado. Alteraes de um mesmo usurio
+ * deixam de disputar as travas entre si, e rajadas para o mesmo usurio so processadas
+ * em lote. Operaes entre dois usurios seguem o protocolo em duas fases das caixas
+ * postais. O modo inicial vem da propriedade {@value #PROPRIEDADE_CAIXA_POSTAL}.</p>
+ *
  * @author Marcos Melo
  * @version 2.0 (refatorado com padro Singleton e servios especializados)
  */
+// As guardas das travas s so usadas pelo close() do try-with-resources
+@SuppressWarnings("try")
 public class Sistema {
+    /** Intervalo entre a primeira alterao no gravada e a gravao */
+    private static final long ATRASO_GRAVACAO_MS = 50;
+
+    /** Propriedade de sistema que ativa o modo de caixas postais desde o incio */
+    public static final String PROPRIEDADE_CAIXA_POSTAL = "jackut.caixasPostais";
+
     private static Sistema instance;
 
     private final UserService userService;
     private final SessionService sessionService;
     private final CommunityService communityService;
+    private final AnalyticsService analyticsService;
 
     private final UserDAO userDAO;
     private final SessionDAO sessionDAO;
     private final CommunityDAO communityDAO;
 
+    private final StripedLocks travas;
+    private final Mailboxes caixas;
+    private volatile boolean modoCaixaPostal;
+    private final AtomicBoolean gravacaoAgendada;
+    private final ReentrantLock escritaArquivos;
+    private final ScheduledExecutorService gravador;
+    private final Thread gravacaoFinal;
+    private volatile boolean finalizado;
+
     /**
      * Construtor privado para prevenir instanciao externa.
      * Inicializa os DAOs e servios necessrios para o funcionamento do sistema.
@@ -53,6 +122,20 @@ public class Sistema {
         this.userService = new UserService(userDAO);
         this.sessionService = new SessionService(sessionDAO, userService);
         this.communityService = new CommunityService(communityDAO, userService);
+        this.analyticsService = new AnalyticsService();
+
+        this.travas = new StripedLocks();
+        this.caixas = new Mailboxes();
+        this.modoCaixaPostal = Boolean.getBoolean(PROPRIEDADE_CAIXA_POSTAL);
+        this.gravacaoAgendada = new AtomicBoolean();
+        this.escritaArquivos = new ReentrantLock();
+        this.gravador = Executors.newSingleThreadScheduledExecutor(tarefa -> {
+            Thread thread = new Thread(tarefa, "jackut-gravacao");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.gravacaoFinal = new Thread(this::finalizar, "jackut-gravacao-final");
+        Runtime.getRuntime().addShutdownHook(gravacaoFinal);
     }
 
     /**
@@ -71,6 +154,9 @@ public class Sistema {
      * Reinicia a instncia nica do sistema (til para testes).
      */
     public static synchronized void resetInstance() {
+        if (instance != null) {
+            instance.fechar();
+        }
         instance = new Sistema();
     }
 
@@ -88,7 +174,10 @@ public class Sistema {
      */
     public void criarUsuario(String nome, String senha, String login)
             throws InvalidLoginException, InvalidPasswordException, AccountAlreadyExistsException {
-        userService.criarUsuario(nome, senha, login);
+        try (StripedLocks.Guarda guarda = travas.exclusivo()) {
+            userService.criarUsuario(nome, senha, login);
+            marcarAlterado();
+        }
     }
 
     /**
@@ -99,7 +188,9 @@ public class Sistema {
      * @throws UserNotFoundException Se o usurio no for encontrado
      */
     public User findUserByLogin(String login) throws UserNotFoundException {
-        return userService.findUserByLogin(login);
+        try (StripedLocks.Guarda guarda = travas.leitura()) {
+            return userService.findUserByLogin(login);
+        }
     }
 
     /**
@@ -113,7 +204,11 @@ public class Sistema {
      */
     public void editarPerfil(String id, String atributo, String valor)
             throws InvalidAttributeException, UserNotFoundException {
-        userService.editarPerfil(id, atributo, valor);
+        this.<Void, InvalidAttributeException, UserNotFoundException, RuntimeException, RuntimeException>alterar(
+                id, () -> {
+            userService.editarPerfil(id, atributo, valor);
+            return null;
+        });
     }
 
     /**
@@ -128,7 +223,178 @@ public class Sistema {
      */
     public String getAtributoUsuario(String login, String atributo)
             throws UserNotFoundException, AttributeNotSetException, InvalidAttributeException {
-        return userService.getAtributoUsuario(login, atributo);
+        return travas.<String, UserNotFoundException, AttributeNotSetException, InvalidAttributeException>lerOtimista(
+                () -> userService.getAtributoUsuario(login, atributo), usuario(login));
+    }
+
+    /**
+     * Obtm a memria aproximada ocupada pelos atributos de um usurio.
+     *
+     * @param login Login do usurio
+     * @return Tamanho aproximado em bytes
+     * @throws UserNotFoundException Se o usurio no for encontrado
+     */
+    public long getMemoriaAtributos(String login) throws UserNotFoundException {
+        try (StripedLocks.Guarda guarda = travas.leitura(usuario(login))) {
+            return userService.getMemoriaAtributos(login);
+        }
+    }
+
+    /**
+     * Busca os usurios cujo atributo possui um determinado valor.
+     *
+     * @param atributo Nome do atributo
+     * @param valor Valor procurado
+     * @param inicio Posio do primeiro resultado (a partir de 0)
+     * @param limite Quantidade mxima de resultados
+     * @return String formatada com os logins encontrados
+     * @throws InvalidPageException Se os parmetros da pgina forem invlidos
+     */
+    public String buscarUsuariosPorAtributo(String atributo, String valor, int inicio, int limite)
+            throws InvalidPageException {
+        try (StripedLocks.Guarda guarda = travas.leitura()) {
+            return userService.buscarUsuariosPorAtributo(atributo, valor, inicio, limite);
+        }
+    }
+
+    /**
+     * Busca os usurios que possuem um atributo preenchido.
+     *
+     * @param atributo Nome do atributo
+     * @param inicio Posio do primeiro resultado (a partir de 0)
+     * @param limite Quantidade mxima de resultados
+     * @return String formatada com os logins encontrados
+     * @throws InvalidPageException Se os parmetros da pgina forem invlidos
+     */
+    public String buscarUsuariosComAtributo(String atributo, int inicio, int limite)
+            throws InvalidPageException {
+        try (StripedLocks.Guarda guarda = travas.leitura()) {
+            return userService.buscarUsuariosComAtributo(atributo, inicio, limite);
+        }
+    }
+
+    /**
+     * Busca usurios por palavras-chave nos atributos de perfil.
+     *
+     * @param consulta Palavras-chave da busca
+     * @param inicio Posio do primeiro resultado (a partir de 0)
+     * @param limite Quantidade mxima de resultados
+     * @return String formatada com os logins, do mais para o menos relevante
+     * @throws InvalidPageException Se os parmetros da pgina forem invlidos
+     */
+    public String buscarUsuarios(String consulta, int inicio, int limite) throws InvalidPageException {
+        try (StripedLocks.Guarda guarda = travas.leitura()) {
+            return userService.buscarUsuarios(consulta, inicio, limite);
+        }
+    }
+
+    /**
+     * Busca comunidades por palavras-chave na descrio.
+     *
+     * @param consulta Palavras-chave da busca
+     * @param inicio Posio do primeiro resultado (a partir de 0)
+     * @param limite Quantidade mxima de resultados
+     * @return String formatada com os nomes, do mais para o menos relevante
+     * @throws InvalidPageException Se os parmetros da pgina forem invlidos
+     */
+    public String buscarComunidades(String consulta, int inicio, int limite) throws InvalidPageException {
+        try (StripedLocks.Guarda guarda = travas.leitura()) {
+            return communityService.buscarComunidades(consulta, inicio, limite);
+        }
+    }
+
+    /**
+     * Obtm os amigos em comum entre dois usurios.
+     *
+     * @param login Login do primeiro usurio
+     * @param outro Login do segundo usurio
+     * @return String formatada com os logins dos amigos em comum
+     * @throws UserNotFoundException Se algum usurio no for encontrado
+     */
+    public String getAmigosEmComum(String login, String outro) throws UserNotFoundException {
+        try (StripedLocks.Guarda guarda = travas.leitura(usuario(login), usuario(outro))) {
+            return userService.getAmigosEmComum(login, outro);
+        }
+    }
+
+    /**
+     * Obtm o menor caminho de amizades entre dois usurios.
+     *
+     * @param login Login do usurio de origem
+     * @param outro Login do usurio de destino
+     * @return String formatada com os logins do caminho
+     * @throws UserNotFoundException Se algum usurio no for encontrado
+     */
+    public String getCaminhoAmizade(String login, String outro) throws UserNotFoundException {
+        long epoca = abrirEpoca();
+        try (StripedLocks.Guarda guarda = travas.leitura()) {
+            return userService.getCaminhoAmizade(login, outro, epoca);
+        } finally {
+            SnapshotEpoch.fechar(epoca);
+        }
+    }
+
+    /**
+     * Obtm os caminhos de amizade de um usurio at vrios outros, calculados em paralelo.
+     *
+     * @param login Login do usurio de origem
+     * @param destinos Logins de destino, separados por vrgula
+     * @return String formatada com um caminho por destino
+     * @throws UserNotFoundException Se algum usurio no for encontrado
+     */
+    public String getCaminhosAmizade(String login, String destinos) throws UserNotFoundException {
+        long epoca = abrirEpoca();
+        try (StripedLocks.Guarda guarda = travas.leitura()) {
+            return userService.getCaminhosAmizade(login, destinos, epoca);
+        } finally {
+            SnapshotEpoch.fechar(epoca);
+        }
+    }
+
+    /**
+     * Sugere novos amigos para um usurio, ordenados pelo nmero de amigos em comum.
+     *
+     * @param login Login do usurio
+     * @param k Quantidade mxima de sugestes
+     * @return String formatada com os logins sugeridos
+     * @throws UserNotFoundException Se o usurio no for encontrado
+     * @throws InvalidPageException Se a quantidade de sugestes no for positiva
+     */
+    public String sugerirAmigos(String login, int k) throws UserNotFoundException, InvalidPageException {
+        long epoca = abrirEpoca();
+        try (StripedLocks.Guarda guarda = travas.leitura()) {
+            return userService.sugerirAmigos(login, k, epoca);
+        } finally {
+            SnapshotEpoch.fechar(epoca);
+        }
+    }
+
+    /**
+     * Sugere logins que comeam com um prefixo.
+     *
+     * @param prefixo Prefixo digitado
+     * @param limite Quantidade mxima de sugestes
+     * @return String formatada com os logins, em ordem alfabtica
+     * @throws InvalidPageException Se o limite no for positivo
+     */
+    public String autocompletarUsuarios(String prefixo, int limite) throws InvalidPageException {
+        try (StripedLocks.Guarda guarda = travas.leitura()) {
+            return userService.autocompletarUsuarios(prefixo, limite);
+        }
+    }
+
+    /**
+     * Sugere nomes de comunidades que comeam com um prefixo.
+     *
+     * @param prefixo Prefixo digitado
+     * @param limite Quantidade mxima de sugestes
+     * @return String formatada com os nomes, em ordem alfabtica
+     * @throws InvalidPageException Se o limite no for positivo
+     */
+    public String autocompletarComunidades(String prefixo, int limite) throws InvalidPageException {
+        try (StripedLocks.Guarda guarda = travas.leitura()) {
+            return communityService.autocompletarComunidades(prefixo, limite);
+        }
     }
 
     // ========== MTODOS DE SESSO ==========
@@ -143,7 +409,11 @@ public class Sistema {
      * @throws UserNotFoundException Se o usurio no for encontrado
      */
     public String abrirSessao(String login, String senha) throws SessionOpeningException, UserNotFoundException {
-        return sessionService.abrirSessao(login, senha);
+        try (StripedLocks.Guarda guarda = travas.escrita(usuario(login))) {
+            String sessao = sessionService.abrirSessao(login, senha);
+            marcarAlterado();
+            return sessao;
+        }
     }
 
     /**
@@ -153,7 +423,9 @@ public class Sistema {
      * @return true se a sesso for vlida, false caso contrrio
      */
     public boolean isSessionValid(String sessionId) {
-        return sessionService.isSessionValid(sessionId);
+        try (StripedLocks.Guarda guarda = travas.leitura()) {
+            return sessionService.isSessionValid(sessionId);
+        }
     }
 
     // ========== MTODOS DE RELACIONAMENTOS ==========
@@ -170,7 +442,11 @@ public class Sistema {
      */
     public void adicionarAmigo(String loginUsuario, String loginAmigo)
             throws UserNotFoundException, FriendshipException, SelfRelationshipException, UserAlreadyAddedException {
-        userService.adicionarAmigo(loginUsuario, loginAmigo);
+        this.<Void, UserNotFoundException, FriendshipException, SelfRelationshipException, UserAlreadyAddedException>alterar(
+                loginUsuario, loginAmigo, () -> {
+            userService.adicionarAmigo(loginUsuario, loginAmigo);
+            return null;
+        });
     }
 
     /**
@@ -183,7 +459,11 @@ public class Sistema {
      */
     public void removerAmigo(String loginUsuario, String loginAmigo)
             throws UserNotFoundException, FriendshipException {
-        userService.removerAmigo(loginUsuario, loginAmigo);
+        this.<Void, UserNotFoundException, FriendshipException, RuntimeException, RuntimeException>alterar(
+                loginUsuario, loginAmigo, () -> {
+            userService.removerAmigo(loginUsuario, loginAmigo);
+            return null;
+        });
     }
 
     /**
@@ -195,7 +475,8 @@ public class Sistema {
      * @throws UserNotFoundException Se algum usurio no for encontrado
      */
     public boolean ehAmigo(String loginUsuario, String loginAmigo) throws UserNotFoundException {
-        return userService.ehAmigo(loginUsuario, loginAmigo);
+        return travas.lerOtimista(() -> userService.ehAmigo(loginUsuario, loginAmigo),
+                usuario(loginUsuario), usuario(loginAmigo));
     }
 
     /**
@@ -206,7 +487,7 @@ public class Sistema {
      * @throws UserNotFoundException Se o usurio no for encontrado
      */
     public String getAmigos(String login) throws UserNotFoundException {
-        return userService.getAmigos(login);
+        return travas.lerOtimista(() -> userService.getAmigos(login), usuario(login));
     }
 
     // ========== MTODOS DE PAQUERAS ==========
@@ -223,7 +504,11 @@ public class Sistema {
      */
     public void adicionarPaquera(String sessaoId, String paqueraLogin)
             throws UserNotFoundException, SelfRelationshipException, UserAlreadyAddedException, SelfNoteException {
-        userService.adicionarPaquera(sessaoId, paqueraLogin);
+        this.<Void, UserNotFoundException, SelfRelationshipException, UserAlreadyAddedException, SelfNoteException>alterar(
+                sessaoId, paqueraLogin, () -> {
+            userService.adicionarPaquera(sessaoId, paqueraLogin);
+            return null;
+        });
     }
 
     /**
@@ -234,7 +519,7 @@ public class Sistema {
      * @throws UserNotFoundException Se o usurio no for encontrado
      */
     public String getPaqueras(String sessaoId) throws UserNotFoundException {
-        return userService.getPaqueras(sessaoId);
+        return travas.lerOtimista(() -> userService.getPaqueras(sessaoId), usuario(sessaoId));
     }
 
     // ========== MTODOS DE FS/DOLOS ==========
@@ -250,7 +535,11 @@ public class Sistema {
      */
     public void adicionarIdolo(String sessaoId, String idoloLogin)
             throws UserNotFoundException, SelfRelationshipException, UserAlreadyAddedException {
-        userService.adicionarIdolo(sessaoId, idoloLogin);
+        this.<Void, UserNotFoundException, SelfRelationshipException, UserAlreadyAddedException, RuntimeException>alterar(
+                sessaoId, idoloLogin, () -> {
+            userService.adicionarIdolo(sessaoId, idoloLogin);
+            return null;
+        });
     }
 
     /**
@@ -261,7 +550,46 @@ public class Sistema {
      * @throws UserNotFoundException Se o usurio no for encontrado
      */
     public String getFas(String loginIdolo) throws UserNotFoundException {
-        return userService.getFas(loginIdolo);
+        return travas.lerOtimista(() -> userService.getFas(loginIdolo), usuario(loginIdolo));
+    }
+
+    /**
+     * Obtm o nmero exato de fs de um usurio.
+     *
+     * @param login Login do usurio
+     * @return Nmero de fs
+     * @throws UserNotFoundException Se o usurio no for encontrado
+     */
+    public long getNumeroFas(String login) throws UserNotFoundException {
+        try (StripedLocks.Guarda guarda = travas.leitura(usuario(login))) {
+            return userService.getNumeroFas(login);
+        }
+    }
+
+    /**
+     * Obtm o nmero de dolos de um usurio.
+     *
+     * @param login Login do usurio
+     * @return Nmero de dolos
+     * @throws UserNotFoundException Se o usurio no for encontrado
+     */
+    public long getNumeroIdolos(String login) throws UserNotFoundException {
+        try (StripedLocks.Guarda guarda = travas.leitura(usuario(login))) {
+            return userService.getNumeroIdolos(login);
+        }
+    }
+
+    /**
+     * Obtm os dolos com mais fs.
+     *
+     * @param n Quantidade de dolos
+     * @return String formatada com os logins, do dolo com mais fs para o com menos
+     * @throws InvalidPageException Se a quantidade no for positiva
+     */
+    public String getTopIdolos(int n) throws InvalidPageException {
+        try (StripedLocks.Guarda guarda = travas.leitura()) {
+            return userService.getTopIdolos(n);
+        }
     }
 
     // ========== MTODOS DE INIMIGOS ==========
@@ -277,7 +605,11 @@ public class Sistema {
      */
     public void adicionarInimigo(String sessaoId, String inimigoLogin)
             throws UserNotFoundException, SelfRelationshipException, UserAlreadyAddedException {
-        userService.adicionarInimigo(sessaoId, inimigoLogin);
+        this.<Void, UserNotFoundException, SelfRelationshipException, UserAlreadyAddedException, RuntimeException>alterar(
+                sessaoId, inimigoLogin, () -> {
+            userService.adicionarInimigo(sessaoId, inimigoLogin);
+            return null;
+        });
     }
 
     /**
@@ -289,7 +621,8 @@ public class Sistema {
      * @throws UserNotFoundException Se algum usurio no for encontrado
      */
     public boolean ehInimigo(String sessaoId, String inimigoLogin) throws UserNotFoundException {
-        return userService.ehInimigo(sessaoId, inimigoLogin);
+        return travas.lerOtimista(() -> userService.ehInimigo(sessaoId, inimigoLogin),
+                usuario(sessaoId), usuario(inimigoLogin));
     }
 
     // ========== MTODOS DE RECADOS ==========
@@ -305,7 +638,12 @@ public class Sistema {
      */
     public void enviarRecado(String loginUsuario, String loginRecado, String recado)
             throws UserNotFoundException, SelfNoteException {
-        userService.enviarRecado(loginUsuario, loginRecado, recado);
+        // O destinatrio s recebe o recado na caixa de entrada, que dispensa a trava de escrita
+        this.<Void, UserNotFoundException, SelfNoteException, RuntimeException, RuntimeException>alterar(
+                loginUsuario, loginRecado, () -> travas.leitura(usuario(loginUsuario), usuario(loginRecado)), () -> {
+            userService.enviarRecado(loginUsuario, loginRecado, recado);
+            return null;
+        });
     }
 
     /**
@@ -317,7 +655,9 @@ public class Sistema {
      * @throws EmptyNotesException Se no houver recados para ler
      */
     public Note lerRecado(String loginUsuario) throws UserNotFoundException, EmptyNotesException {
-        return userService.lerRecado(loginUsuario);
+        return this.<Note, UserNotFoundException, EmptyNotesException, RuntimeException, RuntimeException>alterar(
+                loginUsuario, null, () -> travas.leitura(usuario(loginUsuario)),
+                () -> userService.lerRecado(loginUsuario));
     }
 
     // ========== MTODOS DE COMUNIDADES ==========
@@ -333,7 +673,11 @@ public class Sistema {
      */
     public void criarComunidade(String loginUsuario, String nome, String descricao)
             throws CommunityCreationException, UserNotFoundException {
-        communityService.criarComunidade(loginUsuario, nome, descricao);
+        try (StripedLocks.Guarda guarda = travas.exclusivo()) {
+            aguardarGravacao();
+            communityService.criarComunidade(loginUsuario, nome, descricao);
+            marcarAlterado();
+        }
     }
 
     /**
@@ -344,7 +688,9 @@ public class Sistema {
      * @throws CommunityNotFoundException Se a comunidade no existir
      */
     public String getDescricaoComunidade(String nome) throws CommunityNotFoundException {
-        return communityService.getDescricaoComunidade(nome);
+        try (StripedLocks.Guarda guarda = travas.leitura(comunidade(nome))) {
+            return communityService.getDescricaoComunidade(nome);
+        }
     }
 
     /**
@@ -355,7 +701,9 @@ public class Sistema {
      * @throws CommunityNotFoundException Se a comunidade no existir
      */
     public String getDonoComunidade(String nome) throws CommunityNotFoundException {
-        return communityService.getDonoComunidade(nome);
+        try (StripedLocks.Guarda guarda = travas.leitura(comunidade(nome))) {
+            return communityService.getDonoComunidade(nome);
+        }
     }
 
     /**
@@ -366,7 +714,47 @@ public class Sistema {
      * @throws CommunityNotFoundException Se a comunidade no existir
      */
     public String getMembrosComunidade(String nome) throws CommunityNotFoundException {
-        return communityService.getMembrosComunidade(nome);
+        return travas.lerOtimista(() -> communityService.getMembrosComunidade(nome), comunidade(nome));
+    }
+
+    /**
+     * Obtm os membros de uma comunidade que tambm participam de outra.
+     *
+     * @param nome Nome da primeira comunidade
+     * @param outra Nome da segunda comunidade
+     * @return String formatada com os membros em comum
+     * @throws CommunityNotFoundException Se alguma das comunidades no existir
+     */
+    public String getMembrosEmComum(String nome, String outra) throws CommunityNotFoundException {
+        try (StripedLocks.Guarda guarda = travas.leitura(comunidade(nome), comunidade(outra))) {
+            return communityService.getMembrosEmComum(nome, outra);
+        }
+    }
+
+    /**
+     * Obtm o nmero exato de membros de uma comunidade.
+     *
+     * @param nome Nome da comunidade
+     * @return Nmero de membros
+     * @throws CommunityNotFoundException Se a comunidade no existir
+     */
+    public long getNumeroMembrosComunidade(String nome) throws CommunityNotFoundException {
+        try (StripedLocks.Guarda guarda = travas.leitura(comunidade(nome))) {
+            return communityService.getNumeroMembrosComunidade(nome);
+        }
+    }
+
+    /**
+     * Obtm as comunidades com mais membros.
+     *
+     * @param n Quantidade de comunidades
+     * @return String formatada com os nomes, da maior para a menor
+     * @throws InvalidPageException Se a quantidade no for positiva
+     */
+    public String getMaioresComunidades(int n) throws InvalidPageException {
+        try (StripedLocks.Guarda guarda = travas.leitura()) {
+            return communityService.getMaioresComunidades(n);
+        }
     }
 
     /**
@@ -379,7 +767,12 @@ public class Sistema {
      */
     public void adicionarComunidade(String loginUsuario, String nome)
             throws CommunityNotFoundException, UserNotFoundException {
-        communityService.adicionarMembroComunidade(loginUsuario, nome);
+        this.<Void, CommunityNotFoundException, UserNotFoundException, RuntimeException, RuntimeException>alterar(
+                loginUsuario, null, () -> travas.escrita(usuario(loginUsuario), comunidade(nome)), () -> {
+            communityService.preservarComunidade(nome);
+            communityService.adicionarMembroComunidade(loginUsuario, nome);
+            return null;
+        });
     }
 
     /**
@@ -390,7 +783,8 @@ public class Sistema {
      * @throws UserNotFoundException Se o usurio no for encontrado
      */
     public String getComunidades(String loginUsuario) throws UserNotFoundException {
-        return userService.getComunidadesUsuario(loginUsuario);
+        return travas.lerOtimista(() -> userService.getComunidadesUsuario(loginUsuario),
+                usuario(loginUsuario));
     }
 
     /**
@@ -404,7 +798,28 @@ public class Sistema {
      */
     public void enviarMensagem(String loginUsuario, String nome, String mensagem)
             throws UserNotFoundException, CommunityNotFoundException {
-        communityService.enviarMensagemComunidade(loginUsuario, nome, mensagem);
+        enviarMensagemAssincrona(loginUsuario, nome, mensagem).join();
+    }
+
+    /**
+     * Envia uma mensagem para todos os membros de uma comunidade sem esperar a entrega.
+     * Os membros so definidos na chamada; em comunidades grandes, a entrega  feita
+     * em paralelo, sem travas, e cada membro recebe as mensagens na ordem de envio.
+     *
+     * @param loginUsuario Login do remetente
+     * @param nome Nome da comunidade
+     * @param mensagem Contedo da mensagem
+     * @return Resultado futuro com a quantidade de membros que receberam a mensagem
+     * @throws UserNotFoundException Se o remetente no for encontrado
+     * @throws CommunityNotFoundException Se a comunidade no existir
+     */
+    public CompletableFuture<Integer> enviarMensagemAssincrona(String loginUsuario, String nome, String mensagem)
+            throws UserNotFoundException, CommunityNotFoundException {
+        CompletableFuture<Integer> entrega;
+        try (StripedLocks.Guarda guarda = travas.leitura(usuario(loginUsuario), comunidade(nome))) {
+            entrega = communityService.enviarMensagemComunidade(loginUsuario, nome, mensagem);
+        }
+        return entrega.whenComplete((entregues, erro) -> marcarAlterado());
     }
 
     /**
@@ -416,7 +831,8 @@ public class Sistema {
      * @throws EmptyMessagesException Se no houver mensagens para ler
      */
     public Message lerMensagem(String loginUsuario) throws UserNotFoundException, EmptyMessagesException {
-        return userService.lerMensagem(loginUsuario);
+        return alterar(loginUsuario, null, () -> travas.leitura(usuario(loginUsuario)),
+                () -> userService.lerMensagem(loginUsuario));
     }
 
     /**
@@ -428,7 +844,8 @@ public class Sistema {
      * @throws UserNotFoundException Se algum usurio no for encontrado
      */
     public boolean ehPaquera(String sessaoId, String paqueraLogin) throws UserNotFoundException {
-        return userService.ehPaquera(sessaoId, paqueraLogin);
+        return travas.lerOtimista(() -> userService.ehPaquera(sessaoId, paqueraLogin),
+                usuario(sessaoId), usuario(paqueraLogin));
     }
 
     /**
@@ -440,19 +857,296 @@ public class Sistema {
      * @throws UserNotFoundException Se algum usurio no for encontrado
      */
     public boolean ehFa(String loginFa, String idoloLogin) throws UserNotFoundException {
-        return userService.ehFa(loginFa, idoloLogin);
+        return travas.lerOtimista(() -> userService.ehFa(loginFa, idoloLogin),
+                usuario(loginFa), usuario(idoloLogin));
     }
 
     /**
-     * Remove completamente um usurio do sistema.
+     * Remove um usurio do sistema.
+     * O usurio deixa de existir imediatamente; os seus vnculos so apagados em segundo plano.
      *
      * @param sessaoId Login do usurio a ser removido
      * @throws UserNotFoundException Se o usurio no for encontrado
      */
     public void removerUsuario(String sessaoId) throws UserNotFoundException {
-        sessionService.fecharSessao(sessaoId);
-        communityService.deletarComunidadesDono(sessaoId);
-        userService.removerUsuario(sessaoId);
+        try (StripedLocks.Guarda guarda = travas.exclusivo()) {
+            aguardarGravacao();
+            sessionService.fecharSessao(sessaoId);
+            communityService.deletarComunidadesDono(sessaoId);
+            communityService.registrarSaidaUsuario(sessaoId);
+            userService.removerUsuario(sessaoId);
+            marcarAlterado();
+        }
+    }
+
+    // ========== MTODOS DE LISTAGEM PAGINADA ==========
+
+    /**
+     * Obtm uma pgina da lista de amigos.
+     *
+     * @param login Login do usurio
+     * @param inicio Posio do primeiro item (a partir de 0)
+     * @param limite Quantidade mxima de itens
+     * @return Itens da pgina, no formato {item1,item2}
+     * @throws UserNotFoundException Se o usurio no for encontrado
+     * @throws InvalidPageException Se os parmetros da pgina forem invlidos
+     */
+    public String getAmigosPaginado(String login, int inicio, int limite)
+            throws UserNotFoundException, InvalidPageException {
+        try (StripedLocks.Guarda guarda = travas.leitura(usuario(login))) {
+            return userService.getAmigosPaginado(login, inicio, limite);
+        }
+    }
+
+    /**
+     * Escreve a lista de amigos no destino, item a item, sem montar a string inteira em memria.
+     *
+     * @param login Login do usurio
+     * @param destino Destino da escrita
+     * @throws UserNotFoundException Se o usurio no for encontrado
+     * @throws IOException Se ocorrer erro ao escrever no destino
+     */
+    public void escreverAmigos(String login, Appendable destino) throws UserNotFoundException, IOException {
+        try (StripedLocks.Guarda guarda = travas.leitura(usuario(login))) {
+            userService.escreverAmigos(login, destino);
+        }
+    }
+
+    /**
+     * Obtm uma pgina da lista de comunidades do usurio.
+     *
+     * @param login Login do usurio
+     * @param inicio Posio do primeiro item (a partir de 0)
+     * @param limite Quantidade mxima de itens
+     * @return Itens da pgina, no formato {item1,item2}
+     * @throws UserNotFoundException Se o usurio no for encontrado
+     * @throws InvalidPageException Se os parmetros da pgina forem invlidos
+     */
+    public String getComunidadesPaginado(String login, int inicio, int limite)
+            throws UserNotFoundException, InvalidPageException {
+        try (StripedLocks.Guarda guarda = travas.leitura(usuario(login))) {
+            return userService.getComunidadesPaginado(login, inicio, limite);
+        }
+    }
+
+    /**
+     * Escreve a lista de comunidades do usurio no destino, item a item, sem montar a string inteira em memria.
+     *
+     * @param login Login do usurio
+     * @param destino Destino da escrita
+     * @throws UserNotFoundException Se o usurio no for encontrado
+     * @throws IOException Se ocorrer erro ao escrever no destino
+     */
+    public void escreverComunidades(String login, Appendable destino) throws UserNotFoundException, IOException {
+        try (StripedLocks.Guarda guarda = travas.leitura(usuario(login))) {
+            userService.escreverComunidades(login, destino);
+        }
+    }
+
+    /**
+     * Obtm uma pgina da lista de paqueras.
+     *
+     * @param sessaoId Login do usurio
+     * @param inicio Posio do primeiro item (a partir de 0)
+     * @param limite Quantidade mxima de itens
+     * @return Itens da pgina, no formato {item1,item2}
+     * @throws UserNotFoundException Se o usurio no for encontrado
+     * @throws InvalidPageException Se os parmetros da pgina forem invlidos
+     */
+    public String getPaquerasPaginado(String sessaoId, int inicio, int limite)
+            throws UserNotFoundException, InvalidPageException {
+        try (StripedLocks.Guarda guarda = travas.leitura(usuario(sessaoId))) {
+            return userService.getPaquerasPaginado(sessaoId, inicio, limite);
+        }
+    }
+
+    /**
+     * Escreve a lista de paqueras no destino, item a item, sem montar a string inteira em memria.
+     *
+     * @param sessaoId Login do usurio
+     * @param destino Destino da escrita
+     * @throws UserNotFoundException Se o usurio no for encontrado
+     * @throws IOException Se ocorrer erro ao escrever no destino
+     */
+    public void escreverPaqueras(String sessaoId, Appendable destino) throws UserNotFoundException, IOException {
+        try (StripedLocks.Guarda guarda = travas.leitura(usuario(sessaoId))) {
+            userService.escreverPaqueras(sessaoId, destino);
+        }
+    }
+
+    /**
+     * Obtm uma pgina da lista de fs.
+     *
+     * @param loginIdolo Login do dolo
+     * @param inicio Posio do primeiro item (a partir de 0)
+     * @param limite Quantidade mxima de itens
+     * @return Itens da pgina, no formato {item1,item2}
+     * @throws UserNotFoundException Se o usurio no for encontrado
+     * @throws InvalidPageException Se os parmetros da pgina forem invlidos
+     */
+    public String getFasPaginado(String loginIdolo, int inicio, int limite)
+            throws UserNotFoundException, InvalidPageException {
+        try (StripedLocks.Guarda guarda = travas.leitura(usuario(loginIdolo))) {
+            return userService.getFasPaginado(loginIdolo, inicio, limite);
+        }
+    }
+
+    /**
+     * Escreve a lista de fs no destino, item a item, sem montar a string inteira em memria.
+     *
+     * @param loginIdolo Login do dolo
+     * @param destino Destino da escrita
+     * @throws UserNotFoundException Se o usurio no for encontrado
+     * @throws IOException Se ocorrer erro ao escrever no destino
+     */
+    public void escreverFas(String loginIdolo, Appendable destino) throws UserNotFoundException, IOException {
+        try (StripedLocks.Guarda guarda = travas.leitura(usuario(loginIdolo))) {
+            userService.escreverFas(loginIdolo, destino);
+        }
+    }
+
+    /**
+     * Obtm uma pgina da lista de membros da comunidade.
+     *
+     * @param nome Nome da comunidade
+     * @param inicio Posio do primeiro item (a partir de 0)
+     * @param limite Quantidade mxima de itens
+     * @return Itens da pgina, no formato {item1,item2}
+     * @throws CommunityNotFoundException Se a comunidade no existir
+     * @throws InvalidPageException Se os parmetros da pgina forem invlidos
+     */
+    public String getMembrosComunidadePaginado(String nome, int inicio, int limite)
+            throws CommunityNotFoundException, InvalidPageException {
+        try (StripedLocks.Guarda guarda = travas.leitura(comunidade(nome))) {
+            return communityService.getMembrosComunidadePaginado(nome, inicio, limite);
+        }
+    }
+
+    /**
+     * Escreve a lista de membros da comunidade no destino, item a item, sem montar a string inteira em memria.
+     *
+     * @param nome Nome da comunidade
+     * @param destino Destino da escrita
+     * @throws CommunityNotFoundException Se a comunidade no existir
+     * @throws IOException Se ocorrer erro ao escrever no destino
+     */
+    public void escreverMembrosComunidade(String nome, Appendable destino) throws CommunityNotFoundException, IOException {
+        try (StripedLocks.Guarda guarda = travas.leitura(comunidade(nome))) {
+            communityService.escreverMembrosComunidade(nome, destino);
+        }
+    }
+
+    /**
+     * Obtm as mtricas do cache de listas formatadas (amigos, comunidades e membros).
+     *
+     * @return Acertos, falhas, despejos, entradas e memria estimada, formatados
+     */
+    public String getMetricasCache() {
+        try (StripedLocks.Guarda guarda = travas.leitura()) {
+            return userService.getMetricasCache();
+        }
+    }
+
+    /**
+     * Obtm as mtricas de entrega de mensagens de comunidade.
+     *
+     * @return Entregas agendadas, concludas e pendentes, e faixas em andamento, formatadas
+     */
+    public String getMetricasEntregas() {
+        return communityService.getMetricasEntregas();
+    }
+
+    /**
+     * Aplica um lote de alteraes com uma nica aquisio da trava exclusiva e uma
+     * nica gravao. Os comandos so executados em ordem diretamente nos servios,
+     * tambm no modo de caixas postais; se um deles falhar, os anteriores so desfeitos
+     * e nenhuma alterao do lote chega a ser vista ou gravada (ver {@link CommandBatch}).
+     *
+     * @param lote Comandos a aplicar
+     * @return Quantidade de comandos aplicados
+     * @throws BatchFailedException Se um comando falhar; a causa  a exceo do comando
+     */
+    public int executarLote(CommandBatch lote) throws BatchFailedException {
+        try (StripedLocks.Guarda guarda = travas.exclusivo()) {
+            try {
+                return lote.aplicar(userService, communityService);
+            } finally {
+                // Mesmo desfeito, o lote pode ter concludo a varredura de usurios removidos
+                marcarAlterado();
+            }
+        }
+    }
+
+    /**
+     * Abre uma viso de leitura consistente de usurios e comunidades, congelada neste
+     * instante. As consultas pela viso no travam nem so travadas pelas alteraes,
+     * e no enxergam o que mudar depois da abertura. A viso deve ser fechada ao fim
+     * do uso (ver {@link ReadView}).
+     *
+     * @return Viso de leitura aberta
+     */
+    public ReadView abrirVisaoLeitura() {
+        try (StripedLocks.Guarda guarda = travas.exclusivo()) {
+            Map<String, User> usuarios = userService.copiarUsuariosPorLogin();
+            List<User> usuariosPorId = userService.copiarUsuariosPorId();
+            Map<String, Community> comunidades = new HashMap<>(communityService.getCommunities());
+            return new ReadView(SnapshotEpoch.abrir(), usuarios, usuariosPorId, comunidades);
+        }
+    }
+
+    /**
+     * Abre uma poca de leitura para uma consulta que percorre muitos perfis. A trava
+     * exclusiva  mantida s para a abertura; a consulta roda depois com a trava de
+     * leitura global, que s impede as operaes exclusivas, como a criao e a
+     * remoo de usurios, e l os perfis na verso da poca, sem impedir as
+     * alteraes. A poca deve ser fechada ao fim da consulta.
+     *
+     * @return poca aberta
+     */
+    private long abrirEpoca() {
+        try (StripedLocks.Guarda guarda = travas.exclusivo()) {
+            return SnapshotEpoch.abrir();
+        }
+    }
+
+    // ========== MTODOS DE ANLISE ==========
+
+    /**
+     * Inicia uma anlise em lote do grafo de relacionamentos (componentes conexos,
+     * histograma de graus e dolos com mais fs) sobre uma cpia congelada dos dados.
+     *
+     * @param arquivo Caminho do arquivo onde o relatrio ser gravado
+     * @return Identificador da anlise
+     */
+    public String iniciarAnalise(String arquivo) {
+        long epoca = abrirEpoca();
+        try (StripedLocks.Guarda guarda = travas.leitura()) {
+            return analyticsService.iniciar(userService.getUsers(), arquivo, epoca);
+        } finally {
+            SnapshotEpoch.fechar(epoca);
+        }
+    }
+
+    /**
+     * Obtm o progresso de uma anlise em lote.
+     *
+     * @param id Identificador da anlise
+     * @return Porcentagem concluda (0 a 100)
+     * @throws AnalysisNotFoundException Se a anlise no existir
+     */
+    public int getProgressoAnalise(String id) throws AnalysisNotFoundException {
+        return analyticsService.getProgresso(id);
+    }
+
+    /**
+     * Aguarda o fim de uma anlise em lote.
+     *
+     * @param id Identificador da anlise
+     * @return Resumo da anlise
+     * @throws AnalysisNotFoundException Se a anlise no existir
+     */
+    public String aguardarAnalise(String id) throws AnalysisNotFoundException {
+        return analyticsService.aguardar(id);
     }
 
     // ========== MTODOS DE GERENCIAMENTO DO SISTEMA ==========
@@ -461,26 +1155,299 @@ public class Sistema {
      * Reinicia o sistema, removendo todos os usurios, sesses e comunidades.
      */
     public void zerarSistema() {
-        userService.getUsers().clear();
-        sessionService.limparSessoes();
-        communityService.limparComunidades();
-        saveData();
+        try (StripedLocks.Guarda guarda = travas.exclusivo()) {
+            userService.limparUsuarios();
+            sessionService.limparSessoes();
+            communityService.limparComunidades();
+            StringPool.limpar();
+            if (SnapshotEpoch.abertas() == 0) {
+                // Sem vises ou gravao em andamento, nenhum perfil antigo usa mais os cdigos
+                AttributeDictionary.limpar();
+            }
+            gravar();
+        }
+    }
+
+    /**
+     * Ativa ou desativa o modo de caixas postais para as alteraes de usurios.
+     * Alteraes j postadas nas caixas so concludas normalmente aps a troca.
+     *
+     * @param ativo true para encaminhar as alteraes s caixas postais dos usurios
+     */
+    public void setModoCaixaPostal(boolean ativo) {
+        this.modoCaixaPostal = ativo;
+    }
+
+    /**
+     * Verifica se o modo de caixas postais est ativo.
+     *
+     * @return true se as alteraes de usurios passam pelas caixas postais
+     */
+    public boolean isModoCaixaPostal() {
+        return modoCaixaPostal;
     }
 
     /**
      * Encerra o sistema, persistindo todos os dados.
      */
     public void encerrarSistema() {
-        saveData();
-        sessionService.limparSessoes();
+        try (StripedLocks.Guarda guarda = travas.exclusivo()) {
+            userService.concluirRemocoes();
+            sessionService.limparSessoes();
+            gravar();
+        }
     }
 
     /**
-     * Salva os dados atuais no sistema de persistncia.
+     * Obtm a chave de trava de um usurio.
+     *
+     * @param login Login do usurio
+     * @return Chave usada em {@link StripedLocks}
+     */
+    private static String usuario(String login) {
+        return "u:" + login;
+    }
+
+    /**
+     * Obtm a chave de trava de uma comunidade.
+     *
+     * @param nome Nome da comunidade
+     * @return Chave usada em {@link StripedLocks}
+     */
+    private static String comunidade(String nome) {
+        return "c:" + nome;
+    }
+
+    /**
+     * Alterao executada por {@link #alterar(String, String, Supplier, Alteracao)}.
+     * As excees que ela declara so relanadas sem embrulho, tambm no modo de
+     * caixas postais.
+     *
+     * @param <T> Tipo do resultado
+     * @param <E1> Exceo que a alterao pode lanar
+     * @param <E2> Exceo que a alterao pode lanar
+     * @param <E3> Exceo que a alterao pode lanar
+     * @param <E4> Exceo que a alterao pode lanar
+     */
+    @FunctionalInterface
+    private interface Alteracao<T, E1 extends Exception, E2 extends Exception, E3 extends Exception,
+            E4 extends Exception> {
+        /**
+         * Executa a alterao.
+         *
+         * @return Resultado da alterao
+         * @throws E1 Se a alterao falhar
+         * @throws E2 Se a alterao falhar
+         * @throws E3 Se a alterao falhar
+         * @throws E4 Se a alterao falhar
+         */
+        T executar() throws E1, E2, E3, E4;
+    }
+
+    /**
+     * Executa uma alterao que envolve apenas um usurio, com a listra dele travada para escrita.
+     *
+     * @see #alterar(String, String, Supplier, Alteracao)
+     */
+    private <T, E1 extends Exception, E2 extends Exception, E3 extends Exception, E4 extends Exception> T alterar(
+            String login, Alteracao<T, E1, E2, E3, E4> operacao) throws E1, E2, E3, E4 {
+        return alterar(login, null, () -> travas.escrita(usuario(login)), operacao);
+    }
+
+    /**
+     * Executa uma alterao que envolve dois usurios, com as listras deles travadas para escrita.
+     *
+     * @see #alterar(String, String, Supplier, Alteracao)
+     */
+    private <T, E1 extends Exception, E2 extends Exception, E3 extends Exception, E4 extends Exception> T alterar(
+            String login, String outro, Alteracao<T, E1, E2, E3, E4> operacao) throws E1, E2, E3, E4 {
+        return alterar(login, outro, () -> travas.escrita(usuario(login), usuario(outro)), operacao);
+    }
+
+    /**
+     * Executa uma alterao sob as travas informadas e agenda a gravao. Os perfis
+     * dos usurios envolvidos so preservados antes, caso uma gravao esteja em
+     * andamento (ver {@link SnapshotEpoch}). No modo de
+     * caixas postais, a alterao  postada na caixa do usurio (ou nas dos dois
+     * usurios) e a chamada espera a concluso.
+     *
+     * @param login Usurio dono da caixa postal
+     * @param outro Segundo usurio envolvido, ou null
+     * @param trava Adquire as travas da operao
+     * @param operacao Alterao a executar
+     * @return Resultado da operao
+     * @throws E1 Se a alterao falhar
+     * @throws E2 Se a alterao falhar
+     * @throws E3 Se a alterao falhar
+     * @throws E4 Se a alterao falhar
+     */
+    private <T, E1 extends Exception, E2 extends Exception, E3 extends Exception, E4 extends Exception> T alterar(
+            String login, String outro, Supplier<StripedLocks.Guarda> trava, Alteracao<T, E1, E2, E3, E4> operacao)
+            throws E1, E2, E3, E4 {
+        if (!modoCaixaPostal) {
+            return executarTravada(login, outro, trava, operacao);
+        }
+        Callable<T> tarefa = () -> executarTravada(login, outro, trava, operacao);
+        CompletableFuture<T> futuro = outro == null
+                ? caixas.enviar(login, tarefa)
+                : caixas.enviar(login, outro, tarefa);
+        try {
+            return futuro.join();
+        } catch (CompletionException e) {
+            Throwable causa = e.getCause();
+            if (causa instanceof RuntimeException) {
+                throw (RuntimeException) causa;
+            } else if (causa instanceof Error) {
+                throw (Error) causa;
+            }
+            // A tarefa s lana as excees verificadas da alterao, que so E1 a E4
+            @SuppressWarnings("unchecked")
+            E1 declarada = (E1) causa;
+            throw declarada;
+        }
+    }
+
+    /**
+     * Executa uma alterao com as travas adquiridas e os perfis envolvidos preservados.
+     */
+    private <T, E1 extends Exception, E2 extends Exception, E3 extends Exception, E4 extends Exception> T executarTravada(
+            String login, String outro, Supplier<StripedLocks.Guarda> trava, Alteracao<T, E1, E2, E3, E4> operacao)
+            throws E1, E2, E3, E4 {
+        try (StripedLocks.Guarda guarda = trava.get()) {
+            userService.preservarPerfil(login);
+            userService.preservarPerfil(outro);
+            T resultado = operacao.executar();
+            marcarAlterado();
+            return resultado;
+        }
+    }
+
+    /**
+     * Registra que h alteraes no gravadas, agendando a gravao se ainda no houver uma.
+     */
+    private void marcarAlterado() {
+        if (gravacaoAgendada.compareAndSet(false, true)) {
+            gravador.schedule(this::saveData, ATRASO_GRAVACAO_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Grava as alteraes pendentes e impede novas gravaes. Como adquire a trava
+     * exclusiva, espera tambm uma gravao em andamento, que de outra forma poderia
+     * ser interrompida no meio pelo fim da JVM.
+     */
+    private void finalizar() {
+        try (StripedLocks.Guarda guarda = travas.exclusivo()) {
+            if (!finalizado && gravacaoAgendada.get()) {
+                gravar();
+            } else {
+                aguardarGravacao();
+            }
+            finalizado = true;
+        }
+    }
+
+    /**
+     * Grava as alteraes pendentes e libera a thread de gravao (usado ao reiniciar a instncia).
+     */
+    private void fechar() {
+        finalizar();
+        gravador.shutdownNow();
+        caixas.encerrar();
+        communityService.encerrarEntregas();
+        try {
+            Runtime.getRuntime().removeShutdownHook(gravacaoFinal);
+        } catch (IllegalStateException e) {
+            // A JVM j est finalizando; o gancho grava o que restar
+        }
+    }
+
+    /**
+     * Salva os dados atuais no sistema de persistncia, em segundo plano. A trava
+     * exclusiva  mantida s para avanar a varredura, copiar as listas de usurios,
+     * sesses e comunidades e iniciar uma poca de gravao; os arquivos so escritos
+     * depois, sem travas, enquanto as alteraes continuam. Os perfis e comunidades
+     * alterados nesse meio-tempo so gravados pela imagem preservada antes da
+     * alterao (ver {@link SnapshotEpoch}), e o resultado  o estado do incio.
      */
     private void saveData() {
-        userDAO.save(userService.getUsers());
-        sessionDAO.save(sessionService.getActiveSessions());
-        communityDAO.save(communityService.getCommunities());
+        List<User> usuarios;
+        List<String> sessoes;
+        Map<String, Community> comunidades;
+        long epoca;
+        try (StripedLocks.Guarda guarda = travas.exclusivo()) {
+            if (finalizado) {
+                return;
+            }
+            escritaArquivos.lock();
+            try {
+                prepararGravacao();
+                usuarios = new ArrayList<>(userService.getUsers());
+                sessoes = new ArrayList<>(sessionService.getActiveSessions());
+                comunidades = new HashMap<>(communityService.getCommunities());
+                epoca = SnapshotEpoch.iniciarGravacao();
+            } catch (RuntimeException | Error e) {
+                escritaArquivos.unlock();
+                throw e;
+            }
+        }
+        try {
+            escrever(usuarios, sessoes, comunidades);
+        } finally {
+            SnapshotEpoch.concluirGravacao(epoca);
+            escritaArquivos.unlock();
+        }
+    }
+
+    /**
+     * Avana um lote da varredura de usurios removidos e grava os dados na hora,
+     * depois de esperar a gravao em segundo plano em andamento.
+     * Deve ser chamado com a trava exclusiva.
+     */
+    private void gravar() {
+        escritaArquivos.lock();
+        try {
+            prepararGravacao();
+            escrever(userService.getUsers(), sessionService.getActiveSessions(), communityService.getCommunities());
+        } finally {
+            escritaArquivos.unlock();
+        }
+    }
+
+    /**
+     * Espera a gravao em segundo plano em andamento, se houver. Usado com a trava
+     * exclusiva pelas operaes estruturais que alteram objetos sem preserv-los
+     * (remoo de usurios, criao de comunidades).
+     */
+    private void aguardarGravacao() {
+        escritaArquivos.lock();
+        escritaArquivos.unlock();
+    }
+
+    /**
+     * Limpa a marca de alteraes pendentes e avana um lote da varredura de usurios
+     * removidos. Deve ser chamado com a trava exclusiva.
+     */
+    private void prepararGravacao() {
+        gravacaoAgendada.set(false);
+        if (userService.varrerRemocoes()) {
+            marcarAlterado();
+        }
+    }
+
+    /**
+     * Grava os arquivos de dados. Uma gravao que falha mantm os arquivos anteriores
+     * (ver {@link UserDAO#save(List)}) e deixa as alteraes pendentes de novo, para que
+     * a prxima gravao agendada, ou a do encerramento da JVM, tente outra vez.
+     */
+    private void escrever(List<User> usuarios, List<String> sessoes, Map<String, Community> comunidades) {
+        try {
+            userDAO.save(usuarios);
+            sessionDAO.save(sessoes);
+            communityDAO.save(comunidades);
+        } catch (IOException | RuntimeException | Error e) {
+            e.printStackTrace();
+            marcarAlterado();
+        }
     }
 }
\ No newline at end of file
@@ -1,7 +1,11 @@
 package br.ufal.ic.p2.jackut.Utils;
 
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.RandomAccess;
+import java.util.stream.Stream;
 
 /**
  * Formatador de lista de itens de qualquer tipo
@@ -12,21 +16,125 @@ import java.util.stream.Collectors;
 
 public class GlobalFormatter {
 
-    
+    /** Capacidade mxima mantida no buffer de cada thread entre chamadas */
+    private static final int CAPACIDADE_RETIDA = 64 * 1024;
+
+    /** Buffer reaproveitado pelas formataes da thread, evitando um StringBuilder novo por chamada */
+    private static final ThreadLocal<StringBuilder> BUFFER = ThreadLocal.withInitial(() -> new StringBuilder(256));
+
     // Formata uma lista de qualquer tipo no padro {item1,item2,item3}
 
     /**
      * Obtm a lista formatada como string
      *
-     * @param items Lista de itens
+     * @param items Coleo de itens, na ordem em que devem ser listados
      * @return String com todos os itens no formato especificado nas User Stories
      */
-    public static <T> String formatList(List<T> items) {
+    public static <T> String formatList(Collection<T> items) {
         if (items == null || items.isEmpty()) {
             return "{}";
         }
-        return "{" + items.stream()
-                .map(Object::toString)
-                .collect(Collectors.joining(",")) + "}";
+        StringBuilder buffer = BUFFER.get();
+        buffer.setLength(0);
+        formatList(items, buffer);
+        return liberar(buffer);
+    }
+
+    /**
+     * Escreve a lista formatada em um StringBuilder fornecido pelo chamador.
+     * Itens String so copiados diretamente; os demais usam {@code toString()}
+     * (que em User e Community devolve o nome j guardado, sem criar objetos).
+     *
+     * @param items Coleo de itens, na ordem em que devem ser listados
+     * @param destino Buffer onde a lista  acrescentada
+     */
+    public static <T> void formatList(Collection<T> items, StringBuilder destino) {
+        destino.append('{');
+        if (items != null && !items.isEmpty()) {
+            // Reserva espao para nomes curtos; nomes maiores fazem o buffer crescer normalmente
+            destino.ensureCapacity(destino.length() + items.size() * 12 + 1);
+            if (items instanceof List && items instanceof RandomAccess) {
+                List<T> lista = (List<T>) items;
+                for (int i = 0, n = lista.size(); i < n; i++) {
+                    if (i > 0) {
+                        destino.append(',');
+                    }
+                    acrescentar(destino, lista.get(i));
+                }
+            } else {
+                boolean primeiro = true;
+                for (T item : items) {
+                    if (!primeiro) {
+                        destino.append(',');
+                    }
+                    acrescentar(destino, item);
+                    primeiro = false;
+                }
+            }
+        }
+        destino.append('}');
+    }
+
+    /**
+     * Obtm uma pgina dos itens formatada como string, sem materializar os demais itens
+     *
+     * @param items Itens, na ordem em que devem ser listados
+     * @param inicio Posio do primeiro item da pgina
+     * @param limite Quantidade mxima de itens
+     * @return String com os itens da pgina no formato {item1,item2}
+     */
+    public static <T> String formatPage(Stream<T> items, int inicio, int limite) {
+        StringBuilder buffer = BUFFER.get();
+        buffer.setLength(0);
+        buffer.append('{');
+        Iterator<T> it = items.skip(inicio).limit(limite).iterator();
+        while (it.hasNext()) {
+            acrescentar(buffer, it.next());
+            if (it.hasNext()) {
+                buffer.append(',');
+            }
+        }
+        buffer.append('}');
+        return liberar(buffer);
+    }
+
+    /**
+     * Escreve os itens no formato {item1,item2}  medida que so percorridos,
+     * sem montar a string inteira em memria
+     *
+     * @param items Itens, na ordem em que devem ser listados
+     * @param destino Destino da escrita
+     * @throws IOException Se ocorrer erro ao escrever no destino
+     */
+    public static <T> void writeList(Stream<T> items, Appendable destino) throws IOException {
+        destino.append('{');
+        Iterator<T> it = items.iterator();
+        while (it.hasNext()) {
+            destino.append(it.next().toString());
+            if (it.hasNext()) {
+                destino.append(',');
+            }
+        }
+        destino.append('}');
+    }
+
+    private static void acrescentar(StringBuilder destino, Object item) {
+        if (item instanceof String) {
+            destino.append((String) item);
+        } else {
+            destino.append(item);
+        }
+    }
+
+    /**
+     * Obtm o contedo do buffer da thread e o descarta se tiver crescido demais,
+     * para que uma lista muito grande no fique retida em memria.
+     */
+    private static String liberar(StringBuilder buffer) {
+        String resultado = buffer.toString();
+        if (buffer.capacity() > CAPACIDADE_RETIDA) {
+            BUFFER.remove();
+        }
+        return resultado;
     }
 }
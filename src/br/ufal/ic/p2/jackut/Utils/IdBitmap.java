@@ -0,0 +1,617 @@
+package br.ufal.ic.p2.jackut.Utils;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Conjunto compacto de identificadores inteiros no negativos, no estilo "Roaring bitmap".
+ *
+ * <p>Os identificadores so divididos em blocos de 2<sup>16</sup> valores, indexados pelos
+ * 16 bits mais altos. Cada bloco guarda os 16 bits mais baixos no continer mais econmico:</p>
+ * <ul>
+ *   <li><b>array</b> - vetor ordenado, para blocos com at {@value #LIMITE_ARRAY} valores</li>
+ *   <li><b>bitmap</b> - 1024 palavras de 64 bits, para blocos densos</li>
+ *   <li><b>run</b> - intervalos contguos, gerados por {@link #otimizar()}</li>
+ * </ul>
+ *
+ * <p>A serializao grava os contineres na forma compactada, sem expandi-los.</p>
+ *
+ * @author Marcos Melo
+ * @version 1.0
+ */
+public class IdBitmap implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /** Cardinalidade mxima de um continer array antes de virar bitmap */
+    private static final int LIMITE_ARRAY = 4096;
+
+    private static final byte TIPO_ARRAY = 0;
+    private static final byte TIPO_BITMAP = 1;
+    private static final byte TIPO_RUN = 2;
+
+    private transient char[] chaves;
+    private transient Container[] containers;
+    private transient int tamanho;
+
+    /**
+     * Cria um conjunto vazio.
+     */
+    public IdBitmap() {
+        this.chaves = new char[4];
+        this.containers = new Container[4];
+    }
+
+    /**
+     * Adiciona um identificador ao conjunto.
+     *
+     * @param id Identificador (no negativo)
+     * @return true se o identificador no estava no conjunto
+     */
+    public boolean adicionar(int id) {
+        char chave = (char) (id >>> 16);
+        int i = buscarChave(chave);
+        if (i < 0) {
+            i = -i - 1;
+            inserirContainer(i, chave, new ArrayContainer());
+        }
+        Container c = containers[i];
+        int antes = c.cardinalidade();
+        containers[i] = c.adicionar((char) id);
+        return containers[i].cardinalidade() > antes;
+    }
+
+    /**
+     * Remove um identificador do conjunto.
+     *
+     * @param id Identificador
+     * @return true se o identificador estava no conjunto
+     */
+    public boolean remover(int id) {
+        int i = buscarChave((char) (id >>> 16));
+        if (i < 0) {
+            return false;
+        }
+        Container c = containers[i];
+        int antes = c.cardinalidade();
+        Container novo = c.remover((char) id);
+        if (novo.cardinalidade() == 0) {
+            removerContainer(i);
+        } else {
+            containers[i] = novo;
+        }
+        return novo.cardinalidade() < antes;
+    }
+
+    /**
+     * Verifica se um identificador pertence ao conjunto.
+     *
+     * @param id Identificador
+     * @return true se pertencer ao conjunto
+     */
+    public boolean contem(int id) {
+        int i = buscarChave((char) (id >>> 16));
+        return i >= 0 && containers[i].contem((char) id);
+    }
+
+    /**
+     * Obtm o nmero de identificadores do conjunto.
+     *
+     * @return Cardinalidade do conjunto
+     */
+    public int cardinalidade() {
+        int total = 0;
+        for (int i = 0; i < tamanho; i++) {
+            total += containers[i].cardinalidade();
+        }
+        return total;
+    }
+
+    /**
+     * Verifica se o conjunto est vazio.
+     *
+     * @return true se no houver identificadores
+     */
+    public boolean isVazio() {
+        return tamanho == 0;
+    }
+
+    /**
+     * Percorre os identificadores em ordem crescente.
+     *
+     * @param acao Ao executada para cada identificador
+     */
+    public void paraCada(IntConsumer acao) {
+        for (int i = 0; i < tamanho; i++) {
+            containers[i].paraCada(chaves[i] << 16, acao);
+        }
+    }
+
+    /**
+     * Obtm os identificadores em ordem crescente.
+     *
+     * @return Vetor com os identificadores
+     */
+    public int[] paraArray() {
+        int[] saida = new int[cardinalidade()];
+        int[] pos = {0};
+        paraCada(id -> saida[pos[0]++] = id);
+        return saida;
+    }
+
+    /**
+     * Obtm uma pgina dos identificadores, em ordem crescente.
+     * Os containers anteriores ao incio da pgina so pulados sem serem percorridos.
+     *
+     * @param inicio Posio do primeiro identificador da pgina
+     * @param limite Quantidade mxima de identificadores
+     * @return Vetor com os identificadores da pgina
+     */
+    public int[] pagina(int inicio, int limite) {
+        int[] saida = new int[Math.max(0, Math.min(limite, cardinalidade() - inicio))];
+        int[] pos = {0};
+        int pular = inicio;
+        for (int i = 0; i < tamanho && pos[0] < saida.length; i++) {
+            int n = containers[i].cardinalidade();
+            if (pular >= n) {
+                pular -= n;
+                continue;
+            }
+            int[] resto = {pular};
+            pular = 0;
+            containers[i].paraCada(chaves[i] << 16, id -> {
+                if (resto[0] > 0) {
+                    resto[0]--;
+                } else if (pos[0] < saida.length) {
+                    saida[pos[0]++] = id;
+                }
+            });
+        }
+        return saida;
+    }
+
+    /**
+     * Calcula a interseo entre dois conjuntos.
+     *
+     * @param a Primeiro conjunto
+     * @param b Segundo conjunto
+     * @return Novo conjunto com os identificadores presentes em ambos
+     */
+    public static IdBitmap intersecao(IdBitmap a, IdBitmap b) {
+        IdBitmap r = new IdBitmap();
+        int i = 0, j = 0;
+        while (i < a.tamanho && j < b.tamanho) {
+            if (a.chaves[i] < b.chaves[j]) {
+                i++;
+            } else if (a.chaves[i] > b.chaves[j]) {
+                j++;
+            } else {
+                Container c = a.containers[i].intersecao(b.containers[j]);
+                if (c.cardinalidade() > 0) {
+                    r.inserirContainer(r.tamanho, a.chaves[i], c);
+                }
+                i++;
+                j++;
+            }
+        }
+        return r;
+    }
+
+    /**
+     * Converte cada continer para a representao mais compacta,
+     * usando intervalos (runs) quando os identificadores forem contguos.
+     */
+    public void otimizar() {
+        for (int i = 0; i < tamanho; i++) {
+            containers[i] = containers[i].otimizar();
+        }
+    }
+
+    /**
+     * Obtm uma cpia do conjunto com os contineres na representao mais compacta,
+     * sem alterar este conjunto.
+     *
+     * @return Novo conjunto com os mesmos identificadores
+     */
+    public IdBitmap otimizado() {
+        IdBitmap r = new IdBitmap();
+        for (int i = 0; i < tamanho; i++) {
+            Container c = containers[i].otimizar();
+            r.inserirContainer(r.tamanho, chaves[i], c == containers[i] ? c.copiar() : c);
+        }
+        return r;
+    }
+
+    /**
+     * Estima a memria ocupada pelos contineres.
+     *
+     * @return Tamanho aproximado em bytes
+     */
+    public long getTamanhoEmBytes() {
+        long total = 16L + chaves.length * 2L + containers.length * 8L;
+        for (int i = 0; i < tamanho; i++) {
+            total += containers[i].tamanhoEmBytes();
+        }
+        return total;
+    }
+
+    private int buscarChave(char chave) {
+        return Arrays.binarySearch(chaves, 0, tamanho, chave);
+    }
+
+    private void inserirContainer(int i, char chave, Container c) {
+        if (tamanho == chaves.length) {
+            chaves = Arrays.copyOf(chaves, tamanho * 2);
+            containers = Arrays.copyOf(containers, tamanho * 2);
+        }
+        System.arraycopy(chaves, i, chaves, i + 1, tamanho - i);
+        System.arraycopy(containers, i, containers, i + 1, tamanho - i);
+        chaves[i] = chave;
+        containers[i] = c;
+        tamanho++;
+    }
+
+    private void removerContainer(int i) {
+        System.arraycopy(chaves, i + 1, chaves, i, tamanho - i - 1);
+        System.arraycopy(containers, i + 1, containers, i, tamanho - i - 1);
+        containers[--tamanho] = null;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeInt(tamanho);
+        for (int i = 0; i < tamanho; i++) {
+            out.writeChar(chaves[i]);
+            containers[i].gravar(out);
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        int n = in.readInt();
+        chaves = new char[Math.max(4, n)];
+        containers = new Container[Math.max(4, n)];
+        for (int i = 0; i < n; i++) {
+            chaves[i] = in.readChar();
+            containers[i] = Container.ler(in);
+        }
+        tamanho = n;
+    }
+
+    // ========== CONTINERES ==========
+
+    /**
+     * Continer dos 16 bits mais baixos de um bloco de identificadores.
+     * As operaes de escrita devolvem o continer resultante, que pode ser de outro tipo.
+     */
+    private abstract static class Container {
+        abstract Container adicionar(char v);
+        abstract Container remover(char v);
+        abstract boolean contem(char v);
+        abstract int cardinalidade();
+        abstract void paraCada(int base, IntConsumer acao);
+        abstract Container copiar();
+        abstract long tamanhoEmBytes();
+        abstract void gravar(ObjectOutputStream out) throws IOException;
+
+        BitmapContainer paraBitmap() {
+            BitmapContainer b = new BitmapContainer();
+            paraCada(0, v -> b.marcar((char) v));
+            return b;
+        }
+
+        Container intersecao(Container outro) {
+            if (this instanceof BitmapContainer && outro instanceof BitmapContainer) {
+                return ((BitmapContainer) this).e((BitmapContainer) outro);
+            }
+            Container menor = cardinalidade() <= outro.cardinalidade() ? this : outro;
+            Container maior = menor == this ? outro : this;
+            ArrayContainer r = new ArrayContainer();
+            menor.paraCada(0, v -> {
+                if (maior.contem((char) v)) r.anexar((char) v);
+            });
+            return r.n > LIMITE_ARRAY ? r.paraBitmap() : r;
+        }
+
+        Container otimizar() {
+            RunContainer run = RunContainer.de(this);
+            return run.tamanhoEmBytes() < tamanhoEmBytes() ? run : this;
+        }
+
+        static Container ler(ObjectInputStream in) throws IOException {
+            byte tipo = in.readByte();
+            if (tipo == TIPO_ARRAY) {
+                ArrayContainer a = new ArrayContainer();
+                int n = in.readInt();
+                a.valores = new char[Math.max(4, n)];
+                for (int i = 0; i < n; i++) a.valores[i] = in.readChar();
+                a.n = n;
+                return a;
+            } else if (tipo == TIPO_BITMAP) {
+                BitmapContainer b = new BitmapContainer();
+                for (int i = 0; i < b.palavras.length; i++) b.palavras[i] = in.readLong();
+                b.recontar();
+                return b;
+            } else {
+                int n = in.readInt();
+                char[] runs = new char[n * 2];
+                for (int i = 0; i < runs.length; i++) runs[i] = in.readChar();
+                return new RunContainer(runs);
+            }
+        }
+    }
+
+    /**
+     * Vetor ordenado de valores, para blocos esparsos.
+     */
+    private static class ArrayContainer extends Container {
+        private char[] valores = new char[4];
+        private int n;
+
+        @Override
+        Container adicionar(char v) {
+            int i = Arrays.binarySearch(valores, 0, n, v);
+            if (i >= 0) return this;
+            if (n >= LIMITE_ARRAY) {
+                BitmapContainer b = paraBitmap();
+                b.marcar(v);
+                return b;
+            }
+            i = -i - 1;
+            if (n == valores.length) valores = Arrays.copyOf(valores, Math.min(LIMITE_ARRAY, n * 2));
+            System.arraycopy(valores, i, valores, i + 1, n - i);
+            valores[i] = v;
+            n++;
+            return this;
+        }
+
+        @Override
+        Container remover(char v) {
+            int i = Arrays.binarySearch(valores, 0, n, v);
+            if (i >= 0) {
+                System.arraycopy(valores, i + 1, valores, i, n - i - 1);
+                n--;
+            }
+            return this;
+        }
+
+        @Override
+        boolean contem(char v) {
+            return Arrays.binarySearch(valores, 0, n, v) >= 0;
+        }
+
+        @Override
+        int cardinalidade() {
+            return n;
+        }
+
+        @Override
+        void paraCada(int base, IntConsumer acao) {
+            for (int i = 0; i < n; i++) acao.accept(base | valores[i]);
+        }
+
+        @Override
+        Container copiar() {
+            ArrayContainer c = new ArrayContainer();
+            c.valores = Arrays.copyOf(valores, Math.max(4, n));
+            c.n = n;
+            return c;
+        }
+
+        @Override
+        long tamanhoEmBytes() {
+            return 16L + valores.length * 2L;
+        }
+
+        @Override
+        void gravar(ObjectOutputStream out) throws IOException {
+            out.writeByte(TIPO_ARRAY);
+            out.writeInt(n);
+            for (int i = 0; i < n; i++) out.writeChar(valores[i]);
+        }
+
+        /** Acrescenta um valor maior que todos os existentes. */
+        void anexar(char v) {
+            if (n == valores.length) valores = Arrays.copyOf(valores, n * 2);
+            valores[n++] = v;
+        }
+    }
+
+    /**
+     * Mapa de 2<sup>16</sup> bits, para blocos densos.
+     */
+    private static class BitmapContainer extends Container {
+        private final long[] palavras = new long[1024];
+        private int n;
+
+        void marcar(char v) {
+            long antes = palavras[v >>> 6];
+            palavras[v >>> 6] = antes | (1L << v);
+            if (antes != palavras[v >>> 6]) n++;
+        }
+
+        @Override
+        Container adicionar(char v) {
+            marcar(v);
+            return this;
+        }
+
+        @Override
+        Container remover(char v) {
+            long antes = palavras[v >>> 6];
+            palavras[v >>> 6] = antes & ~(1L << v);
+            if (antes != palavras[v >>> 6]) n--;
+            return reduzir();
+        }
+
+        @Override
+        boolean contem(char v) {
+            return (palavras[v >>> 6] & (1L << v)) != 0;
+        }
+
+        @Override
+        int cardinalidade() {
+            return n;
+        }
+
+        @Override
+        void paraCada(int base, IntConsumer acao) {
+            for (int w = 0; w < palavras.length; w++) {
+                long palavra = palavras[w];
+                while (palavra != 0) {
+                    acao.accept(base | (w << 6) | Long.numberOfTrailingZeros(palavra));
+                    palavra &= palavra - 1;
+                }
+            }
+        }
+
+        @Override
+        Container copiar() {
+            BitmapContainer c = new BitmapContainer();
+            System.arraycopy(palavras, 0, c.palavras, 0, palavras.length);
+            c.n = n;
+            return c;
+        }
+
+        @Override
+        long tamanhoEmBytes() {
+            return 16L + palavras.length * 8L;
+        }
+
+        @Override
+        void gravar(ObjectOutputStream out) throws IOException {
+            out.writeByte(TIPO_BITMAP);
+            for (long palavra : palavras) out.writeLong(palavra);
+        }
+
+        BitmapContainer e(BitmapContainer o) {
+            BitmapContainer r = new BitmapContainer();
+            for (int i = 0; i < palavras.length; i++) r.palavras[i] = palavras[i] & o.palavras[i];
+            r.recontar();
+            return r;
+        }
+
+        void recontar() {
+            int total = 0;
+            for (long palavra : palavras) total += Long.bitCount(palavra);
+            n = total;
+        }
+
+        /** Volta para array quando a cardinalidade cai abaixo do limite. */
+        Container reduzir() {
+            if (n > LIMITE_ARRAY) return this;
+            ArrayContainer a = new ArrayContainer();
+            a.valores = new char[Math.max(4, n)];
+            paraCada(0, v -> a.anexar((char) v));
+            return a;
+        }
+    }
+
+    /**
+     * Sequncia de intervalos [incio, incio + comprimento], para blocos contguos.
+     * Escritas convertem o continer de volta para array ou bitmap.
+     */
+    private static class RunContainer extends Container {
+        /** Pares (incio, comprimento - 1) em ordem crescente */
+        private final char[] runs;
+        private final int n;
+
+        RunContainer(char[] runs) {
+            this.runs = runs;
+            int total = 0;
+            for (int i = 1; i < runs.length; i += 2) total += runs[i] + 1;
+            this.n = total;
+        }
+
+        static RunContainer de(Container c) {
+            char[][] buffer = {new char[8]};
+            int[] tam = {0};
+            c.paraCada(0, valor -> {
+                char v = (char) valor;
+                char[] r = buffer[0];
+                int t = tam[0];
+                if (t > 0 && r[t - 2] + r[t - 1] + 1 == v) {
+                    r[t - 1]++;
+                } else {
+                    if (t == r.length) buffer[0] = r = Arrays.copyOf(r, t * 2);
+                    r[t] = v;
+                    r[t + 1] = 0;
+                    tam[0] = t + 2;
+                }
+            });
+            return new RunContainer(Arrays.copyOf(buffer[0], tam[0]));
+        }
+
+        private Container expandir() {
+            return n > LIMITE_ARRAY ? paraBitmap() : paraArray();
+        }
+
+        private ArrayContainer paraArray() {
+            ArrayContainer a = new ArrayContainer();
+            a.valores = new char[Math.max(4, n)];
+            paraCada(0, v -> a.anexar((char) v));
+            return a;
+        }
+
+        @Override
+        Container adicionar(char v) {
+            return contem(v) ? this : expandir().adicionar(v);
+        }
+
+        @Override
+        Container remover(char v) {
+            return contem(v) ? expandir().remover(v) : this;
+        }
+
+        @Override
+        boolean contem(char v) {
+            int lo = 0, hi = runs.length / 2 - 1;
+            while (lo <= hi) {
+                int m = (lo + hi) >>> 1;
+                char inicio = runs[m * 2];
+                if (v < inicio) hi = m - 1;
+                else if (v > inicio + runs[m * 2 + 1]) lo = m + 1;
+                else return true;
+            }
+            return false;
+        }
+
+        @Override
+        int cardinalidade() {
+            return n;
+        }
+
+        @Override
+        void paraCada(int base, IntConsumer acao) {
+            for (int i = 0; i < runs.length; i += 2) {
+                int fim = runs[i] + runs[i + 1];
+                for (int v = runs[i]; v <= fim; v++) acao.accept(base | v);
+            }
+        }
+
+        @Override
+        Container copiar() {
+            return this;
+        }
+
+        @Override
+        Container otimizar() {
+            return this;
+        }
+
+        @Override
+        long tamanhoEmBytes() {
+            return 16L + runs.length * 2L;
+        }
+
+        @Override
+        void gravar(ObjectOutputStream out) throws IOException {
+            out.writeByte(TIPO_RUN);
+            out.writeInt(runs.length / 2);
+            for (char c : runs) out.writeChar(c);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package br.ufal.ic.p2.jackut.Utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Ranking mantido de forma incremental, implementado como uma skip list.
+ *
+ * <p>As entradas ficam ordenadas por pontuao (decrescente) e, em caso de empate,
+ * pela chave. Um mapa auxiliar localiza o n de cada chave, de modo que atualizar
+ * uma pontuao custa O(log n) e ler os N primeiros custa O(N), percorrendo apenas o
+ * incio do nvel mais baixo.</p>
+ *
+ * <p>Os mtodos so sincronizados: pontuaes de chaves diferentes podem ser
+ * atualizadas por vrias threads.</p>
+ *
+ * @author Marcos Melo
+ * @version 1.0
+ */
+public class Leaderboard {
+    private static final int MAX_NIVEIS = 32;
+
+    private final No cabeca;
+    private final Map<String, No> nos;
+    private int niveis;
+
+    private static class No {
+        private final String chave;
+        private final long pontos;
+        private final No[] proximos;
+
+        private No(String chave, long pontos, int niveis) {
+            this.chave = chave;
+            this.pontos = pontos;
+            this.proximos = new No[niveis];
+        }
+
+        /** Verifica se este n vem antes da posio (pontos, chave) no ranking. */
+        private boolean antesDe(long outrosPontos, String outraChave) {
+            return pontos > outrosPontos || (pontos == outrosPontos && chave.compareTo(outraChave) < 0);
+        }
+    }
+
+    /**
+     * Cria um ranking vazio.
+     */
+    public Leaderboard() {
+        this.cabeca = new No(null, 0, MAX_NIVEIS);
+        this.nos = new HashMap<>();
+        this.niveis = 1;
+    }
+
+    /**
+     * Define a pontuao de uma chave, inserindo-a se necessrio.
+     *
+     * @param chave Chave da entrada
+     * @param pontos Nova pontuao
+     */
+    public synchronized void definir(String chave, long pontos) {
+        remover(chave);
+
+        int nivel = sortearNivel();
+        No novo = new No(chave, pontos, nivel);
+        No atual = cabeca;
+        for (int i = Math.max(niveis, nivel) - 1; i >= 0; i--) {
+            while (atual.proximos[i] != null && atual.proximos[i].antesDe(pontos, chave)) {
+                atual = atual.proximos[i];
+            }
+            if (i < nivel) {
+                novo.proximos[i] = atual.proximos[i];
+                atual.proximos[i] = novo;
+            }
+        }
+        niveis = Math.max(niveis, nivel);
+        nos.put(chave, novo);
+    }
+
+    /**
+     * Soma um valor  pontuao de uma chave. Entradas que ficam sem pontos saem do ranking.
+     *
+     * @param chave Chave da entrada
+     * @param delta Valor a somar (pode ser negativo)
+     */
+    public synchronized void incrementar(String chave, long delta) {
+        long pontos = pontuacao(chave) + delta;
+        if (pontos <= 0) {
+            remover(chave);
+        } else {
+            definir(chave, pontos);
+        }
+    }
+
+    /**
+     * Obtm a pontuao de uma chave.
+     *
+     * @param chave Chave da entrada
+     * @return Pontuao, ou 0 se a chave no estiver no ranking
+     */
+    public synchronized long pontuacao(String chave) {
+        No no = nos.get(chave);
+        return no != null ? no.pontos : 0;
+    }
+
+    /**
+     * Retira uma chave do ranking.
+     *
+     * @param chave Chave da entrada
+     */
+    public synchronized void remover(String chave) {
+        No alvo = nos.remove(chave);
+        if (alvo == null) {
+            return;
+        }
+        No atual = cabeca;
+        for (int i = niveis - 1; i >= 0; i--) {
+            while (atual.proximos[i] != null && atual.proximos[i] != alvo
+                    && atual.proximos[i].antesDe(alvo.pontos, alvo.chave)) {
+                atual = atual.proximos[i];
+            }
+            if (atual.proximos[i] == alvo) {
+                atual.proximos[i] = alvo.proximos[i];
+            }
+        }
+        while (niveis > 1 && cabeca.proximos[niveis - 1] == null) {
+            niveis--;
+        }
+    }
+
+    /**
+     * Obtm as primeiras chaves do ranking.
+     *
+     * @param n Quantidade de chaves
+     * @return Chaves em ordem de pontuao
+     */
+    public synchronized List<String> topo(int n) {
+        List<String> chaves = new ArrayList<>(Math.min(n, nos.size()));
+        for (No no = cabeca.proximos[0]; no != null && chaves.size() < n; no = no.proximos[0]) {
+            chaves.add(no.chave);
+        }
+        return chaves;
+    }
+
+    /**
+     * Obtm a quantidade de entradas do ranking.
+     *
+     * @return Nmero de chaves
+     */
+    public synchronized int tamanho() {
+        return nos.size();
+    }
+
+    /**
+     * Esvazia o ranking.
+     */
+    public synchronized void limpar() {
+        nos.clear();
+        Arrays.fill(cabeca.proximos, null);
+        niveis = 1;
+    }
+
+    private static int sortearNivel() {
+        int nivel = 1;
+        while (nivel < MAX_NIVEIS && ThreadLocalRandom.current().nextInt(4) == 0) {
+            nivel++;
+        }
+        return nivel;
+    }
+}
@@ -0,0 +1,199 @@
+package br.ufal.ic.p2.jackut.Utils;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Caixas postais de tarefas, uma por dono (login), cada uma processada por um nico
+ * escritor lgico.
+ *
+ * <p>As tarefas de um mesmo dono so executadas uma de cada vez, na ordem de chegada;
+ * caixas de donos diferentes so processadas em paralelo. Cada vez que uma caixa 
+ * agendada, ela processa at {@value #LOTE} tarefas seguidas, de modo que rajadas de
+ * alteraes para o mesmo usurio (como vrios recados chegando) so tratadas em lote.
+ * As caixas rodam em threads virtuais quando a JVM as oferece; caso contrrio, em um
+ * pool de threads daemon.</p>
+ *
+ * <p>Tarefas que envolvem dois donos seguem um protocolo em duas fases. A tarefa 
+ * postada na caixa do dono de menor login; quando chega a vez dela, essa caixa fica
+ * reservada (para de processar, sem ocupar thread) e a tarefa segue para a caixa do
+ * outro dono. Quando chega a vez dela na segunda caixa, os dois donos esto parados
+ *  espera dela; a tarefa  executada e a primeira caixa  liberada. Como uma caixa s
+ * espera por caixas de login maior, no h ciclos de espera.</p>
+ *
+ * @author Marcos Melo
+ * @version 1.0
+ */
+public class Mailboxes {
+    /** Quantidade mxima de tarefas processadas por agendamento de uma caixa */
+    static final int LOTE = 64;
+
+    private final ExecutorService executor;
+    private final ConcurrentHashMap<String, Caixa> caixas;
+
+    /**
+     * Caixa postal de um dono. Enquanto {@code agendada} for verdadeiro, h exatamente
+     * um escritor responsvel por ela: a thread que a processa ou uma reserva em andamento.
+     */
+    private final class Caixa implements Runnable {
+        private final ConcurrentLinkedQueue<Runnable> fila = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean agendada = new AtomicBoolean();
+
+        private void postar(Runnable tarefa) {
+            fila.offer(tarefa);
+            agendar();
+        }
+
+        private void agendar() {
+            if (agendada.compareAndSet(false, true)) {
+                executor.execute(this);
+            }
+        }
+
+        /** Volta a processar a caixa depois de uma reserva, que manteve a caixa agendada. */
+        private void retomar() {
+            executor.execute(this);
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < LOTE; i++) {
+                Runnable tarefa = fila.poll();
+                if (tarefa == null) {
+                    break;
+                }
+                tarefa.run();
+                if (tarefa instanceof Reserva) {
+                    // A caixa fica parada at a segunda fase liber-la
+                    return;
+                }
+            }
+            agendada.set(false);
+            if (!fila.isEmpty()) {
+                agendar();
+            }
+        }
+    }
+
+    /**
+     * Primeira fase de uma tarefa entre dois donos: reserva a caixa atual e encaminha a
+     * tarefa para a caixa do segundo dono.
+     */
+    private static final class Reserva implements Runnable {
+        private final Runnable encaminhar;
+
+        private Reserva(Runnable encaminhar) {
+            this.encaminhar = encaminhar;
+        }
+
+        @Override
+        public void run() {
+            encaminhar.run();
+        }
+    }
+
+    /**
+     * Cria as caixas postais.
+     */
+    public Mailboxes() {
+        this.executor = criarExecutor();
+        this.caixas = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Posta uma tarefa na caixa de um dono.
+     *
+     * @param dono Dono da caixa
+     * @param tarefa Tarefa a executar
+     * @return Resultado futuro da tarefa
+     */
+    public <T> CompletableFuture<T> enviar(String dono, Callable<T> tarefa) {
+        CompletableFuture<T> resultado = new CompletableFuture<>();
+        caixa(dono).postar(() -> executar(tarefa, resultado));
+        return resultado;
+    }
+
+    /**
+     * Posta uma tarefa que envolve dois donos, executada quando as caixas de ambos
+     * estiverem paradas  espera dela.
+     *
+     * @param dono Primeiro dono
+     * @param outro Segundo dono
+     * @param tarefa Tarefa a executar
+     * @return Resultado futuro da tarefa
+     */
+    public <T> CompletableFuture<T> enviar(String dono, String outro, Callable<T> tarefa) {
+        String primeiro = String.valueOf(dono);
+        String segundo = String.valueOf(outro);
+        if (primeiro.equals(segundo)) {
+            return enviar(primeiro, tarefa);
+        }
+        if (primeiro.compareTo(segundo) > 0) {
+            String troca = primeiro;
+            primeiro = segundo;
+            segundo = troca;
+        }
+        Caixa reservada = caixa(primeiro);
+        Caixa destino = caixa(segundo);
+        CompletableFuture<T> resultado = new CompletableFuture<>();
+        reservada.postar(new Reserva(() -> {
+            try {
+                destino.postar(() -> {
+                    try {
+                        executar(tarefa, resultado);
+                    } finally {
+                        reservada.retomar();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // Caixas encerradas entre as duas fases
+                resultado.completeExceptionally(e);
+            }
+        }));
+        return resultado;
+    }
+
+    /**
+     * Encerra as caixas. As tarefas em andamento terminam; novas postagens so recusadas
+     * com {@link RejectedExecutionException}.
+     */
+    public void encerrar() {
+        executor.shutdown();
+    }
+
+    private Caixa caixa(String dono) {
+        return caixas.computeIfAbsent(String.valueOf(dono), d -> new Caixa());
+    }
+
+    private static <T> void executar(Callable<T> tarefa, CompletableFuture<T> resultado) {
+        try {
+            resultado.complete(tarefa.call());
+        } catch (Throwable e) {
+            resultado.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Usa um executor de threads virtuais, se a JVM oferecer (Java 21 ou superior).
+     * A chamada  feita por reflexo para que o cdigo continue compilando em verses anteriores.
+     */
+    private static ExecutorService criarExecutor() {
+        try {
+            Method virtuais = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) virtuais.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(tarefa -> {
+                Thread thread = new Thread(tarefa, "jackut-caixa");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+}
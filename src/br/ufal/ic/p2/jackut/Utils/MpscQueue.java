@@ -0,0 +1,230 @@
+package br.ufal.ic.p2.jackut.Utils;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Fila de vrios produtores e um consumidor, usada como caixa de entrada de recados
+ * e mensagens.
+ *
+ * <p>A insero no usa trava: cada produtor troca a cauda da lista com uma nica
+ * operao atmica e depois liga o n anterior ao novo. Assim, vrios remetentes
+ * (como os membros de uma comunidade recebendo a mesma mensagem) entregam ao mesmo
+ * destinatrio ao mesmo tempo sem se esperarem, e sem esperar quem est lendo.</p>
+ *
+ * <p>O lado do consumidor (retirada, consulta do primeiro elemento e remoo pelo
+ * iterador)  sincronizado na prpria fila, s para serializar leitores do mesmo
+ * destinatrio entre si; os produtores nunca adquirem esse monitor. Um elemento
+ * removido do meio da fila tem apenas o valor apagado, e o n  descartado quando
+ * a retirada passa por ele, para que a remoo nunca dispute a cauda com um produtor.</p>
+ *
+ * <p>Elementos nulos no so aceitos. O tamanho e a iterao percorrem a lista e
+ * refletem as inseres j ligadas no momento da passagem.</p>
+ *
+ * @param <E> Tipo dos elementos
+ * @author Marcos Melo
+ * @version 1.0
+ */
+public class MpscQueue<E> extends AbstractQueue<E> implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /** N sentinela: o primeiro elemento  o seguinte a ele (consumidor) */
+    private transient No<E> cabeca;
+
+    /** ltimo n ligado ou em vias de ser ligado (produtores) */
+    private transient AtomicReference<No<E>> cauda;
+
+    private static final class No<E> {
+        private volatile E valor;
+        private volatile No<E> proximo;
+
+        private No(E valor) {
+            this.valor = valor;
+        }
+    }
+
+    /**
+     * Cria uma fila vazia.
+     */
+    public MpscQueue() {
+        iniciar();
+    }
+
+    /**
+     * Cria uma fila com os elementos de uma coleo, na ordem do iterador dela.
+     *
+     * @param elementos Elementos iniciais
+     */
+    public MpscQueue(Collection<? extends E> elementos) {
+        this();
+        addAll(elementos);
+    }
+
+    private void iniciar() {
+        this.cabeca = new No<>(null);
+        this.cauda = new AtomicReference<>(cabeca);
+    }
+
+    /**
+     * Insere um elemento no fim da fila, sem trava.
+     *
+     * @param elemento Elemento a inserir
+     * @return Sempre true
+     * @throws NullPointerException Se o elemento for nulo
+     */
+    @Override
+    public boolean offer(E elemento) {
+        if (elemento == null) {
+            throw new NullPointerException();
+        }
+        No<E> no = new No<>(elemento);
+        No<E> anterior = cauda.getAndSet(no);
+        anterior.proximo = no;
+        return true;
+    }
+
+    /**
+     * Retira o primeiro elemento da fila.
+     *
+     * @return Primeiro elemento, ou null se a fila estiver vazia
+     */
+    @Override
+    public synchronized E poll() {
+        No<E> no = cabeca.proximo;
+        while (no != null) {
+            cabeca = no;
+            E valor = no.valor;
+            if (valor != null) {
+                no.valor = null;
+                return valor;
+            }
+            no = no.proximo;
+        }
+        return null;
+    }
+
+    /**
+     * Obtm o primeiro elemento sem retir-lo, descartando os ns j removidos  frente.
+     *
+     * @return Primeiro elemento, ou null se a fila estiver vazia
+     */
+    @Override
+    public synchronized E peek() {
+        No<E> no = cabeca.proximo;
+        while (no != null) {
+            E valor = no.valor;
+            if (valor != null) {
+                return valor;
+            }
+            cabeca = no;
+            no = no.proximo;
+        }
+        return null;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return peek() == null;
+    }
+
+    @Override
+    public int size() {
+        int tamanho = 0;
+        for (No<E> no = primeiro(); no != null; no = no.proximo) {
+            if (no.valor != null) {
+                tamanho++;
+            }
+        }
+        return tamanho;
+    }
+
+    /**
+     * Obtm um iterador fracamente consistente, que no lana
+     * {@link java.util.ConcurrentModificationException}.
+     *
+     * @return Iterador da fila, do primeiro ao ltimo elemento
+     */
+    @Override
+    public Iterator<E> iterator() {
+        return new Iterator<E>() {
+            private No<E> proximo;
+            private E valorProximo;
+            private No<E> atual;
+
+            {
+                posicionar(primeiro());
+            }
+
+            /** Avana at o prximo n ainda no removido, guardando o valor visto nele */
+            private void posicionar(No<E> no) {
+                for (; no != null; no = no.proximo) {
+                    E valor = no.valor;
+                    if (valor != null) {
+                        proximo = no;
+                        valorProximo = valor;
+                        return;
+                    }
+                }
+                proximo = null;
+                valorProximo = null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return proximo != null;
+            }
+
+            @Override
+            public E next() {
+                if (proximo == null) {
+                    throw new NoSuchElementException();
+                }
+                E valor = valorProximo;
+                atual = proximo;
+                posicionar(proximo.proximo);
+                return valor;
+            }
+
+            @Override
+            public void remove() {
+                if (atual == null) {
+                    throw new IllegalStateException();
+                }
+                synchronized (MpscQueue.this) {
+                    atual.valor = null;
+                }
+                atual = null;
+            }
+        };
+    }
+
+    private synchronized No<E> primeiro() {
+        return cabeca.proximo;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        Object[] elementos = toArray();
+        out.writeInt(elementos.length);
+        for (Object elemento : elementos) {
+            out.writeObject(elemento);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        iniciar();
+        int n = in.readInt();
+        for (int i = 0; i < n; i++) {
+            offer((E) in.readObject());
+        }
+    }
+}
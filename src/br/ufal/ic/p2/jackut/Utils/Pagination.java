@@ -0,0 +1,28 @@
+package br.ufal.ic.p2.jackut.Utils;
+
+import br.ufal.ic.p2.jackut.exceptions.Search.InvalidPageException;
+
+/**
+ * Utilitrios para as consultas paginadas do sistema.
+ *
+ * @author Marcos Melo
+ * @version 1.0
+ */
+public class Pagination {
+
+    private Pagination() {
+    }
+
+    /**
+     * Valida os parmetros de uma pgina.
+     *
+     * @param inicio Posio do primeiro resultado (a partir de 0)
+     * @param limite Quantidade mxima de resultados
+     * @throws InvalidPageException Se o incio for negativo ou o limite no for positivo
+     */
+    public static void validar(int inicio, int limite) throws InvalidPageException {
+        if (inicio < 0 || limite <= 0) {
+            throw new InvalidPageException();
+        }
+    }
+}
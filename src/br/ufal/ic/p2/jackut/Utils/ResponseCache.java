@@ -0,0 +1,223 @@
+package br.ufal.ic.p2.jackut.Utils;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache de respostas j formatadas (listas de amigos, comunidades, membros).
+ *
+ * <p>Cada entrada guarda a verso da coleo de origem no momento em que foi
+ * formatada. As colees recebem uma nova verso de {@link #novaVersao()} a cada
+ * alterao, de modo que uma entrada s  aproveitada se a coleo no mudou desde
+ * ento. Alteraes que afetam muitas respostas de uma vez (como a remoo de um
+ * usurio, que some de todas as listas) avanam a poca do cache com
+ * {@link #novaEpoca()}, invalidando tudo sem percorrer as entradas. A poca  lida
+ * com {@link #getEpoca()} antes dos dados e entregue a {@link #guardar}, para que uma
+ * resposta formatada com dados de antes de uma nova poca no seja guardada nela.</p>
+ *
+ * <p>O cache tem um limite de memria estimada; ao ultrapass-lo, as entradas
+ * usadas h mais tempo so descartadas.</p>
+ *
+ * <p>Consultas e gravaes no usam trava: as entradas ficam em um mapa concorrente
+ * e cada uma guarda o instante do ltimo uso. S o descarte, que acontece quando o
+ * limite  ultrapassado,  sincronizado; ele ordena as entradas pelo ltimo uso e
+ * libera de uma vez um quarto do limite, para que no precise rodar a cada gravao.</p>
+ *
+ * @author Marcos Melo
+ * @version 1.0
+ */
+public class ResponseCache {
+    /** Limite padro de memria estimada, em bytes */
+    public static final long LIMITE_PADRAO = 4L * 1024 * 1024;
+
+    /** Custo fixo estimado de cada entrada (n do mapa, objeto Entrada e cabealhos das strings) */
+    private static final long CUSTO_ENTRADA = 96;
+
+    private static final AtomicLong RELOGIO = new AtomicLong();
+
+    private final long limite;
+    private final ConcurrentHashMap<String, Entrada> entradas;
+    private final AtomicLong emUso;
+    private final AtomicLong usos;
+    private volatile long epoca;
+    private final LongAdder acertos, falhas, despejos;
+
+    private static class Entrada {
+        private final long versao;
+        private final long epoca;
+        private final String valor;
+        private final long custo;
+        private volatile long ultimoUso;
+
+        private Entrada(long versao, long epoca, String valor, long custo, long ultimoUso) {
+            this.versao = versao;
+            this.epoca = epoca;
+            this.valor = valor;
+            this.custo = custo;
+            this.ultimoUso = ultimoUso;
+        }
+    }
+
+    /**
+     * Cria um cache com o limite de memria padro.
+     */
+    public ResponseCache() {
+        this(LIMITE_PADRAO);
+    }
+
+    /**
+     * Cria um cache com um limite de memria.
+     *
+     * @param limite Memria estimada mxima, em bytes
+     */
+    public ResponseCache(long limite) {
+        this.limite = limite;
+        this.entradas = new ConcurrentHashMap<>();
+        this.emUso = new AtomicLong();
+        this.usos = new AtomicLong();
+        this.acertos = new LongAdder();
+        this.falhas = new LongAdder();
+        this.despejos = new LongAdder();
+    }
+
+    /**
+     * Emite uma nova verso, nica entre todas as colees do sistema.
+     *
+     * @return Verso maior que todas as emitidas antes
+     */
+    public static long novaVersao() {
+        return RELOGIO.incrementAndGet();
+    }
+
+    /**
+     * Busca uma resposta formatada.
+     *
+     * @param chave Chave da consulta (tipo da consulta e entidade)
+     * @param versao Verso atual da coleo de origem
+     * @return Resposta guardada, ou null se no houver ou estiver desatualizada
+     */
+    public String buscar(String chave, long versao) {
+        Entrada entrada = entradas.get(chave);
+        if (entrada == null || entrada.versao != versao || entrada.epoca != epoca) {
+            falhas.increment();
+            return null;
+        }
+        entrada.ultimoUso = usos.incrementAndGet();
+        acertos.increment();
+        return entrada.valor;
+    }
+
+    /**
+     * Obtm a poca atual do cache. Deve ser lida antes dos dados usados na formatao.
+     *
+     * @return poca atual
+     */
+    public long getEpoca() {
+        return epoca;
+    }
+
+    /**
+     * Guarda uma resposta formatada, descartando as menos usadas se o limite for ultrapassado.
+     * A entrada fica marcada com a poca lida antes da formatao: se a poca avanou
+     * nesse meio-tempo, a resposta pode estar desatualizada e no  guardada.
+     *
+     * @param chave Chave da consulta (tipo da consulta e entidade)
+     * @param versao Verso da coleo de origem usada na formatao
+     * @param epocaLida poca lida com {@link #getEpoca()} antes da formatao
+     * @param valor Resposta formatada
+     */
+    public void guardar(String chave, long versao, long epocaLida, String valor) {
+        // Em uma tentativa otimista, a resposta pode vir de uma leitura no meio de uma
+        // alterao e s  guardada depois que a tentativa  validada
+        StripedLocks.aposValidacao(() -> armazenar(chave, versao, epocaLida, valor));
+    }
+
+    private void armazenar(String chave, long versao, long epocaLida, String valor) {
+        if (epocaLida != epoca) {
+            return;
+        }
+        long custo = CUSTO_ENTRADA + 2L * (chave.length() + valor.length());
+        if (custo > limite) {
+            remover(chave);
+            return;
+        }
+        Entrada anterior = entradas.put(chave, new Entrada(versao, epocaLida, valor, custo, usos.incrementAndGet()));
+        long total = emUso.addAndGet(anterior != null ? custo - anterior.custo : custo);
+        if (total > limite) {
+            despejar();
+        }
+    }
+
+    /**
+     * Descarta a resposta de uma chave.
+     *
+     * @param chave Chave da consulta
+     */
+    public void remover(String chave) {
+        Entrada entrada = entradas.remove(chave);
+        if (entrada != null) {
+            emUso.addAndGet(-entrada.custo);
+        }
+    }
+
+    /**
+     * Invalida todas as respostas guardadas. As entradas antigas so descartadas
+     * aos poucos, conforme forem substitudas ou despejadas.
+     */
+    public synchronized void novaEpoca() {
+        epoca++;
+    }
+
+    /**
+     * Descarta todas as respostas e zera as mtricas.
+     */
+    public synchronized void limpar() {
+        entradas.clear();
+        emUso.set(0);
+        acertos.reset();
+        falhas.reset();
+        despejos.reset();
+    }
+
+    /**
+     * Obtm as mtricas do cache.
+     *
+     * @return Mapa com acertos, falhas, despejos, entradas e memria estimada em bytes
+     */
+    public Map<String, Long> getMetricas() {
+        Map<String, Long> metricas = new LinkedHashMap<>();
+        metricas.put("acertos", acertos.sum());
+        metricas.put("falhas", falhas.sum());
+        metricas.put("despejos", despejos.sum());
+        metricas.put("entradas", (long) entradas.size());
+        metricas.put("bytes", emUso.get());
+        return metricas;
+    }
+
+    /**
+     * Descarta as entradas usadas h mais tempo at liberar um quarto do limite.
+     */
+    private synchronized void despejar() {
+        long alvo = limite - limite / 4;
+        if (emUso.get() <= limite) {
+            return;
+        }
+        List<Map.Entry<String, Entrada>> ordem = new ArrayList<>(entradas.entrySet());
+        ordem.sort(Comparator.comparingLong(e -> e.getValue().ultimoUso));
+        for (Map.Entry<String, Entrada> e : ordem) {
+            if (emUso.get() <= alvo) {
+                break;
+            }
+            if (entradas.remove(e.getKey(), e.getValue())) {
+                emUso.addAndGet(-e.getValue().custo);
+                despejos.increment();
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package br.ufal.ic.p2.jackut.Utils;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * pocas abertas de leitura consistente: as vises de leitura e a gravao em segundo
+ * plano. Enquanto alguma poca est aberta, os objetos alterados preservam imagens
+ * das verses antigas (cpia na escrita, ver {@link VersionChain}).
+ *
+ * <p>Uma poca  aberta com {@link #abrir()}, executado com a trava exclusiva do
+ * sistema: nesse instante o estado de todos os perfis e comunidades  o estado que a
+ * poca enxerga. A partir da, quem altera um perfil ou comunidade chama antes o
+ * {@code preservar()} do objeto, que guarda uma cpia dele se ainda no houver uma
+ * que sirva  poca aberta mais recente. Quem l pela poca obtm a imagem mais
+ * antiga preservada depois da abertura ou, se o objeto no foi alterado desde ento,
+ * uma cpia feita na hora. Assim as pocas veem um estado consistente sem impedir as
+ * alteraes, e s os objetos alterados guardam verses antigas.</p>
+ *
+ * <p>Ao fechar uma poca, as imagens que nenhuma poca aberta usa mais so descartadas.</p>
+ *
+ * @author Marcos Melo
+ * @version 1.0
+ */
+public final class SnapshotEpoch {
+    private static final AtomicLong ULTIMA = new AtomicLong();
+    private static final ConcurrentSkipListSet<Long> ABERTAS = new ConcurrentSkipListSet<>();
+    private static final Set<Versionado> COM_IMAGENS = ConcurrentHashMap.newKeySet();
+
+    /** poca da gravao em andamento, ou 0 se no houver */
+    private static volatile long emGravacao;
+
+    /**
+     * Objeto que guarda imagens de verses antigas.
+     */
+    interface Versionado {
+        /**
+         * Descarta as imagens que nenhuma poca aberta usa.
+         */
+        void podar();
+    }
+
+    private SnapshotEpoch() {
+    }
+
+    /**
+     * Abre uma nova poca de leitura. Deve ser chamado com a trava exclusiva.
+     *
+     * @return poca aberta
+     */
+    public static long abrir() {
+        long epoca = ULTIMA.incrementAndGet();
+        ABERTAS.add(epoca);
+        return epoca;
+    }
+
+    /**
+     * Fecha uma poca e descarta as imagens que deixaram de ser usadas.
+     *
+     * @param epoca poca fechada
+     */
+    public static void fechar(long epoca) {
+        if (ABERTAS.remove(epoca)) {
+            for (Versionado versionado : COM_IMAGENS) {
+                versionado.podar();
+            }
+        }
+    }
+
+    /**
+     * Abre a poca da gravao em segundo plano, lida pelos objetos ao serem serializados.
+     * Deve ser chamado com a trava exclusiva.
+     *
+     * @return poca aberta
+     */
+    public static long iniciarGravacao() {
+        long epoca = abrir();
+        emGravacao = epoca;
+        return epoca;
+    }
+
+    /**
+     * Fecha a poca da gravao em segundo plano.
+     *
+     * @param epoca poca da gravao
+     */
+    public static void concluirGravacao(long epoca) {
+        if (emGravacao == epoca) {
+            emGravacao = 0;
+        }
+        fechar(epoca);
+    }
+
+    /**
+     * Obtm a poca da gravao em andamento.
+     *
+     * @return poca em andamento, ou 0 se no houver gravao em segundo plano
+     */
+    public static long emGravacao() {
+        return emGravacao;
+    }
+
+    /**
+     * Obtm a poca aberta mais recente.
+     *
+     * @return poca mais recente, ou 0 se no houver poca aberta
+     */
+    public static long maisRecente() {
+        try {
+            return ABERTAS.last();
+        } catch (java.util.NoSuchElementException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Obtm a quantidade de pocas abertas.
+     *
+     * @return Vises de leitura e gravao em andamento
+     */
+    public static int abertas() {
+        return ABERTAS.size();
+    }
+
+    /**
+     * Verifica se alguma poca aberta est no intervalo (de, ate].
+     */
+    static boolean usada(long de, long ate) {
+        Long epoca = ABERTAS.higher(de);
+        return epoca != null && epoca <= ate;
+    }
+
+    static void registrar(Versionado versionado) {
+        COM_IMAGENS.add(versionado);
+    }
+
+    static void descartar(Versionado versionado) {
+        COM_IMAGENS.remove(versionado);
+    }
+}
@@ -0,0 +1,115 @@
+package br.ufal.ic.p2.jackut.Utils;
+
+import java.util.Arrays;
+
+/**
+ * Operaes sobre vetores de inteiros ordenados (listas de adjacncia por id).
+ *
+ * @author Marcos Melo
+ * @version 1.0
+ */
+public class SortedIntArrays {
+    /** Razo entre os tamanhos a partir da qual a busca exponencial compensa */
+    private static final int RAZAO_GALOPE = 32;
+
+    private SortedIntArrays() {
+    }
+
+    /**
+     * Calcula a interseo de dois vetores ordenados e sem repeties.
+     *
+     * <p>Vetores de tamanhos parecidos so intercalados com um lao sem desvios
+     * condicionais. Se um deles for muito menor, cada elemento do menor  procurado
+     * no maior por busca exponencial (galope).</p>
+     *
+     * @param a Primeiro vetor
+     * @param na Quantidade de elementos vlidos em {@code a}
+     * @param b Segundo vetor
+     * @param nb Quantidade de elementos vlidos em {@code b}
+     * @return Vetor com os elementos em comum, em ordem crescente
+     */
+    public static int[] intersecao(int[] a, int na, int[] b, int nb) {
+        if (na > nb) {
+            return intersecao(b, nb, a, na);
+        }
+        int[] saida = new int[na];
+        int n = (long) na * RAZAO_GALOPE < nb
+                ? galopar(a, na, b, nb, saida)
+                : intercalar(a, na, b, nb, saida);
+        return n == saida.length ? saida : Arrays.copyOf(saida, n);
+    }
+
+    /**
+     * Insere um valor em um vetor ordenado, se ainda no estiver presente.
+     *
+     * @param v Vetor ordenado (pode ser realocado)
+     * @param n Quantidade de elementos vlidos
+     * @param valor Valor a inserir
+     * @return O vetor resultante (o mesmo ou um maior), ou null se o valor j existia
+     */
+    public static int[] inserir(int[] v, int n, int valor) {
+        int pos = Arrays.binarySearch(v, 0, n, valor);
+        if (pos >= 0) {
+            return null;
+        }
+        pos = -pos - 1;
+        int[] destino = n == v.length ? Arrays.copyOf(v, Math.max(4, n * 2)) : v;
+        System.arraycopy(v, pos, destino, pos + 1, n - pos);
+        destino[pos] = valor;
+        return destino;
+    }
+
+    /**
+     * Remove um valor de um vetor ordenado.
+     *
+     * @param v Vetor ordenado
+     * @param n Quantidade de elementos vlidos
+     * @param valor Valor a remover
+     * @return true se o valor estava presente
+     */
+    public static boolean remover(int[] v, int n, int valor) {
+        int pos = Arrays.binarySearch(v, 0, n, valor);
+        if (pos < 0) {
+            return false;
+        }
+        System.arraycopy(v, pos + 1, v, pos, n - pos - 1);
+        return true;
+    }
+
+    private static int intercalar(int[] a, int na, int[] b, int nb, int[] saida) {
+        int i = 0, j = 0, n = 0;
+        while (i < na && j < nb) {
+            int x = a[i];
+            int y = b[j];
+            // Sem desvios: o JIT transforma as comparaes em movimentaes condicionais
+            saida[n] = x;
+            n += x == y ? 1 : 0;
+            i += x <= y ? 1 : 0;
+            j += x >= y ? 1 : 0;
+        }
+        return n;
+    }
+
+    private static int galopar(int[] pequeno, int np, int[] grande, int ng, int[] saida) {
+        int n = 0;
+        int inicio = 0;
+        for (int i = 0; i < np && inicio < ng; i++) {
+            int x = pequeno[i];
+            int passo = 1;
+            int fim = inicio;
+            while (fim < ng && grande[fim] < x) {
+                inicio = fim + 1;
+                fim += passo;
+                passo <<= 1;
+            }
+            int pos = Arrays.binarySearch(grande, inicio, Math.min(fim + 1, ng), x);
+            if (pos >= 0) {
+                saida[n++] = x;
+                inicio = pos + 1;
+            } else {
+                inicio = -pos - 1;
+            }
+        }
+        return n;
+    }
+}
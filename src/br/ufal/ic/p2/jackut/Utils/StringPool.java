@@ -0,0 +1,70 @@
+package br.ufal.ic.p2.jackut.Utils;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Tabela de strings cannicas do sistema (logins e nomes de comunidades).
+ *
+ * <p>O mesmo login aparece em vrias listas de amigos e convites, e cada arquivo
+ * desserializado cria as suas prprias cpias. A tabela garante que todas as
+ * referncias apontem para uma nica instncia, economizando memria e permitindo
+ * que {@link String#equals(Object)} termine j na comparao de identidade.</p>
+ *
+ * <p>A tabela guarda as strings por referncias fracas: uma entrada  liberada
+ * quando nenhum objeto do sistema usa mais a string, como o login de um usurio
+ * removido depois que a varredura termina. S nomes de entidades devem ser
+ * registrados; chaves de atributos, que vm livremente dos usurios, ficam no
+ * {@link br.ufal.ic.p2.jackut.models.AttributeDictionary}, que tem tamanho limitado.</p>
+ *
+ * @author Marcos Melo
+ * @version 1.0
+ */
+public class StringPool {
+    private static final Map<String, WeakReference<String>> tabela = new WeakHashMap<>();
+
+    private StringPool() {
+    }
+
+    /**
+     * Obtm a instncia cannica de uma string, registrando-a se ainda no existir.
+     *
+     * @param valor String a ser canonizada (pode ser nula)
+     * @return Instncia cannica, ou null se o valor for nulo
+     */
+    public static String canonico(String valor) {
+        if (valor == null) {
+            return null;
+        }
+        synchronized (tabela) {
+            WeakReference<String> referencia = tabela.get(valor);
+            String existente = referencia != null ? referencia.get() : null;
+            if (existente != null) {
+                return existente;
+            }
+            tabela.put(valor, new WeakReference<>(valor));
+            return valor;
+        }
+    }
+
+    /**
+     * Obtm a quantidade de strings cannicas registradas e ainda em uso.
+     *
+     * @return Tamanho da tabela
+     */
+    public static int tamanho() {
+        synchronized (tabela) {
+            return tabela.size();
+        }
+    }
+
+    /**
+     * Esvazia a tabela (usado ao zerar o sistema).
+     */
+    public static void limpar() {
+        synchronized (tabela) {
+            tabela.clear();
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package br.ufal.ic.p2.jackut.Utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Travas do sistema Jackut, divididas em listras por chave (login ou nome de comunidade).
+ *
+ * <p>Operaes que envolvem apenas alguns usurios ou comunidades travam s as
+ * listras das suas chaves, e por isso requisies de usurios diferentes rodam em
+ * paralelo. Todas elas tambm mantm a trava global em modo de leitura; operaes
+ * estruturais (criar ou remover usurios e comunidades, gravar os dados, consultas
+ * que percorrem o grafo inteiro) usam a trava global em modo exclusivo e excluem
+ * todas as demais.</p>
+ *
+ * <p>As listras de uma operao so sempre adquiridas em ordem crescente de ndice,
+ * o que impede o impasse entre duas operaes que travam os mesmos usurios em
+ * ordens opostas (como A adicionando B e B adicionando A ao mesmo tempo).</p>
+ *
+ * <p>Cada aquisio devolve uma {@link Guarda}, que deve ser fechada com
+ * try-with-resources. As travas so {@link StampedLock}s e no so reentrantes: uma
+ * thread que j tem uma guarda no pode adquirir outra.</p>
+ *
+ * <p>Consultas curtas podem usar {@link #lerOtimista}, que no adquire trava nenhuma:
+ * l os carimbos das travas, executa a consulta e confere se nenhuma alterao
+ * comeou nesse meio-tempo. S quando h conflito a consulta  repetida com as
+ * travas de leitura. Como uma tentativa pode ler dados no meio de uma alterao, os
+ * efeitos da consulta (como guardar a resposta em cache) passam por
+ * {@link #aposValidacao} e s so executados se a tentativa for validada.</p>
+ *
+ * @author Marcos Melo
+ * @version 1.0
+ */
+public class StripedLocks {
+    /** Quantidade padro de listras */
+    public static final int LISTRAS_PADRAO = 64;
+
+    /** Tentativas otimistas antes de adquirir as travas de leitura */
+    private static final int TENTATIVAS_OTIMISTAS = 2;
+
+    /** Efeitos adiados pela tentativa otimista em andamento na thread, ou null fora dela */
+    private static final ThreadLocal<List<Runnable>> ADIADOS = new ThreadLocal<>();
+
+    private final StampedLock global;
+    private final StampedLock[] listras;
+    private final int deslocamento;
+
+    /**
+     * Trava adquirida, liberada ao ser fechada.
+     */
+    public interface Guarda extends AutoCloseable {
+        /**
+         * Libera as travas na ordem inversa da aquisio.
+         */
+        @Override
+        void close();
+    }
+
+    /**
+     * Consulta executada por {@link #lerOtimista}. Pode ser executada mais de uma vez
+     * e, nas tentativas otimistas, pode encontrar os dados no meio de uma alterao;
+     * por isso seus efeitos devem passar por {@link #aposValidacao}.
+     *
+     * @param <T> Tipo do resultado
+     * @param <E1> Exceo que a consulta pode lanar
+     * @param <E2> Exceo que a consulta pode lanar
+     * @param <E3> Exceo que a consulta pode lanar
+     */
+    @FunctionalInterface
+    public interface Leitura<T, E1 extends Exception, E2 extends Exception, E3 extends Exception> {
+        /**
+         * Executa a consulta.
+         *
+         * @return Resultado da consulta
+         * @throws E1 Se a consulta falhar
+         * @throws E2 Se a consulta falhar
+         * @throws E3 Se a consulta falhar
+         */
+        T ler() throws E1, E2, E3;
+    }
+
+    /**
+     * Cria as travas com a quantidade padro de listras.
+     */
+    public StripedLocks() {
+        this(LISTRAS_PADRAO);
+    }
+
+    /**
+     * Cria as travas.
+     *
+     * @param quantidade Quantidade de listras (arredondada para uma potncia de 2)
+     */
+    public StripedLocks(int quantidade) {
+        int bits = 32 - Integer.numberOfLeadingZeros(Math.max(2, quantidade) - 1);
+        this.global = new StampedLock();
+        this.listras = new StampedLock[1 << bits];
+        this.deslocamento = 32 - bits;
+        for (int i = 0; i < listras.length; i++) {
+            listras[i] = new StampedLock();
+        }
+    }
+
+    /**
+     * Adquire a trava global em modo exclusivo.
+     *
+     * @return Guarda que libera a trava
+     */
+    public Guarda exclusivo() {
+        long carimbo = global.writeLock();
+        return () -> global.unlockWrite(carimbo);
+    }
+
+    /**
+     * Adquire, para alterao, as listras das chaves informadas.
+     *
+     * @param chaves Chaves envolvidas na operao (nulas so ignoradas)
+     * @return Guarda que libera as travas
+     */
+    public Guarda escrita(String... chaves) {
+        return adquirir(indices(chaves), true);
+    }
+
+    /**
+     * Adquire, para consulta, as listras das chaves informadas.
+     * Sem chaves, adquire apenas a trava global em modo de leitura.
+     *
+     * @param chaves Chaves envolvidas na consulta (nulas so ignoradas)
+     * @return Guarda que libera as travas
+     */
+    public Guarda leitura(String... chaves) {
+        return adquirir(indices(chaves), false);
+    }
+
+    /**
+     * Executa uma consulta sem adquirir travas, validando depois que nenhuma alterao
+     * envolvendo as chaves (nem uma operao exclusiva) ocorreu durante a execuo.
+     * Havendo conflito, a consulta  repetida; se o conflito persistir,  executada com
+     * as travas de leitura. Excees lanadas em uma tentativa invalidada so descartadas.
+     *
+     * @param leitura Consulta a executar
+     * @param chaves Chaves envolvidas na consulta (nulas so ignoradas)
+     * @return Resultado de uma execuo consistente da consulta
+     * @throws E1 Se a consulta falhar em uma execuo consistente
+     * @throws E2 Se a consulta falhar em uma execuo consistente
+     * @throws E3 Se a consulta falhar em uma execuo consistente
+     */
+    @SuppressWarnings("try")
+    public <T, E1 extends Exception, E2 extends Exception, E3 extends Exception> T lerOtimista(
+            Leitura<T, E1, E2, E3> leitura, String... chaves) throws E1, E2, E3 {
+        int[] indices = indices(chaves);
+        long[] carimbos = new long[indices.length + 1];
+        for (int tentativa = 0; tentativa < TENTATIVAS_OTIMISTAS; tentativa++) {
+            if (!carimbar(indices, carimbos)) {
+                break;
+            }
+            List<Runnable> adiados = new ArrayList<>();
+            T resultado;
+            ADIADOS.set(adiados);
+            try {
+                resultado = leitura.ler();
+            } catch (Exception e) {
+                if (validar(indices, carimbos)) {
+                    executar(adiados);
+                    throw e;
+                }
+                continue;
+            } finally {
+                ADIADOS.remove();
+            }
+            if (validar(indices, carimbos)) {
+                executar(adiados);
+                return resultado;
+            }
+        }
+        try (Guarda guarda = adquirir(indices, false)) {
+            return leitura.ler();
+        }
+    }
+
+    /**
+     * Executa um efeito de uma consulta, como guardar a resposta em cache. Dentro de uma
+     * tentativa otimista de {@link #lerOtimista}, o efeito  adiado e s  executado se a
+     * tentativa for validada; fora dela,  executado na hora.
+     *
+     * @param efeito Efeito a executar
+     */
+    public static void aposValidacao(Runnable efeito) {
+        List<Runnable> adiados = ADIADOS.get();
+        if (adiados != null) {
+            adiados.add(efeito);
+        } else {
+            efeito.run();
+        }
+    }
+
+    private static void executar(List<Runnable> adiados) {
+        for (Runnable efeito : adiados) {
+            efeito.run();
+        }
+    }
+
+    /**
+     * L os carimbos otimistas da trava global e das listras.
+     *
+     * @return false se alguma delas estiver travada para alterao
+     */
+    private boolean carimbar(int[] indices, long[] carimbos) {
+        carimbos[0] = global.tryOptimisticRead();
+        if (carimbos[0] == 0) {
+            return false;
+        }
+        for (int i = 0; i < indices.length; i++) {
+            carimbos[i + 1] = listras[indices[i]].tryOptimisticRead();
+            if (carimbos[i + 1] == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean validar(int[] indices, long[] carimbos) {
+        for (int i = 0; i < indices.length; i++) {
+            if (!listras[indices[i]].validate(carimbos[i + 1])) {
+                return false;
+            }
+        }
+        return global.validate(carimbos[0]);
+    }
+
+    /**
+     * Obtm os ndices distintos das listras das chaves, em ordem crescente.
+     */
+    private int[] indices(String[] chaves) {
+        int[] indices = new int[chaves.length];
+        int n = 0;
+        for (String chave : chaves) {
+            if (chave != null) {
+                indices[n++] = (chave.hashCode() * 0x9E3779B9) >>> deslocamento;
+            }
+        }
+        Arrays.sort(indices, 0, n);
+        int distintos = 0;
+        for (int i = 0; i < n; i++) {
+            if (distintos == 0 || indices[i] != indices[distintos - 1]) {
+                indices[distintos++] = indices[i];
+            }
+        }
+        return distintos == indices.length ? indices : Arrays.copyOf(indices, distintos);
+    }
+
+    private Guarda adquirir(int[] indices, boolean escrita) {
+        long carimboGlobal = global.readLock();
+        long[] carimbos = new long[indices.length];
+        for (int i = 0; i < indices.length; i++) {
+            StampedLock listra = listras[indices[i]];
+            carimbos[i] = escrita ? listra.writeLock() : listra.readLock();
+        }
+        return () -> {
+            for (int i = indices.length - 1; i >= 0; i--) {
+                listras[indices[i]].unlock(carimbos[i]);
+            }
+            global.unlockRead(carimboGlobal);
+        };
+    }
+}
@@ -0,0 +1,128 @@
+package br.ufal.ic.p2.jackut.Utils;
+
+import java.util.Arrays;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Verses antigas de um objeto mutvel, preservadas para as pocas de leitura abertas
+ * (ver {@link SnapshotEpoch}).
+ *
+ * <p>Cada imagem  marcada com a poca aberta mais recente no momento em que foi
+ * preservada, e representa o estado do objeto para as pocas abertas depois da
+ * imagem anterior e at essa marca. Uma poca l a imagem mais antiga com marca maior
+ * ou igual a ela; sem imagem assim, o objeto no mudou desde a abertura da poca e a
+ * leitura usa uma cpia do estado atual.</p>
+ *
+ * <p>Quem altera o objeto deve chamar {@link #preservar} antes, e as cpias so feitas
+ * sob o monitor da cadeia, ento uma leitura nunca copia o objeto no meio de uma
+ * alterao de quem j o preservou.</p>
+ *
+ * @param <T> Tipo do objeto versionado
+ * @author Marcos Melo
+ * @version 1.0
+ */
+public class VersionChain<T> implements SnapshotEpoch.Versionado {
+    private long[] marcas = new long[2];
+    private Object[] imagens = new Object[2];
+    private int tamanho;
+    private boolean registrada;
+
+    /**
+     * Preserva o estado atual, se nenhuma imagem servir  poca aberta mais recente.
+     * Deve ser chamado antes de alterar o objeto.
+     *
+     * @param copia Cria uma cpia do estado atual do objeto
+     */
+    public synchronized void preservar(Supplier<T> copia) {
+        long recente = SnapshotEpoch.maisRecente();
+        if (recente == 0 || (tamanho > 0 && marcas[tamanho - 1] >= recente)) {
+            return;
+        }
+        if (tamanho == marcas.length) {
+            marcas = Arrays.copyOf(marcas, tamanho * 2);
+            imagens = Arrays.copyOf(imagens, tamanho * 2);
+        }
+        marcas[tamanho] = recente;
+        imagens[tamanho] = copia.get();
+        tamanho++;
+        if (!registrada) {
+            registrada = true;
+            SnapshotEpoch.registrar(this);
+        }
+    }
+
+    /**
+     * Obtm o estado do objeto visto por uma poca aberta.
+     *
+     * @param epoca poca de leitura
+     * @param copia Cria uma cpia do estado atual do objeto
+     * @return Imagem preservada ou cpia do estado atual (no deve ser alterada)
+     */
+    public synchronized T versao(long epoca, Supplier<T> copia) {
+        T imagem = imagem(epoca);
+        return imagem != null ? imagem : copia.get();
+    }
+
+    /**
+     * L o estado do objeto visto por uma poca aberta sem copi-lo: a leitura 
+     * aplicada  imagem preservada ou, se o objeto no mudou desde a abertura da poca,
+     * ao prprio objeto, sob o monitor da cadeia.
+     *
+     * @param epoca poca de leitura
+     * @param atual Objeto versionado
+     * @param leitura Extrai do objeto o que interessa (no deve alter-lo nem devolver
+     *                suas colees internas)
+     * @param <R> Tipo do resultado
+     * @return Resultado da leitura
+     */
+    public synchronized <R> R ler(long epoca, T atual, Function<T, R> leitura) {
+        T imagem = imagem(epoca);
+        return leitura.apply(imagem != null ? imagem : atual);
+    }
+
+    /**
+     * Obtm a imagem mais antiga que serve a uma poca, ou null se no houver.
+     */
+    @SuppressWarnings("unchecked")
+    private T imagem(long epoca) {
+        for (int i = 0; i < tamanho; i++) {
+            if (marcas[i] >= epoca) {
+                return (T) imagens[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Descarta as imagens que nenhuma poca aberta usa.
+     */
+    @Override
+    public synchronized void podar() {
+        int mantidas = 0;
+        long anterior = 0;
+        for (int i = 0; i < tamanho; i++) {
+            if (SnapshotEpoch.usada(anterior, marcas[i])) {
+                marcas[mantidas] = marcas[i];
+                imagens[mantidas] = imagens[i];
+                mantidas++;
+            }
+            anterior = marcas[i];
+        }
+        Arrays.fill(imagens, mantidas, tamanho, null);
+        tamanho = mantidas;
+        if (tamanho == 0 && registrada) {
+            registrada = false;
+            SnapshotEpoch.descartar(this);
+        }
+    }
+
+    /**
+     * Obtm a quantidade de imagens preservadas.
+     *
+     * @return Imagens guardadas
+     */
+    public synchronized int getImagens() {
+        return tamanho;
+    }
+}
@@ -0,0 +1,139 @@
+package br.ufal.ic.p2.jackut.analytics;
+
+import java.io.*;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Anlise em lote do grafo de relacionamentos.
+ *
+ * <p>A anlise roda em trs etapas sobre uma {@link GraphSnapshot}: componentes
+ * conexos, histograma de graus e dolos com mais fs. Cada etapa percorre todos os
+ * ids uma vez, e o progresso  a frao de ids j processados nas trs etapas.</p>
+ *
+ * <p>Ao final, o relatrio completo  gravado no arquivo indicado, e um resumo fica
+ * disponvel em {@link #aguardar()}.</p>
+ *
+ * @author Marcos Melo
+ * @version 1.0
+ */
+public class AnalyticsJob {
+    /** Quantidade de dolos no ranking */
+    static final int TOP_IDOLOS = 100;
+
+    private static final int ETAPAS = 3;
+
+    private final GraphSnapshot grafo;
+    private final String arquivo;
+    private final AtomicLong progresso;
+    private CompletableFuture<String> resultado;
+
+    /**
+     * Cria uma anlise sobre uma cpia congelada do grafo.
+     *
+     * @param grafo Cpia congelada do grafo
+     * @param arquivo Caminho do arquivo onde o relatrio ser gravado
+     */
+    public AnalyticsJob(GraphSnapshot grafo, String arquivo) {
+        this.grafo = grafo;
+        this.arquivo = arquivo;
+        this.progresso = new AtomicLong();
+    }
+
+    /**
+     * Inicia a anlise em segundo plano.
+     *
+     * @param pool Pool fork/join que executar as tarefas
+     */
+    public void iniciar(ForkJoinPool pool) {
+        this.resultado = CompletableFuture.supplyAsync(this::executar, pool);
+    }
+
+    /**
+     * Obtm o progresso da anlise.
+     *
+     * @return Porcentagem concluda (0 a 100)
+     */
+    public int getProgresso() {
+        if (resultado != null && resultado.isDone()) {
+            return 100;
+        }
+        long total = (long) ETAPAS * grafo.getLimiteIds();
+        return (int) Math.min(99, progresso.get() * 100 / Math.max(1, total));
+    }
+
+    /**
+     * Aguarda o fim da anlise.
+     *
+     * @return Resumo da anlise
+     */
+    public String aguardar() {
+        try {
+            return resultado.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private String executar() {
+        int limite = grafo.getLimiteIds();
+
+        AtomicIntegerArray pai = new AtomicIntegerArray(limite);
+        for (int i = 0; i < limite; i++) {
+            pai.set(i, i);
+        }
+        new ConnectedComponentsTask(grafo, pai, progresso, 0, limite).invoke();
+        Map<Integer, Integer> componentes = new HashMap<>();
+        for (int v = 0; v < limite; v++) {
+            if (grafo.existe(v)) {
+                componentes.merge(ConnectedComponentsTask.raiz(pai, v), 1, Integer::sum);
+            }
+        }
+        int maiorComponente = componentes.values().stream().mapToInt(Integer::intValue).max().orElse(0);
+
+        long[] histograma = new DegreeHistogramTask(grafo, progresso, 0, limite).invoke();
+        List<Integer> idolos = new TopIdolsTask(grafo, progresso, 0, limite, TOP_IDOLOS).invoke();
+
+        gravar(componentes.size(), maiorComponente, histograma, idolos);
+
+        String idolo = idolos.isEmpty() ? "" : grafo.getLogin(idolos.get(0));
+        return "usuarios=" + grafo.getUsuarios()
+                + ",componentes=" + componentes.size()
+                + ",maiorComponente=" + maiorComponente
+                + ",maiorGrau=" + (histograma.length - 1)
+                + ",maiorIdolo=" + idolo;
+    }
+
+    private void gravar(int componentes, int maiorComponente, long[] histograma, List<Integer> idolos) {
+        File destino = new File(arquivo);
+        if (destino.getParentFile() != null) {
+            destino.getParentFile().mkdirs();
+        }
+        try (PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(destino)))) {
+            out.println("usuarios=" + grafo.getUsuarios());
+            out.println("componentes=" + componentes);
+            out.println("maiorComponente=" + maiorComponente);
+            out.println("[graus]");
+            for (int grau = 0; grau < histograma.length; grau++) {
+                if (histograma[grau] > 0) {
+                    out.println(grau + "=" + histograma[grau]);
+                }
+            }
+            out.println("[idolos]");
+            for (int id : idolos) {
+                out.println(grafo.getLogin(id) + "=" + grafo.getFas(id));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
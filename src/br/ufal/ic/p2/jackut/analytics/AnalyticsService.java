@@ -0,0 +1,81 @@
+package br.ufal.ic.p2.jackut.analytics;
+
+import br.ufal.ic.p2.jackut.exceptions.Analytics.AnalysisNotFoundException;
+import br.ufal.ic.p2.jackut.models.User;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Servio de anlises em lote sobre o grafo de relacionamentos do sistema Jackut.
+ *
+ * <p>A cpia do grafo  capturada na thread que inicia a anlise. O processamento
+ * acontece depois, em um pool fork/join prprio, sem bloquear as demais
+ * operaes do sistema.</p>
+ *
+ * @author Marcos Melo
+ * @version 1.0
+ */
+public class AnalyticsService {
+    private final ForkJoinPool pool;
+    private final Map<String, AnalyticsJob> analises;
+    private final AtomicInteger sequencia;
+
+    /**
+     * Cria o servio com um pool do tamanho do nmero de processadores.
+     */
+    public AnalyticsService() {
+        this.pool = new ForkJoinPool();
+        this.analises = new ConcurrentHashMap<>();
+        this.sequencia = new AtomicInteger();
+    }
+
+    /**
+     * Inicia uma anlise dos usurios atuais.
+     *
+     * @param users Usurios do sistema
+     * @param arquivo Caminho do arquivo de relatrio
+     * @param epoca poca de leitura aberta, em cuja verso os perfis so copiados
+     * @return Identificador da anlise
+     */
+    public String iniciar(List<User> users, String arquivo, long epoca) {
+        AnalyticsJob analise = new AnalyticsJob(GraphSnapshot.capturar(users, epoca), arquivo);
+        String id = "analise-" + sequencia.incrementAndGet();
+        analises.put(id, analise);
+        analise.iniciar(pool);
+        return id;
+    }
+
+    /**
+     * Obtm o progresso de uma anlise.
+     *
+     * @param id Identificador da anlise
+     * @return Porcentagem concluda (0 a 100)
+     * @throws AnalysisNotFoundException Se a anlise no existir
+     */
+    public int getProgresso(String id) throws AnalysisNotFoundException {
+        return buscar(id).getProgresso();
+    }
+
+    /**
+     * Aguarda o fim de uma anlise.
+     *
+     * @param id Identificador da anlise
+     * @return Resumo da anlise
+     * @throws AnalysisNotFoundException Se a anlise no existir
+     */
+    public String aguardar(String id) throws AnalysisNotFoundException {
+        return buscar(id).aguardar();
+    }
+
+    private AnalyticsJob buscar(String id) throws AnalysisNotFoundException {
+        AnalyticsJob analise = id != null ? analises.get(id) : null;
+        if (analise == null) {
+            throw new AnalysisNotFoundException();
+        }
+        return analise;
+    }
+}
@@ -0,0 +1,99 @@
+package br.ufal.ic.p2.jackut.analytics;
+
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tarefa fork/join que calcula os componentes conexos do grafo de amizades.
+ *
+ * <p>Cada folha percorre um intervalo de ids e une as pontas de cada amizade em uma
+ * estrutura union-find compartilhada e sem bloqueios: as razes so ligadas por
+ * compare-and-set, sempre a maior apontando para a menor.</p>
+ *
+ * @author Marcos Melo
+ * @version 1.0
+ */
+public class ConnectedComponentsTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    /** Tamanho do intervalo de ids processado sem dividir a tarefa */
+    static final int LIMIAR = 1024;
+
+    private final GraphSnapshot grafo;
+    private final AtomicIntegerArray pai;
+    private final AtomicLong progresso;
+    private final int inicio, fim;
+
+    /**
+     * Cria a tarefa para um intervalo de ids.
+     *
+     * @param grafo Cpia congelada do grafo
+     * @param pai Vetor union-find (inicialmente cada id  a sua prpria raiz)
+     * @param progresso Contador de ids processados
+     * @param inicio Primeiro id do intervalo
+     * @param fim Limite (exclusivo) do intervalo
+     */
+    public ConnectedComponentsTask(GraphSnapshot grafo, AtomicIntegerArray pai, AtomicLong progresso,
+                                   int inicio, int fim) {
+        this.grafo = grafo;
+        this.pai = pai;
+        this.progresso = progresso;
+        this.inicio = inicio;
+        this.fim = fim;
+    }
+
+    @Override
+    protected void compute() {
+        if (fim - inicio > LIMIAR) {
+            int meio = (inicio + fim) >>> 1;
+            invokeAll(new ConnectedComponentsTask(grafo, pai, progresso, inicio, meio),
+                    new ConnectedComponentsTask(grafo, pai, progresso, meio, fim));
+            return;
+        }
+        for (int v = inicio; v < fim; v++) {
+            if (!grafo.existe(v)) {
+                continue;
+            }
+            for (int u : grafo.getAmigos(v)) {
+                if (u > v) {
+                    unir(v, u);
+                }
+            }
+        }
+        progresso.addAndGet(fim - inicio);
+    }
+
+    /**
+     * Obtm a raiz do componente de um id, encurtando o caminho pela metade.
+     *
+     * @param pai Vetor union-find
+     * @param x Id
+     * @return Raiz do componente
+     */
+    static int raiz(AtomicIntegerArray pai, int x) {
+        while (true) {
+            int p = pai.get(x);
+            if (p == x) {
+                return x;
+            }
+            int avo = pai.get(p);
+            pai.compareAndSet(x, p, avo);
+            x = avo;
+        }
+    }
+
+    private void unir(int a, int b) {
+        while (true) {
+            int ra = raiz(pai, a);
+            int rb = raiz(pai, b);
+            if (ra == rb) {
+                return;
+            }
+            int menor = Math.min(ra, rb), maior = Math.max(ra, rb);
+            if (pai.compareAndSet(maior, maior, menor)) {
+                return;
+            }
+        }
+    }
+}
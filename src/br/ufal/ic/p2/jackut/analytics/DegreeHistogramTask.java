@@ -0,0 +1,69 @@
+package br.ufal.ic.p2.jackut.analytics;
+
+import java.util.Arrays;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tarefa fork/join que calcula o histograma de graus (nmero de amigos) dos usurios.
+ * Cada folha produz um histograma parcial, e os parciais so somados na juno.
+ *
+ * @author Marcos Melo
+ * @version 1.0
+ */
+public class DegreeHistogramTask extends RecursiveTask<long[]> {
+    private static final long serialVersionUID = 1L;
+
+    private final GraphSnapshot grafo;
+    private final AtomicLong progresso;
+    private final int inicio, fim;
+
+    /**
+     * Cria a tarefa para um intervalo de ids.
+     *
+     * @param grafo Cpia congelada do grafo
+     * @param progresso Contador de ids processados
+     * @param inicio Primeiro id do intervalo
+     * @param fim Limite (exclusivo) do intervalo
+     */
+    public DegreeHistogramTask(GraphSnapshot grafo, AtomicLong progresso, int inicio, int fim) {
+        this.grafo = grafo;
+        this.progresso = progresso;
+        this.inicio = inicio;
+        this.fim = fim;
+    }
+
+    @Override
+    protected long[] compute() {
+        if (fim - inicio > ConnectedComponentsTask.LIMIAR) {
+            int meio = (inicio + fim) >>> 1;
+            DegreeHistogramTask esquerda = new DegreeHistogramTask(grafo, progresso, inicio, meio);
+            esquerda.fork();
+            long[] direita = new DegreeHistogramTask(grafo, progresso, meio, fim).compute();
+            return somar(esquerda.join(), direita);
+        }
+        long[] histograma = new long[1];
+        for (int v = inicio; v < fim; v++) {
+            if (!grafo.existe(v)) {
+                continue;
+            }
+            int grau = grafo.getAmigos(v).length;
+            if (grau >= histograma.length) {
+                histograma = Arrays.copyOf(histograma, grau + 1);
+            }
+            histograma[grau]++;
+        }
+        progresso.addAndGet(fim - inicio);
+        return histograma;
+    }
+
+    private static long[] somar(long[] a, long[] b) {
+        if (a.length < b.length) {
+            return somar(b, a);
+        }
+        for (int i = 0; i < b.length; i++) {
+            a[i] += b[i];
+        }
+        return a;
+    }
+}
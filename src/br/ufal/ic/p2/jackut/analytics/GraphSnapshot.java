@@ -0,0 +1,134 @@
+package br.ufal.ic.p2.jackut.analytics;
+
+import br.ufal.ic.p2.jackut.models.User;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Cpia congelada do grafo de relacionamentos, usada pelas anlises em lote.
+ *
+ * <p>Os vrtices so os ids dos usurios ativos. A cpia guarda, para cada id, o login,
+ * os ids dos amigos e o nmero de fs. Depois de capturada, no muda mais, e as
+ * anlises podem percorr-la em paralelo enquanto o sistema continua atendendo
+ * requisies.</p>
+ *
+ * @author Marcos Melo
+ * @version 1.0
+ */
+public class GraphSnapshot {
+    private final String[] logins;
+    private final int[][] amigos;
+    private final int[] fas;
+    private final int usuarios;
+
+    private GraphSnapshot(String[] logins, int[][] amigos, int[] fas, int usuarios) {
+        this.logins = logins;
+        this.amigos = amigos;
+        this.fas = fas;
+        this.usuarios = usuarios;
+    }
+
+    /**
+     * Captura o estado dos usurios ativos, com os perfis lidos na verso de uma poca
+     * de leitura aberta.
+     *
+     * @param users Usurios do sistema
+     * @param epoca poca de leitura aberta
+     * @return Cpia congelada do grafo
+     */
+    public static GraphSnapshot capturar(List<User> users, long epoca) {
+        int maiorId = 0;
+        for (User user : users) {
+            maiorId = Math.max(maiorId, user.getId());
+        }
+        String[] logins = new String[maiorId + 1];
+        int[][] amigos = new int[maiorId + 1][];
+        int[] fas = new int[maiorId + 1];
+        int usuarios = 0;
+
+        for (User user : users) {
+            if (user.isRemovido()) {
+                continue;
+            }
+            int id = user.getId();
+            logins[id] = user.getName();
+            amigos[id] = user.getProfile().getIdsAmigos(epoca);
+            fas[id] = user.getProfile().ler(epoca, perfil -> {
+                int ativos = 0;
+                for (User fa : perfil.getFas()) {
+                    if (!fa.isRemovido()) {
+                        ativos++;
+                    }
+                }
+                return ativos;
+            });
+            usuarios++;
+        }
+        // Amizades com usurios removidos ainda no varridos so descartadas
+        for (int id = 1; id <= maiorId; id++) {
+            if (amigos[id] != null) {
+                amigos[id] = Arrays.stream(amigos[id]).filter(v -> v < logins.length && logins[v] != null).toArray();
+            }
+        }
+        return new GraphSnapshot(logins, amigos, fas, usuarios);
+    }
+
+    /**
+     * Obtm o limite superior (exclusivo) dos ids.
+     *
+     * @return Maior id mais um
+     */
+    public int getLimiteIds() {
+        return logins.length;
+    }
+
+    /**
+     * Obtm a quantidade de usurios ativos na cpia.
+     *
+     * @return Nmero de usurios
+     */
+    public int getUsuarios() {
+        return usuarios;
+    }
+
+    /**
+     * Verifica se um id corresponde a um usurio ativo na cpia.
+     *
+     * @param id Id do usurio
+     * @return true se o usurio existir
+     */
+    public boolean existe(int id) {
+        return logins[id] != null;
+    }
+
+    /**
+     * Obtm o login de um usurio.
+     *
+     * @param id Id do usurio
+     * @return Login, ou null se o id no existir
+     */
+    public String getLogin(int id) {
+        return logins[id];
+    }
+
+    /**
+     * Obtm os ids dos amigos de um usurio, em ordem crescente.
+     *
+     * @param id Id do usurio
+     * @return Ids dos amigos (no deve ser modificado)
+     */
+    public int[] getAmigos(int id) {
+        return amigos[id];
+    }
+
+    /**
+     * Obtm o nmero de fs de um usurio.
+     *
+     * @param id Id do usurio
+     * @return Quantidade de fs
+     */
+    public int getFas(int id) {
+        return fas[id];
+    }
+}
@@ -0,0 +1,70 @@
+package br.ufal.ic.p2.jackut.analytics;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tarefa fork/join que encontra os dolos com mais fs.
+ * Cada folha guarda apenas os k melhores do seu intervalo, e as junes combinam
+ * as listas parciais mantendo novamente s os k melhores.
+ *
+ * @author Marcos Melo
+ * @version 1.0
+ */
+public class TopIdolsTask extends RecursiveTask<List<Integer>> {
+    private static final long serialVersionUID = 1L;
+
+    private final GraphSnapshot grafo;
+    private final AtomicLong progresso;
+    private final int inicio, fim, k;
+
+    /**
+     * Cria a tarefa para um intervalo de ids.
+     *
+     * @param grafo Cpia congelada do grafo
+     * @param progresso Contador de ids processados
+     * @param inicio Primeiro id do intervalo
+     * @param fim Limite (exclusivo) do intervalo
+     * @param k Quantidade de dolos no ranking
+     */
+    public TopIdolsTask(GraphSnapshot grafo, AtomicLong progresso, int inicio, int fim, int k) {
+        this.grafo = grafo;
+        this.progresso = progresso;
+        this.inicio = inicio;
+        this.fim = fim;
+        this.k = k;
+    }
+
+    @Override
+    protected List<Integer> compute() {
+        if (fim - inicio > ConnectedComponentsTask.LIMIAR) {
+            int meio = (inicio + fim) >>> 1;
+            TopIdolsTask esquerda = new TopIdolsTask(grafo, progresso, inicio, meio, k);
+            esquerda.fork();
+            List<Integer> direita = new TopIdolsTask(grafo, progresso, meio, fim, k).compute();
+            List<Integer> todos = new ArrayList<>(esquerda.join());
+            todos.addAll(direita);
+            return melhores(todos);
+        }
+        List<Integer> ids = new ArrayList<>();
+        for (int v = inicio; v < fim; v++) {
+            if (grafo.existe(v) && grafo.getFas(v) > 0) {
+                ids.add(v);
+            }
+        }
+        progresso.addAndGet(fim - inicio);
+        return melhores(ids);
+    }
+
+    /**
+     * Ordena os ids por nmero de fs (decrescente) e login, e mantm apenas os k primeiros.
+     */
+    private List<Integer> melhores(List<Integer> ids) {
+        ids.sort(Comparator.comparingInt((Integer id) -> grafo.getFas(id)).reversed()
+                .thenComparing(grafo::getLogin));
+        return ids.size() > k ? new ArrayList<>(ids.subList(0, k)) : ids;
+    }
+}
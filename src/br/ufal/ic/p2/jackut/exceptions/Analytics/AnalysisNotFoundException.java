@@ -0,0 +1,18 @@
+package br.ufal.ic.p2.jackut.exceptions.Analytics;
+
+/**
+ * Exceo lanada quando uma operao se refere a uma anlise em lote que no existe.
+ * <p>
+ * Pode ocorrer ao consultar o progresso ou aguardar o resultado de uma anlise
+ * com identificador desconhecido.
+ * </p>
+ */
+public class AnalysisNotFoundException extends Exception {
+
+    /**
+     * Cria uma exceo com a mensagem padro: "Anlise no encontrada."
+     */
+    public AnalysisNotFoundException() {
+        super("Anlise no encontrada.");
+    }
+}
@@ -0,0 +1,32 @@
+package br.ufal.ic.p2.jackut.exceptions.Batch;
+
+/**
+ * Exceo lanada quando um comando de um lote de alteraes falha.
+ * <p>
+ * Quando ela  lanada, as alteraes dos comandos anteriores do lote j foram
+ * desfeitas. A exceo original do comando fica disponvel em {@link #getCause()}.
+ * </p>
+ */
+public class BatchFailedException extends Exception {
+    private final int comando;
+
+    /**
+     * Cria a exceo a partir da falha de um comando.
+     *
+     * @param comando Posio do comando que falhou (a partir de 1)
+     * @param causa Exceo lanada pelo comando
+     */
+    public BatchFailedException(int comando, Exception causa) {
+        super("Lote desfeito: o comando " + comando + " falhou. " + causa.getMessage(), causa);
+        this.comando = comando;
+    }
+
+    /**
+     * Obtm a posio do comando que falhou.
+     *
+     * @return Posio do comando no lote (a partir de 1)
+     */
+    public int getComando() {
+        return comando;
+    }
+}
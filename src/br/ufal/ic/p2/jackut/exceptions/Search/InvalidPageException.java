@@ -0,0 +1,18 @@
+package br.ufal.ic.p2.jackut.exceptions.Search;
+
+/**
+ * Exceo lanada quando uma consulta paginada recebe parmetros de pgina invlidos.
+ * <p>
+ * Esta  uma exceo verificada (checked exception) que indica que o incio da pgina
+ *  negativo ou que o limite de resultados no  positivo.
+ * </p>
+ */
+public class InvalidPageException extends Exception {
+
+    /**
+     * Cria uma exceo com a mensagem padro: "Pgina invlida."
+     */
+    public InvalidPageException() {
+        super("Pgina invlida.");
+    }
+}
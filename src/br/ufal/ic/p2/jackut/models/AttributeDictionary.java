@@ -0,0 +1,102 @@
+package br.ufal.ic.p2.jackut.models;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dicionrio global de nomes de atributos de perfil.
+ *
+ * <p>Os perfis compartilham um vocabulrio pequeno de atributos ("cidade", "estado",
+ * "descricao", ...). O dicionrio associa cada nome a um cdigo inteiro pequeno, e os
+ * perfis guardam apenas os cdigos (veja {@link AttributeStore}).</p>
+ *
+ * <p>Os cdigos valem apenas durante a execuo: na serializao, os perfis gravam os nomes.</p>
+ *
+ * <p>S so registrados os nomes de atributos efetivamente gravados em algum perfil, e
+ * o dicionrio guarda no mximo {@value #LIMITE} nomes: como os nomes vm dos usurios,
+ * os que passarem do limite ficam guardados por extenso no prprio perfil. O
+ * dicionrio  esvaziado ao zerar o sistema.</p>
+ *
+ * @author Marcos Melo
+ * @version 1.0
+ */
+public class AttributeDictionary {
+    private static final Map<String, Integer> codigos = new ConcurrentHashMap<>();
+    private static final List<String> nomes = new ArrayList<>();
+
+    /** Quantidade mxima de nomes registrados */
+    public static final int LIMITE = 1024;
+
+    private AttributeDictionary() {
+    }
+
+    /**
+     * Obtm o cdigo de um atributo, registrando-o se ainda no existir.
+     *
+     * @param nome Nome do atributo
+     * @return Cdigo do atributo, ou -1 se o dicionrio estiver cheio
+     */
+    public static int codigo(String nome) {
+        Integer codigo = codigos.get(nome);
+        if (codigo != null) {
+            return codigo;
+        }
+        synchronized (nomes) {
+            codigo = codigos.get(nome);
+            if (codigo != null) {
+                return codigo;
+            }
+            if (nomes.size() >= LIMITE) {
+                return -1;
+            }
+            nomes.add(nome);
+            codigos.put(nome, nomes.size() - 1);
+            return nomes.size() - 1;
+        }
+    }
+
+    /**
+     * Obtm o cdigo de um atributo sem registr-lo.
+     *
+     * @param nome Nome do atributo
+     * @return Cdigo do atributo, ou -1 se nenhum perfil usa esse atributo
+     */
+    public static int buscar(String nome) {
+        Integer codigo = codigos.get(nome);
+        return codigo != null ? codigo : -1;
+    }
+
+    /**
+     * Obtm o nome (cannico) de um atributo a partir do cdigo.
+     *
+     * @param codigo Cdigo do atributo
+     * @return Nome do atributo
+     */
+    public static String nome(int codigo) {
+        synchronized (nomes) {
+            return nomes.get(codigo);
+        }
+    }
+
+    /**
+     * Obtm a quantidade de atributos registrados.
+     *
+     * @return Tamanho do dicionrio
+     */
+    public static int tamanho() {
+        return codigos.size();
+    }
+
+    /**
+     * Esvazia o dicionrio (usado ao zerar o sistema). S deve ser chamado quando
+     * nenhum perfil com atributos ainda pode ser lido ou gravado.
+     */
+    public static void limpar() {
+        synchronized (nomes) {
+            codigos.clear();
+            nomes.clear();
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package br.ufal.ic.p2.jackut.models;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+
+/**
+ * Armazenamento compacto dos atributos de um perfil.
+ *
+ * <p>Em vez de um {@code HashMap} por usurio, os atributos ficam em dois vetores
+ * paralelos: os cdigos do {@link AttributeDictionary} e os valores. Como cada perfil
+ * tem poucos atributos, a busca linear sobre inteiros  mais rpida e muito mais
+ * econmica que uma tabela hash.</p>
+ *
+ * <p>Atributos que no cabem mais no dicionrio (veja {@link AttributeDictionary#LIMITE})
+ * ficam com o cdigo -1 e o nome guardado por extenso em um terceiro vetor, criado s
+ * quando necessrio.</p>
+ *
+ * @author Marcos Melo
+ * @version 1.0
+ */
+public class AttributeStore implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private transient int[] chaves;
+    private transient String[] valores;
+    private transient String[] avulsos;
+    private transient int tamanho;
+
+    /**
+     * Cria um armazenamento vazio.
+     */
+    public AttributeStore() {
+        this.chaves = new int[2];
+        this.valores = new String[2];
+    }
+
+    /**
+     * Obtm o valor de um atributo.
+     *
+     * @param chave Nome do atributo
+     * @return Valor do atributo, ou null se no estiver definido
+     */
+    public String get(String chave) {
+        int i = indice(chave);
+        return i >= 0 ? valores[i] : null;
+    }
+
+    /**
+     * Define o valor de um atributo.
+     *
+     * @param chave Nome do atributo
+     * @param valor Valor do atributo
+     * @return Valor anterior, ou null se o atributo no estava definido
+     */
+    public String put(String chave, String valor) {
+        int i = indice(chave);
+        if (i >= 0) {
+            String anterior = valores[i];
+            valores[i] = valor;
+            return anterior;
+        }
+        if (tamanho == chaves.length) {
+            chaves = Arrays.copyOf(chaves, tamanho * 2);
+            valores = Arrays.copyOf(valores, tamanho * 2);
+            if (avulsos != null) {
+                avulsos = Arrays.copyOf(avulsos, tamanho * 2);
+            }
+        }
+        int codigo = AttributeDictionary.codigo(chave);
+        if (codigo < 0) {
+            if (avulsos == null) {
+                avulsos = new String[chaves.length];
+            }
+            avulsos[tamanho] = chave;
+        }
+        chaves[tamanho] = codigo;
+        valores[tamanho] = valor;
+        tamanho++;
+        return null;
+    }
+
+    /**
+     * Verifica se um atributo est definido.
+     *
+     * @param chave Nome do atributo
+     * @return true se o atributo estiver definido
+     */
+    public boolean containsKey(String chave) {
+        return indice(chave) >= 0;
+    }
+
+    /**
+     * Obtm a quantidade de atributos definidos.
+     *
+     * @return Quantidade de atributos
+     */
+    public int size() {
+        return tamanho;
+    }
+
+    /**
+     * Percorre os atributos definidos, na ordem em que foram criados.
+     *
+     * @param acao Ao executada com o nome e o valor de cada atributo
+     */
+    public void paraCada(BiConsumer<String, String> acao) {
+        for (int i = 0; i < tamanho; i++) {
+            acao.accept(nome(i), valores[i]);
+        }
+    }
+
+    /**
+     * Estima a memria ocupada pelos atributos (vetores e valores).
+     *
+     * @return Tamanho aproximado em bytes
+     */
+    public long getTamanhoEmBytes() {
+        long total = 16L + 16L + chaves.length * 4L + 16L + valores.length * 4L;
+        if (avulsos != null) {
+            total += 16L + avulsos.length * 4L;
+        }
+        for (int i = 0; i < tamanho; i++) {
+            if (valores[i] != null) {
+                total += 24L + 16L + valores[i].length();
+            }
+        }
+        return total;
+    }
+
+    private int indice(String chave) {
+        int codigo = AttributeDictionary.buscar(chave);
+        for (int i = 0; i < tamanho; i++) {
+            if (codigo >= 0 ? chaves[i] == codigo : chaves[i] < 0 && avulsos[i].equals(chave)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private String nome(int i) {
+        return chaves[i] >= 0 ? AttributeDictionary.nome(chaves[i]) : avulsos[i];
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeInt(tamanho);
+        for (int i = 0; i < tamanho; i++) {
+            out.writeObject(nome(i));
+            out.writeObject(valores[i]);
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        int n = in.readInt();
+        chaves = new int[Math.max(2, n)];
+        valores = new String[Math.max(2, n)];
+        for (int i = 0; i < n; i++) {
+            String chave = (String) in.readObject();
+            put(chave, (String) in.readObject());
+        }
+    }
+}
@@ -1,10 +1,20 @@
 package br.ufal.ic.p2.jackut.models;
 
 import br.ufal.ic.p2.jackut.Utils.GlobalFormatter;
+import br.ufal.ic.p2.jackut.Utils.ResponseCache;
+import br.ufal.ic.p2.jackut.Utils.SnapshotEpoch;
+import br.ufal.ic.p2.jackut.Utils.StringPool;
+import br.ufal.ic.p2.jackut.Utils.VersionChain;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.stream.Stream;
 
 /**
  * Classe que representa uma comunidade no sistema.
@@ -37,9 +47,40 @@ public class Community implements Serializable {
     private User owner;
 
     /**
-     * Lista de membros da comunidade.
+     * Ids dos membros da comunidade, na ordem de entrada.
+     * Comunidades grandes usam um bitmap compactado para a pertinncia.
      */
-    private ArrayList<User> members;
+    private MemberSet members;
+
+    /**
+     * Quantidade de membros ativos, reconstruda a partir dos ids ao carregar.
+     */
+    private transient int membrosAtivos;
+
+    /**
+     * Verso do conjunto de membros, usada pelo cache de respostas formatadas.
+     */
+    private transient long versaoMembros;
+
+    /**
+     * Indica se a comunidade foi removida junto com o seu dono.
+     */
+    private boolean removida;
+
+    /**
+     * Verses antigas preservadas para as pocas de leitura abertas (ver {@link SnapshotEpoch}).
+     */
+    private transient VersionChain<Community> versoes;
+
+    /**
+     * Indica se a comunidade  uma imagem preservada, gravada como est.
+     */
+    private transient boolean imagem;
+
+    /**
+     * Membros lidos de arquivos gravados antes dos ids, resolvidos em {@link #canonizar}.
+     */
+    private transient Collection<User> membrosGravados;
 
     /**
      * Constri uma nova comunidade com os dados bsicos.
@@ -49,16 +90,88 @@ public class Community implements Serializable {
      * @param owner Usurio criador/dono da comunidade (no pode ser nulo)
      */
     public Community(String name, String description, User owner) {
-        this.name = name;
+        this.name = StringPool.canonico(name);
         this.description = description;
-        this.members = new ArrayList<>();
+        this.members = new MemberSet();
         this.owner = owner;
 
-        this.members.add(owner);
+        this.members.adicionar(owner.getId());
+        this.membrosAtivos = 1;
         owner.getProfile().setDonoComunidades(this);
         owner.getProfile().setParticipanteComunidade(this);
     }
 
+    /**
+     * Cria uma cpia da comunidade para gravao, com o conjunto de membros copiado.
+     *
+     * @param origem Comunidade copiada
+     */
+    private Community(Community origem) {
+        this.name = origem.name;
+        this.description = origem.description;
+        this.owner = origem.owner;
+        this.members = new MemberSet();
+        origem.members.paraCada(this.members::adicionar);
+        this.removida = origem.removida;
+        this.imagem = true;
+    }
+
+    private synchronized VersionChain<Community> versoes() {
+        if (versoes == null) {
+            versoes = new VersionChain<>();
+        }
+        return versoes;
+    }
+
+    /**
+     * Preserva o estado atual da comunidade para as pocas de leitura abertas, se
+     * houver alguma e a comunidade ainda no tiver sido preservada para a mais
+     * recente. Deve ser chamado antes de alterar os membros.
+     */
+    public void preservar() {
+        if (SnapshotEpoch.maisRecente() != 0) {
+            versoes().preservar(() -> new Community(this));
+        }
+    }
+
+    /**
+     * Obtm a comunidade como era na abertura de uma poca de leitura.
+     *
+     * @param epoca poca aberta
+     * @return Imagem da comunidade (no deve ser alterada)
+     */
+    public Community versao(long epoca) {
+        return versoes().versao(epoca, () -> new Community(this));
+    }
+
+    /**
+     * Durante uma gravao em segundo plano, grava a comunidade como era no incio dela.
+     */
+    private Object writeReplace() {
+        long epoca = SnapshotEpoch.emGravacao();
+        return epoca == 0 || imagem ? this : versao(epoca);
+    }
+
+    /**
+     * L a comunidade aceitando tambm os formatos anteriores, em que os membros eram
+     * gravados como uma lista ou um conjunto de usurios.
+     */
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField campos = in.readFields();
+        this.name = (String) campos.get("name", null);
+        this.description = (String) campos.get("description", null);
+        this.owner = (User) campos.get("owner", null);
+        this.removida = campos.get("removida", false);
+        Object gravados = campos.get("members", null);
+        if (gravados instanceof MemberSet) {
+            this.members = (MemberSet) gravados;
+        } else {
+            this.members = new MemberSet();
+            this.membrosGravados = (Collection<User>) gravados;
+        }
+    }
+
     /**
      * Obtm o nome da comunidade.
      *
@@ -87,31 +200,122 @@ public class Community implements Serializable {
     }
 
     /**
-     * Obtm a lista de membros formatada.
+     * Obtm a lista de membros formatada, ignorando usurios removidos.
      *
+     * @param diretorio Funo que resolve o id de um usurio para o objeto {@link User}
      * @return String formatada com a lista de membros
-     * @see GlobalFormatter#formatList(List)
+     * @see GlobalFormatter#formatList(Collection)
      */
-    public String getMembers() {
-        return GlobalFormatter.formatList(members);
+    public String getMembers(IntFunction<User> diretorio) {
+        return GlobalFormatter.formatList(getMemberObject(diretorio));
     }
 
     /**
-     * Obtm a lista de objetos User dos membros.
+     * Obtm a lista de objetos User dos membros ativos, na ordem de entrada.
      *
+     * @param diretorio Funo que resolve o id de um usurio para o objeto {@link User}
      * @return Lista de {@link User} membros da comunidade
      */
-    public List<User> getMemberObject(){
+    public List<User> getMemberObject(IntFunction<User> diretorio) {
+        List<User> ativos = new ArrayList<>(members.tamanho());
+        members.paraCada(id -> {
+            User member = diretorio.apply(id);
+            if (member != null && !member.isRemovido()) {
+                ativos.add(member);
+            }
+        });
+        return ativos;
+    }
+
+    /**
+     * Percorre os membros ativos na ordem de entrada, sem montar uma lista.
+     *
+     * @param diretorio Funo que resolve o id de um usurio para o objeto {@link User}
+     * @return Fluxo com os membros ativos
+     */
+    public Stream<User> streamMembros(IntFunction<User> diretorio) {
+        return members.ids()
+                .mapToObj(diretorio)
+                .filter(member -> member != null && !member.isRemovido());
+    }
+
+    /**
+     * Obtm o conjunto de ids dos membros.
+     *
+     * @return Conjunto de membros da comunidade
+     */
+    public MemberSet getMemberIds() {
         return members;
     }
 
+    /**
+     * Verifica se um usurio  membro da comunidade.
+     *
+     * @param user Usurio a ser verificado
+     * @return true se o usurio for membro, false caso contrrio
+     */
+    public boolean isMember(User user) {
+        return members.contem(user.getId());
+    }
+
     /**
      * Adiciona um novo membro  comunidade.
      *
      * @param user Usurio a ser adicionado (no pode ser nulo)
      */
     public void addMember(User user) {
-        members.add(user);
+        if (members.adicionar(user.getId())) {
+            versaoMembros = ResponseCache.novaVersao();
+        }
+    }
+
+    /**
+     * Obtm a verso atual do conjunto de membros, que muda a cada entrada ou sada.
+     *
+     * @return Verso do conjunto de membros
+     */
+    public long getVersaoMembros() {
+        if (versaoMembros == 0) {
+            versaoMembros = ResponseCache.novaVersao();
+        }
+        return versaoMembros;
+    }
+
+    /**
+     * Obtm o nmero de membros ativos, sem percorrer os membros (que ainda podem
+     * incluir usurios removidos  espera da varredura).
+     *
+     * @return Nmero de membros
+     */
+    public int getNumeroMembros() {
+        return membrosAtivos;
+    }
+
+    /**
+     * Ajusta o nmero de membros ativos: +1 na entrada de um membro, -1 quando um
+     * membro ativo  removido.
+     *
+     * @param variacao Variao da contagem
+     */
+    public void contarMembros(int variacao) {
+        membrosAtivos += variacao;
+    }
+
+    /**
+     * Reconstri o nmero de membros ativos, ignorando usurios removidos
+     * (usado aps a desserializao).
+     *
+     * @param diretorio Funo que obtm um usurio a partir do id
+     */
+    public void iniciarContadorMembros(IntFunction<User> diretorio) {
+        int ativos = 0;
+        for (int id : members.ids().toArray()) {
+            User member = diretorio.apply(id);
+            if (member != null && !member.isRemovido()) {
+                ativos++;
+            }
+        }
+        membrosAtivos = ativos;
     }
 
     /**
@@ -120,30 +324,88 @@ public class Community implements Serializable {
      * @param user Usurio a ser removido
      */
     public void removeMember(User user) {
-        members.remove(user);
+        removeMember(user.getId());
+    }
+
+    /**
+     * Remove um membro da comunidade pelo id.
+     *
+     * @param id Id do usurio a ser removido
+     */
+    public void removeMember(int id) {
+        if (members.remover(id)) {
+            versaoMembros = ResponseCache.novaVersao();
+        }
     }
 
     /**
      * Define/Substitui toda a lista de membros da comunidade.
      *
-     * @param members Nova lista de membros (no pode ser nula)
+     * @param members Novos membros, na ordem de entrada (no pode ser nula)
      */
-    public void setMembers(ArrayList<User> members) {
-        this.members.clear();
-        this.members.addAll(members);
+    public void setMembers(Collection<User> members) {
+        this.members.limpar();
+        for (User member : members) {
+            this.members.adicionar(member.getId());
+        }
+        this.versaoMembros = ResponseCache.novaVersao();
     }
 
     /**
      * Envia uma mensagem para todos os membros da comunidade.
      *
      * @param message Mensagem a ser enviada (no pode ser nula)
+     * @param diretorio Funo que resolve o id de um usurio para o objeto {@link User}
      */
-    public void sendMessage(Message message) {
-        for (User member : members) {
+    public void sendMessage(Message message, IntFunction<User> diretorio) {
+        for (User member : getMemberObject(diretorio)) {
             member.getProfile().setMensagens(message);
         }
     }
 
+    /**
+     * Aponta o nome e o dono para as instncias cannicas do sistema.
+     * Usado aps a desserializao, j que comunidades e usurios so gravados em arquivos distintos.
+     * Usurios gravados antes dos ids (com id 0) so resolvidos pelo login, e os membros
+     * lidos do formato anterior so convertidos para ids.
+     *
+     * @param diretorio Funo que resolve o id de um usurio para o objeto {@link User}
+     * @param porLogin Funo que resolve o login de um usurio para o objeto {@link User}
+     */
+    public void canonizar(IntFunction<User> diretorio, Function<String, User> porLogin) {
+        this.name = StringPool.canonico(name);
+        User dono = owner.getId() > 0 ? diretorio.apply(owner.getId()) : porLogin.apply(owner.getName());
+        if (dono != null) {
+            this.owner = dono;
+        }
+        if (membrosGravados != null) {
+            for (User gravado : membrosGravados) {
+                User membro = gravado.getId() > 0 ? diretorio.apply(gravado.getId()) : porLogin.apply(gravado.getName());
+                if (membro != null) {
+                    members.adicionar(membro.getId());
+                }
+            }
+            membrosGravados = null;
+        }
+    }
+
+    /**
+     * Verifica se a comunidade foi removida.
+     *
+     * @return true se a comunidade estiver removida, false caso contrrio
+     */
+    public boolean isRemovida() {
+        return removida;
+    }
+
+    /**
+     * Marca a comunidade como removida. Os vnculos dos membros so
+     * desfeitos depois, pela varredura de usurios removidos.
+     */
+    public void marcarRemovida() {
+        this.removida = true;
+    }
+
     /**
      * Retorna uma representao textual da comunidade (apenas o nome).
      *
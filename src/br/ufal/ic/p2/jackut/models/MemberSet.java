@@ -0,0 +1,286 @@
+package br.ufal.ic.p2.jackut.models;
+
+import br.ufal.ic.p2.jackut.Utils.IdBitmap;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Conjunto de membros de uma comunidade, identificados pelo id numrico dos usurios.
+ *
+ * <p>Comunidades pequenas guardam os ids em um vetor simples. Acima de
+ * {@value #LIMITE_VETOR} membros, a consulta de pertinncia passa a usar um
+ * {@link IdBitmap} compactado, e o vetor vira apenas o registro da ordem de entrada.
+ * As sadas so descartadas do registro de forma preguiosa, e quem sai e volta ganha
+ * uma nova entrada no fim; a entrada antiga  ignorada na listagem at a prxima
+ * compactao.</p>
+ *
+ * <p>A ordem de entrada  preservada para a listagem de membros.</p>
+ *
+ * @author Marcos Melo
+ * @version 1.0
+ */
+public class MemberSet implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /** Quantidade de membros a partir da qual o bitmap  usado */
+    static final int LIMITE_VETOR = 64;
+
+    /** Ids em ordem de entrada; no modo bitmap pode conter ids que j saram */
+    private transient int[] ordem;
+    private transient int tamanhoOrdem;
+    private transient int tamanho;
+
+    /** Pertinncia no modo bitmap (null no modo vetor) */
+    private transient IdBitmap bitmap;
+
+    /** Ids que saram e ainda ocupam posio no registro de ordem (modo bitmap) */
+    private transient IdBitmap saidas;
+
+    /** Entradas feitas por quem j havia sado, desde a ltima compactao (modo bitmap) */
+    private transient int reentradas;
+
+    /**
+     * Cria um conjunto vazio.
+     */
+    public MemberSet() {
+        this.ordem = new int[4];
+    }
+
+    /**
+     * Adiciona um membro.
+     *
+     * @param id Id do usurio
+     * @return true se o usurio ainda no era membro
+     */
+    public boolean adicionar(int id) {
+        if (contem(id)) {
+            return false;
+        }
+        if (bitmap != null && saidas.contem(id)) {
+            // A entrada antiga continua no registro e passa a ser ignorada na listagem
+            reentradas++;
+        }
+        if (tamanhoOrdem == ordem.length) {
+            ordem = Arrays.copyOf(ordem, tamanhoOrdem * 2);
+        }
+        ordem[tamanhoOrdem++] = id;
+        tamanho++;
+
+        if (bitmap != null) {
+            bitmap.adicionar(id);
+        } else if (tamanho > LIMITE_VETOR) {
+            bitmap = new IdBitmap();
+            saidas = new IdBitmap();
+            for (int i = 0; i < tamanhoOrdem; i++) {
+                bitmap.adicionar(ordem[i]);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Remove um membro.
+     *
+     * @param id Id do usurio
+     * @return true se o usurio era membro
+     */
+    public boolean remover(int id) {
+        if (bitmap == null) {
+            for (int i = 0; i < tamanhoOrdem; i++) {
+                if (ordem[i] == id) {
+                    System.arraycopy(ordem, i + 1, ordem, i, tamanhoOrdem - i - 1);
+                    tamanhoOrdem--;
+                    tamanho--;
+                    return true;
+                }
+            }
+            return false;
+        }
+        if (!bitmap.remover(id)) {
+            return false;
+        }
+        saidas.adicionar(id);
+        tamanho--;
+        if (tamanho <= LIMITE_VETOR / 2 || tamanhoOrdem > 2 * tamanho) {
+            compactar();
+        }
+        return true;
+    }
+
+    /**
+     * Verifica se um usurio  membro.
+     *
+     * @param id Id do usurio
+     * @return true se for membro
+     */
+    public boolean contem(int id) {
+        if (bitmap != null) {
+            return bitmap.contem(id);
+        }
+        for (int i = 0; i < tamanhoOrdem; i++) {
+            if (ordem[i] == id) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Obtm o nmero de membros.
+     *
+     * @return Quantidade de membros
+     */
+    public int tamanho() {
+        return tamanho;
+    }
+
+    /**
+     * Percorre os membros na ordem de entrada.
+     *
+     * @param acao Ao executada para cada id
+     */
+    public void paraCada(IntConsumer acao) {
+        BitSet antigas = entradasAntigas();
+        for (int i = 0; i < tamanhoOrdem; i++) {
+            int id = ordem[i];
+            if ((bitmap == null || bitmap.contem(id)) && (antigas == null || !antigas.get(i))) {
+                acao.accept(id);
+            }
+        }
+    }
+
+    /**
+     * Obtm os membros na ordem de entrada, de forma preguiosa.
+     *
+     * @return Fluxo com os ids dos membros
+     */
+    public IntStream ids() {
+        IdBitmap pertinencia = bitmap;
+        if (pertinencia == null) {
+            return Arrays.stream(ordem, 0, tamanhoOrdem);
+        }
+        int[] registro = ordem;
+        BitSet antigas = entradasAntigas();
+        return IntStream.range(0, tamanhoOrdem)
+                .filter(i -> (antigas == null || !antigas.get(i)) && pertinencia.contem(registro[i]))
+                .map(i -> registro[i]);
+    }
+
+    /**
+     * Obtm os membros como bitmap, para operaes de conjunto (unio, interseo).
+     *
+     * @return Bitmap com os ids dos membros (no deve ser modificado)
+     */
+    public IdBitmap paraBitmap() {
+        if (bitmap != null) {
+            return bitmap;
+        }
+        IdBitmap b = new IdBitmap();
+        for (int i = 0; i < tamanhoOrdem; i++) {
+            b.adicionar(ordem[i]);
+        }
+        return b;
+    }
+
+    /**
+     * Remove todos os membros.
+     */
+    public void limpar() {
+        ordem = new int[4];
+        tamanhoOrdem = 0;
+        tamanho = 0;
+        bitmap = null;
+        saidas = null;
+        reentradas = 0;
+    }
+
+    /**
+     * Estima a memria ocupada pelo conjunto.
+     *
+     * @return Tamanho aproximado em bytes
+     */
+    public long getTamanhoEmBytes() {
+        long total = 32L + ordem.length * 4L;
+        if (bitmap != null) {
+            total += bitmap.getTamanhoEmBytes() + saidas.getTamanhoEmBytes();
+        }
+        return total;
+    }
+
+    /**
+     * Descarta do registro de ordem os ids que j saram e volta ao modo
+     * vetor se a comunidade ficou pequena.
+     */
+    private void compactar() {
+        BitSet antigas = entradasAntigas();
+        int[] novo = new int[Math.max(4, tamanho + 1)];
+        int n = 0;
+        for (int i = 0; i < tamanhoOrdem; i++) {
+            if (bitmap.contem(ordem[i]) && (antigas == null || !antigas.get(i))) {
+                novo[n++] = ordem[i];
+            }
+        }
+        ordem = novo;
+        tamanhoOrdem = n;
+        saidas = new IdBitmap();
+        reentradas = 0;
+        if (tamanho <= LIMITE_VETOR / 2) {
+            bitmap = null;
+            saidas = null;
+        }
+    }
+
+    /**
+     * Marca as posies do registro de ordem ocupadas por entradas anteriores de quem
+     * saiu e voltou: vale apenas a ltima entrada de cada id.
+     *
+     * @return Posies a ignorar, ou null se ningum voltou desde a ltima compactao
+     */
+    private BitSet entradasAntigas() {
+        if (reentradas == 0) {
+            return null;
+        }
+        BitSet antigas = new BitSet(tamanhoOrdem);
+        IdBitmap vistos = new IdBitmap();
+        for (int i = tamanhoOrdem - 1; i >= 0; i--) {
+            int id = ordem[i];
+            if (saidas.contem(id) && !vistos.adicionar(id)) {
+                antigas.set(i);
+            }
+        }
+        return antigas;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeInt(tamanho);
+        BitSet antigas = entradasAntigas();
+        for (int i = 0; i < tamanhoOrdem; i++) {
+            if ((bitmap == null || bitmap.contem(ordem[i])) && (antigas == null || !antigas.get(i))) {
+                out.writeInt(ordem[i]);
+            }
+        }
+        // Grava uma cpia compactada: o conjunto pode estar em uso por outras threads
+        out.writeObject(bitmap != null ? bitmap.otimizado() : null);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        int n = in.readInt();
+        ordem = new int[Math.max(4, n)];
+        for (int i = 0; i < n; i++) {
+            ordem[i] = in.readInt();
+        }
+        tamanhoOrdem = n;
+        tamanho = n;
+        bitmap = (IdBitmap) in.readObject();
+        saidas = bitmap != null ? new IdBitmap() : null;
+    }
+}
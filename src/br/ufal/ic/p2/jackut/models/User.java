@@ -7,6 +7,8 @@
 
 package br.ufal.ic.p2.jackut.models;
 
+import br.ufal.ic.p2.jackut.Utils.StringPool;
+
 import java.io.Serializable;
 
 /**
@@ -17,10 +19,12 @@ import java.io.Serializable;
 
 public class User implements Serializable {
     private static final long serialVersionUID = 1L;
+    private int id;               // Identificador numrico denso, atribudo pelo UserService
     private String name;
     private String password;
     private String login;
     private UserProfile profile;  // Perfil associado ao usurio
+    private boolean removido;     // Marca de remoo (tombstone) at a varredura
 
 
     /**
@@ -37,6 +41,24 @@ public class User implements Serializable {
         this.profile = new UserProfile();  // Inicializa o perfil do usurio
     }
 
+    /**
+     * Obtm o identificador numrico do usurio.
+     *
+     * @return O id do usurio (0 se ainda no atribudo).
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Define o identificador numrico do usurio.
+     *
+     * @param id O novo id do usurio.
+     */
+    public void setId(int id) {
+        this.id = id;
+    }
+
     /**
      * Obtm o nome do usurio.
      *
@@ -109,6 +131,34 @@ public class User implements Serializable {
         this.profile = profile;
     }
 
+    /**
+     * Substitui o login e as strings do perfil pelas instncias cannicas.
+     */
+    public void canonizar() {
+        this.name = StringPool.canonico(name);
+        if (profile != null) {
+            profile.canonizar();
+        }
+    }
+
+    /**
+     * Verifica se o usurio foi marcado como removido.
+     * Um usurio removido deixa de ser visvel imediatamente, mas suas
+     * referncias s so apagadas pela varredura em segundo plano.
+     *
+     * @return true se o usurio estiver removido, false caso contrrio.
+     */
+    public boolean isRemovido() {
+        return removido;
+    }
+
+    /**
+     * Marca o usurio como removido (tombstone).
+     */
+    public void marcarRemovido() {
+        this.removido = true;
+    }
+
     @Override
     public String toString() {
         return this.getName();
@@ -8,9 +8,21 @@
 package br.ufal.ic.p2.jackut.models;
 
 import br.ufal.ic.p2.jackut.exceptions.Community.*;
-
+import br.ufal.ic.p2.jackut.Utils.MpscQueue;
+import br.ufal.ic.p2.jackut.Utils.ResponseCache;
+import br.ufal.ic.p2.jackut.Utils.SnapshotEpoch;
+import br.ufal.ic.p2.jackut.Utils.SortedIntArrays;
+import br.ufal.ic.p2.jackut.Utils.StringPool;
+import br.ufal.ic.p2.jackut.Utils.VersionChain;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
 
 /**
  * Classe que representa o perfil do usurio.
@@ -21,17 +33,34 @@ import java.util.*;
 public class UserProfile implements Serializable {
     private static final long serialVersionUID = 1L;
 
-    // Mapa de atributos do perfil do usurio
-    private Map<String, String> atributos;
+    // Atributos do perfil, com as chaves codificadas pelo dicionrio global
+    private AttributeStore atributos;
 
     // Lista de amigos
     private List<String> amigos;
+    // Ids dos amigos em ordem crescente, reconstrudos a partir dos logins ao carregar
+    private transient int[] idsAmigos;
+    private transient int totalIdsAmigos;
     private List<String> amigosPendentes;
     private List<User> paqueras, fas, inimigos, idolos;
+    // Quantidade de fs e dolos ativos, reconstruda a partir das listas ao carregar
+    private transient int numeroFas, numeroIdolos;
+    // Caixas de entrada: recados e mensagens chegam de vrios remetentes em paralelo,
+    // sem a trava do destinatrio e sem esperar a leitura
     private Queue<Note> recados;
     private Queue<Message> mensagens;
     private List<Note> recadosLidos;
-    private List<Community> comunidadesParticipante, comunidadesDono;
+    // Usurios cujos perfis guardam recados, paqueras ou convites de amizade deste usurio
+    // sem vnculo de volta; usados para desfaz-los na remoo e reconstrudos ao carregar
+    private transient Set<User> referencias;
+    // Conjuntos ordenados: mantm a ordem de entrada com consulta e remoo em tempo constante
+    private Set<Community> comunidadesParticipante, comunidadesDono;
+    // Verses das listas de amigos e de comunidades, usadas pelo cache de respostas formatadas
+    private transient long versaoAmigos, versaoComunidades;
+    // Verses antigas preservadas para as pocas de leitura abertas (ver SnapshotEpoch)
+    private transient VersionChain<UserProfile> versoes;
+    // Indica se o perfil  uma imagem preservada, gravada como est
+    private transient boolean imagem;
 
 
     /**
@@ -39,18 +68,185 @@ public class UserProfile implements Serializable {
      * Inicializa as estruturas de dados do perfil do usurio.
      */
     public UserProfile() {
-        this.atributos = new HashMap<>();
+        this.atributos = new AttributeStore();
         this.amigos = new ArrayList<>();
+        this.idsAmigos = new int[4];
         this.paqueras = new ArrayList<>();
         this.fas = new ArrayList<>();
         this.inimigos = new ArrayList<>();
         this.idolos = new ArrayList<>();
         this.amigosPendentes = new ArrayList<>();
-        this.recados = new LinkedList<>();
+        this.recados = new MpscQueue<>();
         this.recadosLidos = new ArrayList<>();
-        this.comunidadesParticipante = new ArrayList<>();
-        this.comunidadesDono = new ArrayList<>();
-        this.mensagens = new LinkedList<>();
+        this.comunidadesParticipante = new LinkedHashSet<>();
+        this.comunidadesDono = new LinkedHashSet<>();
+        this.mensagens = new MpscQueue<>();
+        this.referencias = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * Cria uma cpia do perfil para gravao. As colees so copiadas; os usurios e
+     * comunidades referenciados so os mesmos. Dos campos reconstrudos ao carregar, s
+     * os ids dos amigos so copiados, pois as buscas de caminhos os leem nas imagens.
+     *
+     * @param origem Perfil copiado
+     */
+    private UserProfile(UserProfile origem) {
+        this.atributos = new AttributeStore();
+        origem.atributos.paraCada(this.atributos::put);
+        this.amigos = new ArrayList<>(origem.amigos);
+        this.idsAmigos = Arrays.copyOf(origem.idsAmigos, origem.totalIdsAmigos);
+        this.totalIdsAmigos = origem.totalIdsAmigos;
+        this.amigosPendentes = new ArrayList<>(origem.amigosPendentes);
+        this.paqueras = new ArrayList<>(origem.paqueras);
+        this.fas = new ArrayList<>(origem.fas);
+        this.inimigos = new ArrayList<>(origem.inimigos);
+        this.idolos = new ArrayList<>(origem.idolos);
+        this.recados = new MpscQueue<>(origem.recados);
+        this.recadosLidos = new ArrayList<>(origem.recadosLidos);
+        this.comunidadesParticipante = new LinkedHashSet<>(origem.comunidadesParticipante);
+        this.comunidadesDono = new LinkedHashSet<>(origem.comunidadesDono);
+        this.mensagens = new MpscQueue<>(origem.mensagens);
+        this.imagem = true;
+    }
+
+    private synchronized VersionChain<UserProfile> versoes() {
+        if (versoes == null) {
+            versoes = new VersionChain<>();
+        }
+        return versoes;
+    }
+
+    /**
+     * Preserva o estado atual do perfil para as pocas de leitura abertas, se houver
+     * alguma e o perfil ainda no tiver sido preservado para a mais recente. Deve ser
+     * chamado antes de qualquer alterao no perfil.
+     */
+    public void preservar() {
+        if (SnapshotEpoch.maisRecente() != 0) {
+            versoes().preservar(() -> new UserProfile(this));
+        }
+    }
+
+    /**
+     * Obtm o perfil como era na abertura de uma poca de leitura.
+     *
+     * @param epoca poca aberta
+     * @return Imagem do perfil (no deve ser alterada)
+     */
+    public UserProfile versao(long epoca) {
+        return versoes().versao(epoca, () -> new UserProfile(this));
+    }
+
+    /**
+     * L o perfil como era na abertura de uma poca de leitura sem copi-lo por inteiro,
+     * como faz {@link #versao(long)}. Usado pelas consultas que percorrem muitos perfis.
+     *
+     * @param epoca poca aberta
+     * @param leitura Extrai do perfil o que interessa (no deve alter-lo nem devolver
+     *                suas colees internas)
+     * @param <R> Tipo do resultado
+     * @return Resultado da leitura
+     */
+    public <R> R ler(long epoca, Function<UserProfile, R> leitura) {
+        VersionChain<UserProfile> cadeia;
+        synchronized (this) {
+            // Sem cadeia, o perfil no foi preservado desde a abertura da poca, e quem
+            // for alter-lo precisa deste monitor para criar a cadeia antes
+            if (versoes == null) {
+                return leitura.apply(this);
+            }
+            cadeia = versoes;
+        }
+        return cadeia.ler(epoca, this, leitura);
+    }
+
+    /**
+     * Obtm os ids dos amigos, em ordem crescente, como eram na abertura de uma poca.
+     *
+     * @param epoca poca aberta
+     * @return Cpia dos ids dos amigos
+     */
+    public int[] getIdsAmigos(long epoca) {
+        return ler(epoca, perfil -> Arrays.copyOf(perfil.idsAmigos, perfil.totalIdsAmigos));
+    }
+
+    /**
+     * Cria uma cpia do estado atual do perfil, para restaur-lo depois com
+     * {@link #restaurar(UserProfile)}.
+     *
+     * @return Cpia do perfil (no deve ser alterada)
+     */
+    public UserProfile copiar() {
+        return new UserProfile(this);
+    }
+
+    /**
+     * Volta o perfil a um estado copiado antes, desfazendo as alteraes feitas depois
+     * da cpia. As mensagens de comunidade no so desfeitas, pois chegam pelas faixas
+     * de entrega sem trava. Os ids dos amigos e os contadores devem ser reconstrudos
+     * depois.
+     *
+     * @param origem Cpia feita com {@link #copiar()}
+     */
+    public void restaurar(UserProfile origem) {
+        this.atributos = new AttributeStore();
+        origem.atributos.paraCada(this.atributos::put);
+        this.amigos = new ArrayList<>(origem.amigos);
+        this.amigosPendentes = new ArrayList<>(origem.amigosPendentes);
+        this.paqueras = new ArrayList<>(origem.paqueras);
+        this.fas = new ArrayList<>(origem.fas);
+        this.inimigos = new ArrayList<>(origem.inimigos);
+        this.idolos = new ArrayList<>(origem.idolos);
+        this.recados = new MpscQueue<>(origem.recados);
+        this.recadosLidos = new ArrayList<>(origem.recadosLidos);
+        this.comunidadesParticipante = new LinkedHashSet<>(origem.comunidadesParticipante);
+        this.comunidadesDono = new LinkedHashSet<>(origem.comunidadesDono);
+        this.versaoAmigos = ResponseCache.novaVersao();
+        this.versaoComunidades = ResponseCache.novaVersao();
+    }
+
+    /**
+     * Durante uma gravao em segundo plano, grava o perfil como era no incio dela.
+     */
+    private Object writeReplace() {
+        long epoca = SnapshotEpoch.emGravacao();
+        return epoca == 0 || imagem ? this : versao(epoca);
+    }
+
+    /**
+     * L o perfil aceitando tambm os formatos anteriores, em que os atributos eram
+     * gravados em um mapa e as comunidades em listas.
+     */
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField campos = in.readFields();
+        Object atributos = campos.get("atributos", null);
+        if (atributos instanceof Map) {
+            this.atributos = new AttributeStore();
+            ((Map<String, String>) atributos).forEach(this.atributos::put);
+        } else {
+            this.atributos = (AttributeStore) atributos;
+        }
+        this.amigos = (List<String>) campos.get("amigos", null);
+        this.amigosPendentes = (List<String>) campos.get("amigosPendentes", null);
+        this.paqueras = (List<User>) campos.get("paqueras", null);
+        this.fas = (List<User>) campos.get("fas", null);
+        this.inimigos = (List<User>) campos.get("inimigos", null);
+        this.idolos = (List<User>) campos.get("idolos", null);
+        this.recados = (Queue<Note>) campos.get("recados", null);
+        this.mensagens = (Queue<Message>) campos.get("mensagens", null);
+        this.recadosLidos = (List<Note>) campos.get("recadosLidos", null);
+        this.comunidadesParticipante = comoConjunto((Collection<Community>) campos.get("comunidadesParticipante", null));
+        this.comunidadesDono = comoConjunto((Collection<Community>) campos.get("comunidadesDono", null));
+        this.referencias = ConcurrentHashMap.newKeySet();
+    }
+
+    private static Set<Community> comoConjunto(Collection<Community> comunidades) {
+        if (comunidades instanceof Set) {
+            return (Set<Community>) comunidades;
+        }
+        return comunidades != null ? new LinkedHashSet<>(comunidades) : new LinkedHashSet<>();
     }
 
     /**
@@ -60,7 +256,8 @@ public class UserProfile implements Serializable {
      * @return Valor do atributo ou uma string vazia se no existir.
      */
     public String getAtributo(String chave) {
-        return atributos.getOrDefault(chave, "");
+        String valor = atributos.get(chave);
+        return valor != null ? valor : "";
     }
 
     /**
@@ -68,13 +265,14 @@ public class UserProfile implements Serializable {
      *
      * @param chave Nome do atributo.
      * @param valor Novo valor do atributo.
-     * @return
+     * @return true se o atributo foi definido; false se a chave ou o valor forem
+     *         invlidos, caso em que o perfil no  alterado.
      */
     public boolean setAtributo(String chave, String valor) {
-        atributos.put(chave, valor);
         if (chave.equals("") || valor.equals(" ")) {
             return false;
         }
+        atributos.put(chave, valor);
         return true;
     }
 
@@ -88,6 +286,24 @@ public class UserProfile implements Serializable {
         return atributos.containsKey(chave) && !atributos.get(chave).isEmpty();
     }
 
+    /**
+     * Percorre os atributos definidos no perfil.
+     *
+     * @param acao Ao executada com o nome e o valor de cada atributo
+     */
+    public void paraCadaAtributo(BiConsumer<String, String> acao) {
+        atributos.paraCada(acao);
+    }
+
+    /**
+     * Estima a memria ocupada pelos atributos do perfil.
+     *
+     * @return Tamanho aproximado em bytes
+     */
+    public long getTamanhoAtributosEmBytes() {
+        return atributos.getTamanhoEmBytes();
+    }
+
     /**
      * Obtm a lista de amigos do usurio.
      *
@@ -97,6 +313,84 @@ public class UserProfile implements Serializable {
         return amigos;
     }
 
+    /**
+     * Registra uma amizade confirmada, na lista de logins e no vetor de ids.
+     *
+     * @param amigo Novo amigo
+     */
+    public void adicionarAmizade(User amigo) {
+        amigos.add(amigo.getName());
+        versaoAmigos = ResponseCache.novaVersao();
+        int[] novo = SortedIntArrays.inserir(idsAmigos, totalIdsAmigos, amigo.getId());
+        if (novo != null) {
+            idsAmigos = novo;
+            totalIdsAmigos++;
+        }
+    }
+
+    /**
+     * Desfaz uma amizade, na lista de logins e no vetor de ids.
+     *
+     * @param login Login do amigo
+     * @param id Id do amigo
+     */
+    public void removerAmizade(String login, int id) {
+        if (amigos.remove(login)) {
+            versaoAmigos = ResponseCache.novaVersao();
+        }
+        if (SortedIntArrays.remover(idsAmigos, totalIdsAmigos, id)) {
+            totalIdsAmigos--;
+        }
+    }
+
+    /**
+     * Obtm a verso atual da lista de amigos, que muda a cada alterao da lista.
+     *
+     * @return Verso da lista de amigos
+     */
+    public long getVersaoAmigos() {
+        if (versaoAmigos == 0) {
+            versaoAmigos = ResponseCache.novaVersao();
+        }
+        return versaoAmigos;
+    }
+
+    /**
+     * Obtm os ids dos amigos em ordem crescente. Apenas as primeiras
+     * {@link #getTotalIdsAmigos()} posies do vetor so vlidas.
+     *
+     * @return Vetor interno de ids (no deve ser modificado)
+     */
+    public int[] getIdsAmigos() {
+        return idsAmigos;
+    }
+
+    /**
+     * Obtm a quantidade de ids vlidos em {@link #getIdsAmigos()}.
+     *
+     * @return Quantidade de amigos com id
+     */
+    public int getTotalIdsAmigos() {
+        return totalIdsAmigos;
+    }
+
+    /**
+     * Reconstri o vetor de ids dos amigos a partir dos logins (usado aps a desserializao).
+     *
+     * @param id Funo que obtm o id de um login, ou 0 se o login no existir mais
+     */
+    public void reconstruirIdsAmigos(ToIntFunction<String> id) {
+        idsAmigos = new int[Math.max(4, amigos.size())];
+        totalIdsAmigos = 0;
+        for (String amigo : amigos) {
+            int valor = id.applyAsInt(amigo);
+            if (valor > 0) {
+                idsAmigos[totalIdsAmigos++] = valor;
+            }
+        }
+        Arrays.sort(idsAmigos, 0, totalIdsAmigos);
+    }
+
     /**
      * Obtm a lista de solicitaes de amizade pendentes.
      *
@@ -126,6 +420,36 @@ public class UserProfile implements Serializable {
         amigosPendentes.remove(loginAmigo);
     }
 
+    /**
+     * Registra que o perfil de outro usurio passou a guardar um recado, uma paquera ou
+     * um convite de amizade deste usurio. Pode ser chamado sem a trava de escrita do
+     * perfil, como no envio de recados.
+     *
+     * @param outro Usurio cujo perfil guarda a referncia
+     */
+    public void registrarReferencia(User outro) {
+        referencias.add(outro);
+    }
+
+    /**
+     * Remove um usurio das referncias registradas.
+     *
+     * @param outro Usurio que deixou de guardar referncias deste usurio
+     */
+    public void removerReferencia(User outro) {
+        referencias.remove(outro);
+    }
+
+    /**
+     * Obtm os usurios cujos perfis podem guardar recados, paqueras ou convites de
+     * amizade deste usurio. O conjunto pode conter usurios que j no os guardam.
+     *
+     * @return Conjunto de usurios que referenciam este
+     */
+    public Set<User> getReferencias() {
+        return referencias;
+    }
+
     /**
      * Obtm a lista de recados j lidos pelo usurio.
      *
@@ -151,9 +475,6 @@ public class UserProfile implements Serializable {
      * @param comunidade Comunidade a ser adicionada
      */
     public void setDonoComunidades(Community comunidade) {
-        if(this.comunidadesDono.contains(comunidade)){
-            return;
-        }
         this.comunidadesDono.add(comunidade);
     }
 
@@ -164,30 +485,43 @@ public class UserProfile implements Serializable {
      * @throws UserAlreadyMemberException Se o usurio j for membro da comunidade
      */
     public void setParticipanteComunidade(Community comunidade) throws UserAlreadyMemberException {
-        if (this.comunidadesParticipante.contains(comunidade)) {
+        if (!this.comunidadesParticipante.add(comunidade)) {
             throw new UserAlreadyMemberException();
         }
-        this.comunidadesParticipante.add(comunidade);
+        versaoComunidades = ResponseCache.novaVersao();
     }
 
     /**
-     * Retorna a lista de comunidades das quais o usurio participa.
+     * Retorna as comunidades das quais o usurio participa, na ordem de entrada.
      *
-     * @return Lista de comunidades como participante
+     * @return Conjunto de comunidades como participante
      */
-    public List<Community> getComunidadesParticipante() {
+    public Set<Community> getComunidadesParticipante() {
         return comunidadesParticipante;
     }
 
     /**
-     * Retorna a lista de comunidades das quais o usurio  dono.
+     * Retorna as comunidades das quais o usurio  dono, na ordem de criao.
      *
-     * @return Lista de comunidades como dono
+     * @return Conjunto de comunidades como dono
      */
-    public List<Community> getComunidadesDono() {
+    public Set<Community> getComunidadesDono() {
         return comunidadesDono;
     }
 
+    /**
+     * Obtm a verso atual do conjunto de comunidades como participante,
+     * que muda a cada entrada ou sada.
+     *
+     * @return Verso do conjunto de comunidades
+     */
+    public long getVersaoComunidades() {
+        if (versaoComunidades == 0) {
+            versaoComunidades = ResponseCache.novaVersao();
+        }
+        return versaoComunidades;
+    }
+
     /**
      * Retorna a fila de mensagens recebidas pelo usurio.
      *
@@ -269,6 +603,59 @@ public class UserProfile implements Serializable {
         return fas;
     }
 
+    /**
+     * Obtm o nmero de fs ativos, sem percorrer a lista (que ainda pode conter
+     * fs removidos  espera da varredura).
+     *
+     * @return Nmero de fs
+     */
+    public int getNumeroFas() {
+        return numeroFas;
+    }
+
+    /**
+     * Obtm o nmero de dolos ativos, sem percorrer a lista.
+     *
+     * @return Nmero de dolos
+     */
+    public int getNumeroIdolos() {
+        return numeroIdolos;
+    }
+
+    /**
+     * Ajusta o nmero de fs ativos: +1 ao ganhar um f, -1 quando um f ativo  removido.
+     *
+     * @param variacao Variao da contagem
+     */
+    public void contarFas(int variacao) {
+        numeroFas += variacao;
+    }
+
+    /**
+     * Ajusta o nmero de dolos ativos: +1 ao adicionar um dolo, -1 quando um dolo
+     * ativo  removido.
+     *
+     * @param variacao Variao da contagem
+     */
+    public void contarIdolos(int variacao) {
+        numeroIdolos += variacao;
+    }
+
+    /**
+     * Reconstri as contagens de fs e dolos a partir das listas, ignorando
+     * usurios removidos (usado aps a desserializao).
+     */
+    public void iniciarContadores() {
+        numeroFas = 0;
+        numeroIdolos = 0;
+        for (User fa : fas) {
+            if (!fa.isRemovido()) numeroFas++;
+        }
+        for (User idolo : idolos) {
+            if (!idolo.isRemovido()) numeroIdolos++;
+        }
+    }
+
     /**
      * Retorna a lista de inimigos do usurio.
      *
@@ -293,7 +680,9 @@ public class UserProfile implements Serializable {
      * @param comunidade Comunidade da qual o usurio vai sair
      */
     public void sairComunidade(Community comunidade) {
-        this.comunidadesParticipante.remove(comunidade);
+        if (this.comunidadesParticipante.remove(comunidade)) {
+            versaoComunidades = ResponseCache.novaVersao();
+        }
     }
 
     /**
@@ -350,6 +739,44 @@ public class UserProfile implements Serializable {
         this.paqueras.remove(paquera);
     }
 
+    /**
+     * Substitui os logins pelas instncias cannicas do {@link StringPool}.
+     * As chaves de atributos j so canonizadas pelo {@link AttributeDictionary}.
+     * Usado aps a desserializao, que cria cpias prprias de cada string.
+     * Tambm troca a fila de mensagens gravada por verses antigas pela fila concorrente.
+     */
+    public void canonizar() {
+        this.amigos.replaceAll(StringPool::canonico);
+        this.amigosPendentes.replaceAll(StringPool::canonico);
+        if (!(this.recados instanceof MpscQueue)) {
+            this.recados = new MpscQueue<>(this.recados);
+        }
+        if (!(this.mensagens instanceof MpscQueue)) {
+            this.mensagens = new MpscQueue<>(this.mensagens);
+        }
+    }
+
+    /**
+     * Substitui as comunidades do perfil pelas instncias cannicas, preservando a ordem.
+     * Comunidades sem instncia cannica (por exemplo, j removidas) so mantidas.
+     *
+     * @param canonica Funo que obtm a comunidade cannica a partir do nome
+     */
+    public void canonizarComunidades(Function<String, Community> canonica) {
+        this.comunidadesParticipante = canonizar(this.comunidadesParticipante, canonica);
+        this.comunidadesDono = canonizar(this.comunidadesDono, canonica);
+        this.versaoComunidades = ResponseCache.novaVersao();
+    }
+
+    private static Set<Community> canonizar(Set<Community> comunidades, Function<String, Community> canonica) {
+        Set<Community> canonicas = new LinkedHashSet<>();
+        for (Community comunidade : comunidades) {
+            Community instancia = canonica.apply(comunidade.getName());
+            canonicas.add(instancia != null ? instancia : comunidade);
+        }
+        return canonicas;
+    }
+
     /**
      * Limpa todos os dados de relacionamento e mensagens do usurio.
      * Inclui:
@@ -365,14 +792,20 @@ public class UserProfile implements Serializable {
     public void clear() {
         this.amigosPendentes.clear();
         this.amigos.clear();
+        this.totalIdsAmigos = 0;
+        this.versaoAmigos = ResponseCache.novaVersao();
         this.inimigos.clear();
         this.idolos.clear();
         this.paqueras.clear();
         this.fas.clear();
+        this.numeroFas = 0;
+        this.numeroIdolos = 0;
         this.recadosLidos.clear();
         this.recados.clear();
         this.comunidadesParticipante.clear();
         this.comunidadesDono.clear();
+        this.versaoComunidades = ResponseCache.novaVersao();
         this.mensagens.clear();
+        this.referencias.clear();
     }
 }
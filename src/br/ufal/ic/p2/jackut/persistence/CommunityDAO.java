@@ -13,18 +13,15 @@ public class CommunityDAO {
      * Salva o mapa de comunidades em um arquivo.
      *
      * @param communities Mapa de comunidades a serem salvas.
+     * @throws IOException Se o arquivo no puder ser gravado; o arquivo anterior  mantido.
      */
-    public void save(Map<String, Community> communities) {
+    public void save(Map<String, Community> communities) throws IOException {
         File dir = new File(DIRECTORY);
         if (!dir.exists()) {
             dir.mkdirs(); // Cria a pasta caso no exista
         }
 
-        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(COMMUNITY_FILE))) {
-            out.writeObject(communities);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        GraphWriter.escrever(new File(COMMUNITY_FILE), communities);
     }
 
     /**
@@ -36,8 +33,8 @@ public class CommunityDAO {
     public Map<String, Community> load() {
         File file = new File(COMMUNITY_FILE);
         if (file.exists()) {
-            try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(file))) {
-                return (Map<String, Community>) in.readObject();
+            try {
+                return (Map<String, Community>) GraphReader.ler(file);
             } catch (IOException | ClassNotFoundException e) {
                 System.out.println("Erro ao carregar dados de comunidades. Criando novo arquivo...");
                 file.delete(); // Apaga o arquivo corrompido
@@ -0,0 +1,61 @@
+package br.ufal.ic.p2.jackut.persistence;
+
+import java.io.*;
+
+/**
+ * Leitura dos arquivos de dados em uma thread com pilha ampliada.
+ *
+ * <p>A desserializao percorre o grafo de objetos em profundidade: cada usurio
+ * alcanado pelos amigos, fs, recados ou comunidades de outro acrescenta alguns
+ * quadros  pilha, e bases com algumas centenas de usurios encadeados esgotam a
+ * pilha padro da thread principal. Por isso a leitura roda em uma thread prpria;
+ * a memria da pilha s  ocupada  medida que  usada.</p>
+ *
+ * @author Marcos Melo
+ * @version 1.0
+ */
+final class GraphReader {
+    /** Tamanho da pilha das threads de leitura e de gravao ({@link GraphWriter}), em bytes */
+    static final long TAMANHO_PILHA = 256L * 1024 * 1024;
+
+    private GraphReader() {
+    }
+
+    /**
+     * L o objeto gravado em um arquivo.
+     *
+     * @param arquivo Arquivo de dados
+     * @return Objeto lido
+     * @throws IOException Se o arquivo no puder ser lido
+     * @throws ClassNotFoundException Se o arquivo referenciar uma classe inexistente
+     */
+    static Object ler(File arquivo) throws IOException, ClassNotFoundException {
+        Object[] lido = new Object[1];
+        Throwable[] erro = new Throwable[1];
+        Thread leitor = new Thread(null, () -> {
+            try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(arquivo))) {
+                lido[0] = in.readObject();
+            } catch (Throwable e) {
+                erro[0] = e;
+            }
+        }, "jackut-carga", TAMANHO_PILHA);
+        leitor.start();
+        try {
+            leitor.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Leitura de " + arquivo + " interrompida.");
+        }
+
+        if (erro[0] instanceof IOException) {
+            throw (IOException) erro[0];
+        } else if (erro[0] instanceof ClassNotFoundException) {
+            throw (ClassNotFoundException) erro[0];
+        } else if (erro[0] instanceof RuntimeException) {
+            throw (RuntimeException) erro[0];
+        } else if (erro[0] instanceof Error) {
+            throw (Error) erro[0];
+        }
+        return lido[0];
+    }
+}
@@ -0,0 +1,66 @@
+package br.ufal.ic.p2.jackut.persistence;
+
+import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Gravao dos arquivos de dados em uma thread com pilha ampliada.
+ *
+ * <p>A serializao percorre o grafo de objetos em profundidade, como a leitura
+ * ({@link GraphReader}), e esgota a pilha padro com algumas centenas de usurios
+ * encadeados. O objeto  gravado primeiro em um arquivo temporrio, que s ento
+ * substitui o arquivo de dados: uma gravao que falha no meio nunca deixa um arquivo
+ * truncado no lugar dos dados anteriores.</p>
+ *
+ * @author Marcos Melo
+ * @version 1.0
+ */
+final class GraphWriter {
+    private GraphWriter() {
+    }
+
+    /**
+     * Grava um objeto em um arquivo, substituindo o contedo anterior s se a gravao
+     * for concluda.
+     *
+     * @param arquivo Arquivo de dados
+     * @param objeto Objeto a ser gravado
+     * @throws IOException Se o arquivo no puder ser gravado; o arquivo anterior  mantido
+     */
+    static void escrever(File arquivo, Object objeto) throws IOException {
+        File temporario = new File(arquivo.getPath() + ".tmp");
+        Throwable[] erro = new Throwable[1];
+        Thread escritor = new Thread(null, () -> {
+            try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(temporario))) {
+                out.writeObject(objeto);
+            } catch (Throwable e) {
+                erro[0] = e;
+            }
+        }, "jackut-escrita", GraphReader.TAMANHO_PILHA);
+        escritor.start();
+        try {
+            escritor.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Gravao de " + arquivo + " interrompida.");
+        }
+
+        if (erro[0] != null) {
+            temporario.delete();
+            if (erro[0] instanceof IOException) {
+                throw (IOException) erro[0];
+            } else if (erro[0] instanceof RuntimeException) {
+                throw (RuntimeException) erro[0];
+            }
+            throw (Error) erro[0];
+        }
+        try {
+            Files.move(temporario.toPath(), arquivo.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporario.toPath(), arquivo.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
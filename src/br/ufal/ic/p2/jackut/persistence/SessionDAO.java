@@ -19,18 +19,15 @@ public class SessionDAO {
      * Salva a lista de sesses em um arquivo.
      *
      * @param sessions Lista de sesses a serem salvas.
+     * @throws IOException Se o arquivo no puder ser gravado; o arquivo anterior  mantido.
      */
-    public void save(List<String> sessions) {
+    public void save(List<String> sessions) throws IOException {
         File dir = new File(DIRECTORY);
         if (!dir.exists()) {
             dir.mkdirs(); // Cria a pasta caso no exista
         }
 
-        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(SESSIONS_FILE))) {
-            out.writeObject(sessions);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        GraphWriter.escrever(new File(SESSIONS_FILE), sessions);
     }
 
     /**
@@ -21,18 +21,15 @@ public class UserDAO {
      * Salva a lista de usurios em um arquivo.
      *
      * @param users Lista de usurios a serem salvos.
+     * @throws IOException Se o arquivo no puder ser gravado; o arquivo anterior  mantido.
      */
-    public void save(List<User> users) {
+    public void save(List<User> users) throws IOException {
         File dir = new File(DIRECTORY);
         if (!dir.exists()) {
             dir.mkdirs(); // Cria a pasta caso no exista
         }
 
-        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(USERS_FILE))) {
-            out.writeObject(users);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        GraphWriter.escrever(new File(USERS_FILE), users);
     }
 
     /**
@@ -43,8 +40,8 @@ public class UserDAO {
     public List<User> load() {
         File file = new File(USERS_FILE);
         if (file.exists()) {
-            try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(file))) {
-                return (List<User>) in.readObject();
+            try {
+                return (List<User>) GraphReader.ler(file);
             } catch (IOException | ClassNotFoundException e) {
                 System.out.println("Erro ao carregar dados de usurios. Criando novo arquivo...");
                 file.delete(); // Apaga o arquivo corrompido
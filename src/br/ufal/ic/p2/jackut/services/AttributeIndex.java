@@ -0,0 +1,124 @@
+package br.ufal.ic.p2.jackut.services;
+
+import br.ufal.ic.p2.jackut.Utils.IdBitmap;
+import br.ufal.ic.p2.jackut.models.User;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * ndice invertido dos atributos de perfil no sistema Jackut.
+ *
+ * <p>Para cada atributo, associa cada valor ao conjunto de ids dos usurios que o
+ * possuem, e guarda tambm o conjunto de usurios com o atributo preenchido. Assim,
+ * consultas como "usurios cuja cidade  X" no precisam percorrer todos os perfis.</p>
+ *
+ * <p>Apenas valores preenchidos (no vazios) so indexados, como em
+ * {@link br.ufal.ic.p2.jackut.models.UserProfile#isAtributoPreenchido(String)}.
+ * Usurios removidos saem do ndice no momento da remoo.</p>
+ *
+ * <p>O ndice  compartilhado por todos os usurios, por isso os seus mtodos so
+ * sincronizados: edies de perfis diferentes podem chegar em paralelo.</p>
+ *
+ * @author Marcos Melo
+ * @version 1.0
+ */
+public class AttributeIndex {
+    private final Map<String, Map<String, IdBitmap>> porValor;
+    private final Map<String, IdBitmap> preenchidos;
+
+    /**
+     * Cria um ndice vazio.
+     */
+    public AttributeIndex() {
+        this.porValor = new HashMap<>();
+        this.preenchidos = new HashMap<>();
+    }
+
+    /**
+     * Atualiza o ndice aps a alterao de um atributo.
+     *
+     * @param usuario Usurio alterado
+     * @param atributo Nome do atributo
+     * @param anterior Valor anterior (null ou vazio se no estava preenchido)
+     * @param valor Novo valor (null ou vazio se deixou de estar preenchido)
+     */
+    public synchronized void atualizar(User usuario, String atributo, String anterior, String valor) {
+        int id = usuario.getId();
+        if (preenchido(anterior)) {
+            Map<String, IdBitmap> valores = porValor.get(atributo);
+            IdBitmap ids = valores.get(anterior);
+            ids.remover(id);
+            if (ids.isVazio()) {
+                valores.remove(anterior);
+            }
+            if (!preenchido(valor)) {
+                preenchidos.get(atributo).remover(id);
+            }
+        }
+        if (preenchido(valor)) {
+            porValor.computeIfAbsent(atributo, a -> new HashMap<>())
+                    .computeIfAbsent(valor, v -> new IdBitmap())
+                    .adicionar(id);
+            preenchidos.computeIfAbsent(atributo, a -> new IdBitmap()).adicionar(id);
+        }
+    }
+
+    /**
+     * Indexa todos os atributos de um usurio (usado ao carregar os dados).
+     *
+     * @param usuario Usurio a ser indexado
+     */
+    public synchronized void indexar(User usuario) {
+        usuario.getProfile().paraCadaAtributo((atributo, valor) -> atualizar(usuario, atributo, null, valor));
+    }
+
+    /**
+     * Retira todos os atributos de um usurio do ndice.
+     *
+     * @param usuario Usurio removido
+     */
+    public synchronized void removerUsuario(User usuario) {
+        usuario.getProfile().paraCadaAtributo((atributo, valor) -> atualizar(usuario, atributo, valor, null));
+    }
+
+    /**
+     * Busca os usurios que possuem um determinado valor em um atributo.
+     *
+     * @param atributo Nome do atributo
+     * @param valor Valor procurado
+     * @param inicio Posio do primeiro resultado
+     * @param limite Quantidade mxima de resultados
+     * @return Ids dos usurios encontrados, em ordem crescente
+     */
+    public synchronized int[] buscarPorValor(String atributo, String valor, int inicio, int limite) {
+        Map<String, IdBitmap> valores = porValor.get(atributo);
+        IdBitmap ids = valores != null ? valores.get(valor) : null;
+        return ids != null ? ids.pagina(inicio, limite) : new int[0];
+    }
+
+    /**
+     * Busca os usurios que possuem um atributo preenchido.
+     *
+     * @param atributo Nome do atributo
+     * @param inicio Posio do primeiro resultado
+     * @param limite Quantidade mxima de resultados
+     * @return Ids dos usurios encontrados, em ordem crescente
+     */
+    public synchronized int[] buscarPreenchidos(String atributo, int inicio, int limite) {
+        IdBitmap ids = preenchidos.get(atributo);
+        return ids != null ? ids.pagina(inicio, limite) : new int[0];
+    }
+
+    /**
+     * Esvazia o ndice (usado ao zerar o sistema).
+     */
+    public synchronized void limpar() {
+        porValor.clear();
+        preenchidos.clear();
+    }
+
+    private static boolean preenchido(String valor) {
+        return valor != null && !valor.isEmpty();
+    }
+}
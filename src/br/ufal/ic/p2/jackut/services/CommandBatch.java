@@ -0,0 +1,272 @@
+package br.ufal.ic.p2.jackut.services;
+
+import br.ufal.ic.p2.jackut.models.*;
+import br.ufal.ic.p2.jackut.exceptions.Batch.BatchFailedException;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lote de alteraes aplicadas de uma vez: criao de usurios e comunidades, edio
+ * de perfil, relacionamentos, recados e entrada em comunidades.
+ *
+ * <p>Os comandos so registrados na ordem de execuo e aplicados juntos por
+ * {@link br.ufal.ic.p2.jackut.Sistema#executarLote(CommandBatch)}, com uma nica
+ * aquisio da trava exclusiva e uma nica gravao. Se um comando falha, os
+ * anteriores so desfeitos e nenhuma alterao do lote fica visvel.</p>
+ *
+ * <p>Para desfazer, o lote copia cada perfil antes do primeiro comando que o envolve
+ * e anota as entradas em comunidades; a falha restaura os perfis pelas cpias, retira
+ * os membros anotados, descarta os usurios e comunidades criados e reconstri os
+ * ndices dos servios. As comunidades no so copiadas, pois podem ter muitos
+ * membros e o lote s acrescenta membros a elas. Os objetos tambm so preservados
+ * para as pocas abertas, como nas alteraes avulsas.</p>
+ *
+ * @author Marcos Melo
+ * @version 1.0
+ */
+public class CommandBatch {
+    /**
+     * Alterao executada por um comando.
+     */
+    private interface Alteracao {
+        void executar(UserService usuarios, CommunityService comunidades) throws Exception;
+    }
+
+    /**
+     * Comando do lote, com os usurios e a comunidade que ele altera.
+     */
+    private static final class Comando {
+        private final String[] logins;
+        private final String comunidade;
+        private final boolean criaComunidade;
+        private final Alteracao alteracao;
+
+        private Comando(String[] logins, String comunidade, boolean criaComunidade, Alteracao alteracao) {
+            this.logins = logins;
+            this.comunidade = comunidade;
+            this.criaComunidade = criaComunidade;
+            this.alteracao = alteracao;
+        }
+    }
+
+    /**
+     * Entrada de um usurio em uma comunidade, desfeita se o lote falhar.
+     */
+    private static final class Entrada {
+        private final Community comunidade;
+        private final User usuario;
+
+        private Entrada(Community comunidade, User usuario) {
+            this.comunidade = comunidade;
+            this.usuario = usuario;
+        }
+    }
+
+    private final List<Comando> comandos = new ArrayList<>();
+
+    /**
+     * Adiciona a criao de um usurio.
+     *
+     * @param nome Nome completo do usurio
+     * @param senha Senha de acesso
+     * @param login Identificador nico
+     * @return Este lote
+     */
+    public CommandBatch criarUsuario(String nome, String senha, String login) {
+        return adicionar(new String[0], null, false, (u, c) -> u.criarUsuario(nome, senha, login));
+    }
+
+    /**
+     * Adiciona a edio de um atributo do perfil.
+     *
+     * @param login Login do usurio
+     * @param atributo Atributo a ser editado
+     * @param valor Novo valor do atributo
+     * @return Este lote
+     */
+    public CommandBatch editarPerfil(String login, String atributo, String valor) {
+        return adicionar(new String[]{login}, null, false, (u, c) -> u.editarPerfil(login, atributo, valor));
+    }
+
+    /**
+     * Adiciona um convite ou aceite de amizade.
+     *
+     * @param login Login do usurio
+     * @param amigo Login do amigo
+     * @return Este lote
+     */
+    public CommandBatch adicionarAmigo(String login, String amigo) {
+        return adicionar(new String[]{login, amigo}, null, false, (u, c) -> u.adicionarAmigo(login, amigo));
+    }
+
+    /**
+     * Adiciona o desfazimento de uma amizade.
+     *
+     * @param login Login do usurio
+     * @param amigo Login do amigo
+     * @return Este lote
+     */
+    public CommandBatch removerAmigo(String login, String amigo) {
+        return adicionar(new String[]{login, amigo}, null, false, (u, c) -> u.removerAmigo(login, amigo));
+    }
+
+    /**
+     * Adiciona uma paquera.
+     *
+     * @param login Login do usurio
+     * @param paquera Login da paquera
+     * @return Este lote
+     */
+    public CommandBatch adicionarPaquera(String login, String paquera) {
+        return adicionar(new String[]{login, paquera}, null, false, (u, c) -> u.adicionarPaquera(login, paquera));
+    }
+
+    /**
+     * Adiciona um dolo.
+     *
+     * @param login Login do f
+     * @param idolo Login do dolo
+     * @return Este lote
+     */
+    public CommandBatch adicionarIdolo(String login, String idolo) {
+        return adicionar(new String[]{login, idolo}, null, false, (u, c) -> u.adicionarIdolo(login, idolo));
+    }
+
+    /**
+     * Adiciona um inimigo.
+     *
+     * @param login Login do usurio
+     * @param inimigo Login do inimigo
+     * @return Este lote
+     */
+    public CommandBatch adicionarInimigo(String login, String inimigo) {
+        return adicionar(new String[]{login, inimigo}, null, false, (u, c) -> u.adicionarInimigo(login, inimigo));
+    }
+
+    /**
+     * Adiciona o envio de um recado.
+     *
+     * @param login Login do remetente
+     * @param destinatario Login do destinatrio
+     * @param recado Texto do recado
+     * @return Este lote
+     */
+    public CommandBatch enviarRecado(String login, String destinatario, String recado) {
+        return adicionar(new String[]{login, destinatario}, null, false,
+                (u, c) -> u.enviarRecado(login, destinatario, recado));
+    }
+
+    /**
+     * Adiciona a criao de uma comunidade.
+     *
+     * @param login Login do dono
+     * @param nome Nome da comunidade
+     * @param descricao Descrio da comunidade
+     * @return Este lote
+     */
+    public CommandBatch criarComunidade(String login, String nome, String descricao) {
+        return adicionar(new String[]{login}, nome, true, (u, c) -> c.criarComunidade(login, nome, descricao));
+    }
+
+    /**
+     * Adiciona a entrada de um usurio em uma comunidade.
+     *
+     * @param login Login do usurio
+     * @param nome Nome da comunidade
+     * @return Este lote
+     */
+    public CommandBatch adicionarComunidade(String login, String nome) {
+        return adicionar(new String[]{login}, nome, false, (u, c) -> c.adicionarMembroComunidade(login, nome));
+    }
+
+    /**
+     * Obtm a quantidade de comandos do lote.
+     *
+     * @return Comandos registrados
+     */
+    public int tamanho() {
+        return comandos.size();
+    }
+
+    /**
+     * Aplica os comandos em ordem, desfazendo todos se algum falhar. Deve ser chamado
+     * com a trava exclusiva do sistema.
+     *
+     * <p>A varredura de usurios removidos  concluda antes, para que os nicos objetos
+     * alterados pelo lote sejam os envolvidos nos comandos.</p>
+     *
+     * @param userService Servio de usurios
+     * @param communityService Servio de comunidades
+     * @return Quantidade de comandos aplicados
+     * @throws BatchFailedException Se um comando falhar; o lote foi desfeito
+     */
+    public int aplicar(UserService userService, CommunityService communityService) throws BatchFailedException {
+        userService.concluirRemocoes();
+
+        int totalUsuarios = userService.getTotalUsuarios();
+        Map<UserProfile, UserProfile> copias = new IdentityHashMap<>();
+        List<Entrada> entradas = new ArrayList<>();
+        List<String> criadas = new ArrayList<>();
+        for (int i = 0; i < comandos.size(); i++) {
+            Comando comando = comandos.get(i);
+            try {
+                preservar(comando, userService, communityService, copias, entradas);
+                comando.alteracao.executar(userService, communityService);
+            } catch (Exception e) {
+                for (Entrada entrada : entradas) {
+                    entrada.comunidade.removeMember(entrada.usuario);
+                }
+                for (Map.Entry<UserProfile, UserProfile> copia : copias.entrySet()) {
+                    copia.getKey().restaurar(copia.getValue());
+                }
+                userService.restaurarUsuarios(totalUsuarios);
+                communityService.restaurarComunidades(criadas);
+                throw new BatchFailedException(i + 1, e);
+            }
+            if (comando.criaComunidade) {
+                criadas.add(comando.comunidade);
+            }
+        }
+        return comandos.size();
+    }
+
+    private CommandBatch adicionar(String[] logins, String comunidade, boolean criaComunidade, Alteracao alteracao) {
+        comandos.add(new Comando(logins, comunidade, criaComunidade, alteracao));
+        return this;
+    }
+
+    /**
+     * Preserva e copia os perfis envolvidos em um comando, na primeira vez que aparecem
+     * no lote, e anota a entrada em comunidade de quem ainda no  membro. Logins e
+     * nomes inexistentes so ignorados (o comando falha).
+     */
+    private static void preservar(Comando comando, UserService userService, CommunityService communityService,
+                                  Map<UserProfile, UserProfile> copias, List<Entrada> entradas) {
+        User primeiro = null;
+        for (String login : comando.logins) {
+            User user = login != null ? userService.buscarAtivo(login) : null;
+            if (user == null) {
+                continue;
+            }
+            if (primeiro == null) {
+                primeiro = user;
+            }
+            UserProfile perfil = user.getProfile();
+            if (!copias.containsKey(perfil)) {
+                perfil.preservar();
+                copias.put(perfil, perfil.copiar());
+            }
+        }
+        Community comunidade = comando.comunidade != null
+                ? communityService.getCommunities().get(comando.comunidade) : null;
+        if (comunidade != null) {
+            comunidade.preservar();
+            if (primeiro != null && !comando.criaComunidade && !comunidade.isMember(primeiro)) {
+                entradas.add(new Entrada(comunidade, primeiro));
+            }
+        }
+    }
+}
@@ -4,8 +4,16 @@ import br.ufal.ic.p2.jackut.exceptions.Community.*;
 import br.ufal.ic.p2.jackut.models.*;
 import br.ufal.ic.p2.jackut.persistence.*;
 import br.ufal.ic.p2.jackut.exceptions.User.*;
+import br.ufal.ic.p2.jackut.exceptions.Search.*;
+import br.ufal.ic.p2.jackut.Utils.GlobalFormatter;
+import br.ufal.ic.p2.jackut.Utils.IdBitmap;
+import br.ufal.ic.p2.jackut.Utils.Leaderboard;
+import br.ufal.ic.p2.jackut.Utils.Pagination;
+import br.ufal.ic.p2.jackut.Utils.ResponseCache;
 
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Servio para gesto de comunidades no sistema Jackut.
@@ -23,21 +31,53 @@ import java.util.*;
  * @version 1.0
  */
 public class CommunityService {
-    private final CommunityDAO communityDAO;
     private final UserService userService;
     private Map<String, Community> communities;
+    private final SearchIndex<Community> indiceTextual;
+    private final PrefixIndex indiceNomes;
+    private final Leaderboard rankingComunidades;
+    private final MessageBroadcaster entregador;
 
     /**
      * Construtor do servio de comunidades.
      *
-     * @param communityDAO DAO para persistncia das comunidades
+     * @param communityDAO DAO do qual as comunidades so carregadas
      * @param userService Servio de usurios para integrao
      */
     public CommunityService(CommunityDAO communityDAO, UserService userService) {
-        this.communityDAO = communityDAO;
         this.userService = userService;
         this.communities = communityDAO.load();
         if (communities == null) communities = new HashMap<>();
+
+        // Comunidades e usurios vm de arquivos distintos: aponta tudo para as instncias cannicas
+        Map<String, Community> canonicas = new HashMap<>();
+        for (Community comunidade : communities.values()) {
+            comunidade.canonizar(userService::findUserById, userService::buscarAtivo);
+            canonicas.put(comunidade.getName(), comunidade);
+        }
+        this.communities = canonicas;
+        for (User user : userService.getUsers()) {
+            user.getProfile().canonizarComunidades(canonicas::get);
+        }
+
+        this.indiceTextual = new SearchIndex<>(Community::getName);
+        this.indiceNomes = new PrefixIndex();
+        this.rankingComunidades = new Leaderboard();
+        this.entregador = new MessageBroadcaster();
+        indexar();
+    }
+
+    /**
+     * Reconstri os ndices, os contadores de membros e o ranking a partir do mapa de
+     * comunidades. Os ndices devem estar vazios.
+     */
+    private void indexar() {
+        for (Community comunidade : communities.values()) {
+            indiceTextual.indexar(comunidade, Collections.singletonList(comunidade.getDescription()));
+            indiceNomes.adicionar(comunidade.getName());
+            comunidade.iniciarContadorMembros(userService::findUserById);
+            rankingComunidades.definir(comunidade.getName(), comunidade.getNumeroMembros());
+        }
     }
 
     /**
@@ -57,9 +97,12 @@ public class CommunityService {
             throw new CommunityCreationException();
         }
 
+        dono.getProfile().preservar();
         Community comunidade = new Community(nome, descricao, dono);
         this.communities.put(nome, comunidade);
-        saveData();
+        indiceTextual.indexar(comunidade, Collections.singletonList(descricao));
+        indiceNomes.adicionar(comunidade.getName());
+        rankingComunidades.definir(comunidade.getName(), comunidade.getNumeroMembros());
     }
 
     /**
@@ -98,10 +141,139 @@ public class CommunityService {
      * @throws CommunityNotFoundException Se a comunidade no existir
      */
     public String getMembrosComunidade(String nome) throws CommunityNotFoundException {
+        Community comunidade = communities.get(nome);
+        if (comunidade == null) {
+            throw new CommunityNotFoundException();
+        }
+        ResponseCache respostas = userService.getRespostas();
+        String chave = "membros:" + nome;
+        long epoca = respostas.getEpoca();
+        long versao = comunidade.getVersaoMembros();
+        String resposta = respostas.buscar(chave, versao);
+        if (resposta == null) {
+            resposta = comunidade.getMembers(userService::findUserById);
+            respostas.guardar(chave, versao, epoca, resposta);
+        }
+        return resposta;
+    }
+
+    /**
+     * Obtm uma pgina da lista de membros de uma comunidade, sem formatar a lista inteira.
+     *
+     * @param nome Nome da comunidade
+     * @param inicio Posio do primeiro membro (a partir de 0)
+     * @param limite Quantidade mxima de membros
+     * @return String formatada com os membros da pgina, em ordem de entrada
+     * @throws CommunityNotFoundException Se a comunidade no existir
+     * @throws InvalidPageException Se os parmetros da pgina forem invlidos
+     */
+    public String getMembrosComunidadePaginado(String nome, int inicio, int limite)
+            throws CommunityNotFoundException, InvalidPageException {
+        if(!this.communities.containsKey(nome)) {
+            throw new CommunityNotFoundException();
+        }
+        Pagination.validar(inicio, limite);
+        return GlobalFormatter.formatPage(
+                communities.get(nome).streamMembros(userService::findUserById), inicio, limite);
+    }
+
+    /**
+     * Escreve a lista de membros de uma comunidade no destino, membro a membro.
+     *
+     * @param nome Nome da comunidade
+     * @param destino Destino da escrita
+     * @throws CommunityNotFoundException Se a comunidade no existir
+     * @throws IOException Se ocorrer erro ao escrever no destino
+     */
+    public void escreverMembrosComunidade(String nome, Appendable destino)
+            throws CommunityNotFoundException, IOException {
+        if(!this.communities.containsKey(nome)) {
+            throw new CommunityNotFoundException();
+        }
+        GlobalFormatter.writeList(communities.get(nome).streamMembros(userService::findUserById), destino);
+    }
+
+    /**
+     * Obtm os membros de uma comunidade que tambm participam de outra.
+     * A interseo  calculada sobre os bitmaps de ids dos membros.
+     *
+     * @param nome Nome da primeira comunidade
+     * @param outra Nome da segunda comunidade
+     * @return String formatada com os membros em comum, em ordem de cadastro
+     * @throws CommunityNotFoundException Se alguma das comunidades no existir
+     */
+    public String getMembrosEmComum(String nome, String outra) throws CommunityNotFoundException {
+        if(!this.communities.containsKey(nome) || !this.communities.containsKey(outra)) {
+            throw new CommunityNotFoundException();
+        }
+        IdBitmap comum = IdBitmap.intersecao(
+                communities.get(nome).getMemberIds().paraBitmap(),
+                communities.get(outra).getMemberIds().paraBitmap());
+
+        List<User> membros = new ArrayList<>();
+        comum.paraCada(id -> {
+            User member = userService.findUserById(id);
+            if (member != null && !member.isRemovido()) {
+                membros.add(member);
+            }
+        });
+        return GlobalFormatter.formatList(membros);
+    }
+
+    /**
+     * Busca comunidades por palavras-chave na descrio.
+     *
+     * @param consulta Palavras-chave da busca
+     * @param inicio Posio do primeiro resultado (a partir de 0)
+     * @param limite Quantidade mxima de resultados
+     * @return String formatada com os nomes das comunidades, da mais para a menos relevante
+     * @throws InvalidPageException Se os parmetros da pgina forem invlidos
+     */
+    public String buscarComunidades(String consulta, int inicio, int limite) throws InvalidPageException {
+        Pagination.validar(inicio, limite);
+        List<String> nomes = new ArrayList<>();
+        for (Community comunidade : indiceTextual.buscar(consulta, inicio, limite)) {
+            nomes.add(comunidade.getName());
+        }
+        return GlobalFormatter.formatList(nomes);
+    }
+
+    /**
+     * Sugere nomes de comunidades que comeam com o prefixo digitado.
+     *
+     * @param prefixo Prefixo digitado
+     * @param limite Quantidade mxima de sugestes
+     * @return String formatada com os nomes, em ordem alfabtica
+     * @throws InvalidPageException Se o limite no for positivo
+     */
+    public String autocompletarComunidades(String prefixo, int limite) throws InvalidPageException {
+        Pagination.validar(0, limite);
+        return GlobalFormatter.formatList(indiceNomes.buscar(prefixo, limite));
+    }
+
+    /**
+     * Obtm o nmero de membros de uma comunidade, sem percorrer a lista de membros.
+     * @param nome Nome da comunidade
+     * @return Nmero de membros
+     * @throws CommunityNotFoundException Se a comunidade no existir
+     */
+    public long getNumeroMembrosComunidade(String nome) throws CommunityNotFoundException {
         if(!this.communities.containsKey(nome)) {
             throw new CommunityNotFoundException();
         }
-        return communities.get(nome).getMembers();
+        return communities.get(nome).getNumeroMembros();
+    }
+
+    /**
+     * Obtm as comunidades com mais membros.
+     *
+     * @param n Quantidade de comunidades
+     * @return String formatada com os nomes, da maior para a menor
+     * @throws InvalidPageException Se a quantidade no for positiva
+     */
+    public String getMaioresComunidades(int n) throws InvalidPageException {
+        Pagination.validar(0, n);
+        return GlobalFormatter.formatList(rankingComunidades.topo(n));
     }
 
     /**
@@ -121,20 +293,25 @@ public class CommunityService {
         }
 
         user.getProfile().setParticipanteComunidade(this.communities.get(nome));
-        this.communities.get(nome).addMember(user);
-        saveData();
+        Community comunidade = this.communities.get(nome);
+        comunidade.addMember(user);
+        comunidade.contarMembros(1);
+        rankingComunidades.definir(comunidade.getName(), comunidade.getNumeroMembros());
     }
 
     /**
-     * Envia uma mensagem para todos os membros de uma comunidade.
+     * Envia uma mensagem para todos os membros de uma comunidade. Os membros so
+     * obtidos na chamada; em comunidades grandes, a entrega termina depois, em paralelo
+     * (ver {@link MessageBroadcaster}).
      *
      * @param loginUsuario Login do remetente
      * @param nome Nome da comunidade
      * @param mensagem Contedo da mensagem
+     * @return Resultado futuro com a quantidade de membros que receberam a mensagem
      * @throws UserNotFoundException Se o remetente no for encontrado
      * @throws CommunityNotFoundException Se a comunidade no existir
      */
-    public void enviarMensagemComunidade(String loginUsuario, String nome, String mensagem)
+    public CompletableFuture<Integer> enviarMensagemComunidade(String loginUsuario, String nome, String mensagem)
             throws UserNotFoundException, CommunityNotFoundException {
         User user = userService.findUserByLogin(loginUsuario);
 
@@ -142,9 +319,25 @@ public class CommunityService {
             throw new CommunityNotFoundException();
         }
 
-        Message message = new Message(user, communities.get(nome), mensagem);
-        this.communities.get(nome).sendMessage(message);
-        saveData();
+        Community comunidade = communities.get(nome);
+        Message message = new Message(user, comunidade, mensagem);
+        return entregador.entregar(message, comunidade.getMemberObject(userService::findUserById));
+    }
+
+    /**
+     * Obtm as mtricas de entrega de mensagens de comunidade.
+     *
+     * @return Entregas agendadas, concludas e pendentes, e faixas em andamento, formatadas
+     */
+    public String getMetricasEntregas() {
+        return GlobalFormatter.formatList(entregador.getMetricas().entrySet());
+    }
+
+    /**
+     * Encerra as threads de entrega paralela de mensagens.
+     */
+    public void encerrarEntregas() {
+        entregador.encerrar();
     }
 
     /**
@@ -154,11 +347,17 @@ public class CommunityService {
      */
     public void removerComunidade(Community comunidade) {
         this.communities.remove(comunidade.getName());
-        saveData();
+        indiceTextual.remover(comunidade);
+        indiceNomes.remover(comunidade.getName());
+        rankingComunidades.remover(comunidade.getName());
     }
 
     /**
      * Remove todas as comunidades onde o usurio  dono.
+     * <p>
+     * As comunidades saem do sistema imediatamente; os vnculos com os membros
+     * so desfeitos pela varredura de usurios removidos.
+     * </p>
      *
      * @param loginUsuario Login do usurio/dono
      * @throws UserNotFoundException Se o usurio no for encontrado
@@ -167,11 +366,30 @@ public class CommunityService {
         User usuario = userService.findUserByLogin(loginUsuario);
 
         for (Community comunidade : usuario.getProfile().getComunidadesDono()) {
-            for (User member : new ArrayList<>(comunidade.getMemberObject())) {
-                comunidade.removeMember(member);
-                member.getProfile().sairComunidade(comunidade);
-            }
+            comunidade.preservar();
+            comunidade.marcarRemovida();
             this.communities.remove(comunidade.getName());
+            indiceTextual.remover(comunidade);
+            indiceNomes.remover(comunidade.getName());
+            rankingComunidades.remover(comunidade.getName());
+        }
+    }
+
+    /**
+     * Atualiza o contador e o ranking de tamanho das comunidades de que um usurio
+     * participa, antes da remoo desse usurio.
+     *
+     * @param loginUsuario Login do usurio que ser removido
+     * @throws UserNotFoundException Se o usurio no for encontrado
+     */
+    public void registrarSaidaUsuario(String loginUsuario) throws UserNotFoundException {
+        User usuario = userService.findUserByLogin(loginUsuario);
+
+        for (Community comunidade : usuario.getProfile().getComunidadesParticipante()) {
+            if (!comunidade.isRemovida()) {
+                comunidade.contarMembros(-1);
+                rankingComunidades.definir(comunidade.getName(), comunidade.getNumeroMembros());
+            }
         }
     }
 
@@ -180,21 +398,47 @@ public class CommunityService {
      */
     public void limparComunidades() {
         this.communities.clear();
+        indiceTextual.limpar();
+        indiceNomes.limpar();
+        rankingComunidades.limpar();
     }
 
     /**
-     * Obtm o mapa de comunidades do sistema.
+     * Desfaz a criao de comunidades e reconstri os ndices a partir das restantes.
+     * Usado para desfazer um lote, depois que as comunidades e os perfis alterados por
+     * ele foram restaurados.
      *
-     * @return Mapa de comunidades (nome -> comunidade)
+     * @param criadas Nomes das comunidades criadas que sero descartadas
      */
-    public Map<String, Community> getCommunities() {
-        return communities;
+    public void restaurarComunidades(Collection<String> criadas) {
+        for (String nome : criadas) {
+            this.communities.remove(nome);
+        }
+        indiceTextual.limpar();
+        indiceNomes.limpar();
+        rankingComunidades.limpar();
+        indexar();
     }
 
     /**
-     * Salva os dados das comunidades no sistema de persistncia.
+     * Preserva uma comunidade para as pocas de leitura abertas, antes de alterar seus membros.
+     * Nomes inexistentes so ignorados.
+     *
+     * @param nome Nome da comunidade
+     */
+    public void preservarComunidade(String nome) {
+        Community comunidade = nome != null ? communities.get(nome) : null;
+        if (comunidade != null) {
+            comunidade.preservar();
+        }
+    }
+
+    /**
+     * Obtm o mapa de comunidades do sistema.
+     *
+     * @return Mapa de comunidades (nome -> comunidade)
      */
-    private void saveData() {
-        communityDAO.save(communities);
+    public Map<String, Community> getCommunities() {
+        return communities;
     }
 }
\ No newline at end of file
@@ -0,0 +1,192 @@
+package br.ufal.ic.p2.jackut.services;
+
+import br.ufal.ic.p2.jackut.models.User;
+import br.ufal.ic.p2.jackut.Utils.SnapshotEpoch;
+
+import java.util.*;
+
+/**
+ * Motor de sugesto de amigos (amigos de amigos) do sistema Jackut.
+ *
+ * <p>Os candidatos so os contatos de segundo grau, ordenados pelo nmero de amigos
+ * em comum (e, em caso de empate, pelo login). So excludos o prprio usurio, os
+ * amigos, os inimigos e quem tem convite de amizade pendente em qualquer direo.</p>
+ *
+ * <p>Para limitar o custo em usurios muito conectados, apenas os primeiros
+ * {@value #MAX_AMIGOS} amigos do usurio e os primeiros {@value #MAX_AMIGOS} amigos
+ * de cada um deles so percorridos.</p>
+ *
+ * <p>As sugestes ficam em cache por usurio. Quando uma amizade entre A e B muda,
+ * s so invalidados A, B e os amigos de ambos, que so os nicos usurios cujos
+ * contatos de segundo grau podem ter mudado.</p>
+ *
+ * <p>As sugestes so calculadas sobre os perfis na verso de uma poca de leitura
+ * aberta por quem as pede (ver {@link SnapshotEpoch}), fora do monitor do motor, e s
+ * o acesso ao cache  sincronizado. Como uma amizade alterada depois da abertura da
+ * poca no aparece no clculo, o resultado s entra no cache se nenhuma invalidao
+ * aconteceu desde ento.</p>
+ *
+ * @author Marcos Melo
+ * @version 1.0
+ */
+public class FriendSuggester {
+    /** Nmero mximo de amigos percorridos por usurio */
+    static final int MAX_AMIGOS = 256;
+
+    /** Nmero mximo de sugestes guardadas em cache por usurio */
+    static final int MAX_CACHE = 64;
+
+    private final UserService userService;
+    private final Map<String, List<String>> cache;
+    // poca aberta mais recente na ltima invalidao
+    private long ultimaInvalidacao;
+
+    /**
+     * Construtor do motor de sugestes.
+     *
+     * @param userService Servio dono dos usurios
+     */
+    public FriendSuggester(UserService userService) {
+        this.userService = userService;
+        this.cache = new HashMap<>();
+    }
+
+    /**
+     * Obtm as melhores sugestes de amizade para um usurio.
+     *
+     * @param usuario Usurio que recebe as sugestes
+     * @param k Quantidade mxima de sugestes
+     * @param epoca poca de leitura aberta
+     * @return Logins sugeridos, do mais para o menos relevante
+     */
+    public List<String> sugerir(User usuario, int k, long epoca) {
+        List<String> sugestoes;
+        synchronized (this) {
+            sugestoes = cache.get(usuario.getName());
+        }
+        if (sugestoes == null || (k > sugestoes.size() && sugestoes.size() == MAX_CACHE)) {
+            sugestoes = calcular(usuario, Math.max(k, MAX_CACHE), epoca);
+            synchronized (this) {
+                if (sugestoes.size() <= MAX_CACHE && ultimaInvalidacao < epoca) {
+                    cache.put(usuario.getName(), sugestoes);
+                }
+            }
+        }
+        List<String> ativas = new ArrayList<>();
+        for (String login : sugestoes) {
+            if (ativas.size() >= k) {
+                break;
+            }
+            if (userService.buscarAtivo(login) != null) {
+                ativas.add(login);
+            }
+        }
+        return ativas;
+    }
+
+    /**
+     * Invalida as sugestes afetadas pela criao ou remoo de uma amizade.
+     *
+     * @param a Primeiro usurio da amizade
+     * @param b Segundo usurio da amizade
+     */
+    public synchronized void invalidarAmizade(User a, User b) {
+        registrarInvalidacao();
+        invalidarVizinhanca(a);
+        invalidarVizinhanca(b);
+    }
+
+    /**
+     * Invalida as sugestes de um nico usurio (por exemplo, aps um convite ou uma inimizade).
+     *
+     * @param usuario Usurio cujas sugestes devem ser recalculadas
+     */
+    public synchronized void invalidar(User usuario) {
+        registrarInvalidacao();
+        cache.remove(usuario.getName());
+    }
+
+    /**
+     * Descarta todas as sugestes em cache.
+     */
+    public synchronized void limpar() {
+        registrarInvalidacao();
+        cache.clear();
+    }
+
+    /**
+     * Anota a invalidao, para que clculos feitos em pocas abertas antes dela no
+     * entrem no cache.
+     */
+    private void registrarInvalidacao() {
+        ultimaInvalidacao = Math.max(ultimaInvalidacao, SnapshotEpoch.maisRecente());
+    }
+
+    private void invalidarVizinhanca(User usuario) {
+        cache.remove(usuario.getName());
+        for (String amigo : usuario.getProfile().getAmigos()) {
+            cache.remove(amigo);
+        }
+    }
+
+    /**
+     * Calcula as sugestes contando os amigos em comum de cada contato de segundo grau.
+     *
+     * @param usuario Usurio que recebe as sugestes
+     * @param limite Quantidade mxima de sugestes
+     * @param epoca poca de leitura aberta
+     * @return Logins sugeridos, do mais para o menos relevante
+     */
+    private List<String> calcular(User usuario, int limite, long epoca) {
+        Set<String> excluidos = usuario.getProfile().ler(epoca, perfil -> {
+            Set<String> logins = new HashSet<>(perfil.getAmigos());
+            logins.addAll(perfil.getAmigosPendentes());
+            for (User inimigo : perfil.getInimigos()) {
+                logins.add(inimigo.getName());
+            }
+            return logins;
+        });
+        excluidos.add(usuario.getName());
+
+        Map<String, Integer> emComum = new HashMap<>();
+        for (String loginAmigo : amigos(usuario, epoca)) {
+            User amigo = userService.buscarAtivo(loginAmigo);
+            if (amigo == null) {
+                continue;
+            }
+            for (String candidato : amigos(amigo, epoca)) {
+                if (!excluidos.contains(candidato)) {
+                    emComum.merge(candidato, 1, Integer::sum);
+                }
+            }
+        }
+
+        List<Map.Entry<String, Integer>> ranking = new ArrayList<>(emComum.entrySet());
+        ranking.sort(Map.Entry.<String, Integer>comparingByValue().reversed()
+                .thenComparing(Map.Entry.comparingByKey()));
+
+        List<String> sugestoes = new ArrayList<>();
+        for (Map.Entry<String, Integer> entrada : ranking) {
+            if (sugestoes.size() >= limite) {
+                break;
+            }
+            User candidato = userService.buscarAtivo(entrada.getKey());
+            // Convites recebidos pelo usurio ficam na lista de pendentes de quem os enviou
+            if (candidato != null && !candidato.getProfile().ler(epoca,
+                    perfil -> perfil.getAmigosPendentes().contains(usuario.getName()))) {
+                sugestoes.add(entrada.getKey());
+            }
+        }
+        return sugestoes;
+    }
+
+    /**
+     * Obtm os primeiros amigos de um usurio na verso da poca.
+     */
+    private static List<String> amigos(User usuario, long epoca) {
+        return usuario.getProfile().ler(epoca, perfil -> {
+            List<String> amigos = perfil.getAmigos();
+            return new ArrayList<>(amigos.size() > MAX_AMIGOS ? amigos.subList(0, MAX_AMIGOS) : amigos);
+        });
+    }
+}
@@ -0,0 +1,126 @@
+package br.ufal.ic.p2.jackut.services;
+
+import br.ufal.ic.p2.jackut.models.Message;
+import br.ufal.ic.p2.jackut.models.User;
+import br.ufal.ic.p2.jackut.Utils.Mailboxes;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Entrega das mensagens de comunidade s caixas de entrada dos membros.
+ *
+ * <p>Comunidades com at {@value #LIMITE_PARALELO} membros recebem a mensagem na
+ * prpria thread de quem envia. Nas maiores, os membros so divididos em
+ * {@value #FAIXAS} faixas pelo id, e cada faixa  entregue em paralelo por uma caixa
+ * postal ({@link Mailboxes}); quem envia recebe um resultado futuro, concludo quando
+ * todas as faixas terminam.</p>
+ *
+ * <p>Um usurio cai sempre na mesma faixa, e cada faixa entrega na ordem em que as
+ * mensagens foram enviadas, ento cada membro recebe as mensagens na ordem de envio.
+ * A entrega na thread de quem envia s acontece quando no h faixa em andamento,
+ * para no passar  frente de uma mensagem anterior.</p>
+ *
+ * @author Marcos Melo
+ * @version 1.0
+ */
+public class MessageBroadcaster {
+    /** Tamanho mximo de comunidade entregue na thread de quem envia */
+    static final int LIMITE_PARALELO = 512;
+
+    /** Quantidade de faixas de entrega paralela (potncia de 2) */
+    static final int FAIXAS = 16;
+
+    private final Mailboxes faixas;
+    private final AtomicInteger faixasEmAndamento;
+    private final LongAdder agendadas, entregues;
+
+    /**
+     * Cria o entregador de mensagens.
+     */
+    public MessageBroadcaster() {
+        this.faixas = new Mailboxes();
+        this.faixasEmAndamento = new AtomicInteger();
+        this.agendadas = new LongAdder();
+        this.entregues = new LongAdder();
+    }
+
+    /**
+     * Entrega uma mensagem a uma lista de membros.
+     *
+     * @param mensagem Mensagem a entregar
+     * @param destinatarios Membros que recebem a mensagem
+     * @return Resultado futuro com a quantidade de membros que receberam a mensagem
+     */
+    public synchronized CompletableFuture<Integer> entregar(Message mensagem, List<User> destinatarios) {
+        int total = destinatarios.size();
+        agendadas.add(total);
+        if (total <= LIMITE_PARALELO && faixasEmAndamento.get() == 0) {
+            entregarGrupo(mensagem, destinatarios);
+            return CompletableFuture.completedFuture(total);
+        }
+
+        List<List<User>> grupos = new ArrayList<>(FAIXAS);
+        for (int i = 0; i < FAIXAS; i++) {
+            grupos.add(new ArrayList<>(total / FAIXAS + 1));
+        }
+        for (User destinatario : destinatarios) {
+            grupos.get(destinatario.getId() & (FAIXAS - 1)).add(destinatario);
+        }
+
+        List<CompletableFuture<Void>> partes = new ArrayList<>(FAIXAS);
+        for (int i = 0; i < FAIXAS; i++) {
+            List<User> grupo = grupos.get(i);
+            if (grupo.isEmpty()) {
+                continue;
+            }
+            faixasEmAndamento.incrementAndGet();
+            partes.add(faixas.enviar(String.valueOf(i), () -> {
+                try {
+                    entregarGrupo(mensagem, grupo);
+                } finally {
+                    faixasEmAndamento.decrementAndGet();
+                }
+                return null;
+            }));
+        }
+        return CompletableFuture.allOf(partes.toArray(new CompletableFuture<?>[0]))
+                .thenApply(concluido -> total);
+    }
+
+    /**
+     * Obtm as mtricas de entrega.
+     *
+     * @return Mapa com entregas agendadas, concludas e pendentes, e faixas em andamento
+     */
+    public Map<String, Long> getMetricas() {
+        long entregas = entregues.sum();
+        long total = agendadas.sum();
+        Map<String, Long> metricas = new LinkedHashMap<>();
+        metricas.put("agendadas", total);
+        metricas.put("entregues", entregas);
+        metricas.put("pendentes", total - entregas);
+        metricas.put("faixas", (long) faixasEmAndamento.get());
+        return metricas;
+    }
+
+    /**
+     * Encerra as faixas de entrega. Faixas em andamento terminam normalmente.
+     */
+    public void encerrar() {
+        faixas.encerrar();
+    }
+
+    private void entregarGrupo(Message mensagem, List<User> destinatarios) {
+        for (User destinatario : destinatarios) {
+            destinatario.getProfile().preservar();
+            destinatario.getProfile().setMensagens(mensagem);
+        }
+        entregues.add(destinatarios.size());
+    }
+}
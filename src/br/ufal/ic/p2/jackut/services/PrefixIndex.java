@@ -0,0 +1,70 @@
+package br.ufal.ic.p2.jackut.services;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+/**
+ * ndice ordenado de nomes para autocompletar por prefixo no sistema Jackut.
+ *
+ * <p>Os nomes ficam em uma rvore ordenada. Os nomes com um dado prefixo formam um
+ * intervalo contguo dessa ordem, encontrado em tempo logartmico, e a consulta
+ * percorre apenas os primeiros resultados do intervalo.</p>
+ *
+ * @author Marcos Melo
+ * @version 1.0
+ */
+public class PrefixIndex {
+    private final NavigableSet<String> nomes;
+
+    /**
+     * Cria um ndice vazio.
+     */
+    public PrefixIndex() {
+        this.nomes = new TreeSet<>();
+    }
+
+    /**
+     * Adiciona um nome ao ndice.
+     *
+     * @param nome Nome a ser adicionado
+     */
+    public void adicionar(String nome) {
+        nomes.add(nome);
+    }
+
+    /**
+     * Retira um nome do ndice.
+     *
+     * @param nome Nome a ser retirado
+     */
+    public void remover(String nome) {
+        nomes.remove(nome);
+    }
+
+    /**
+     * Obtm, em ordem alfabtica, os primeiros nomes que comeam com um prefixo.
+     *
+     * @param prefixo Prefixo digitado
+     * @param limite Quantidade mxima de nomes
+     * @return Nomes encontrados
+     */
+    public List<String> buscar(String prefixo, int limite) {
+        List<String> encontrados = new ArrayList<>();
+        for (String nome : nomes.tailSet(prefixo, true)) {
+            if (encontrados.size() >= limite || !nome.startsWith(prefixo)) {
+                break;
+            }
+            encontrados.add(nome);
+        }
+        return encontrados;
+    }
+
+    /**
+     * Esvazia o ndice.
+     */
+    public void limpar() {
+        nomes.clear();
+    }
+}
@@ -0,0 +1,191 @@
+package br.ufal.ic.p2.jackut.services;
+
+import br.ufal.ic.p2.jackut.models.*;
+import br.ufal.ic.p2.jackut.Utils.GlobalFormatter;
+import br.ufal.ic.p2.jackut.Utils.SnapshotEpoch;
+import br.ufal.ic.p2.jackut.exceptions.Community.*;
+import br.ufal.ic.p2.jackut.exceptions.User.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Viso de leitura consistente de usurios e comunidades, congelada no instante em
+ * que foi aberta.
+ *
+ * <p>A viso guarda cpias rasas dos ndices de usurios e comunidades e uma poca de
+ * leitura ({@link SnapshotEpoch}). Perfis e comunidades so lidos na verso da poca:
+ * alteraes feitas depois da abertura no aparecem, mesmo em consultas que cruzam
+ * vrios usurios e comunidades, e a viso no trava quem altera os dados. Usurios
+ * e comunidades removidos depois da abertura continuam visveis nela.</p>
+ *
+ * <p>A viso deve ser fechada ao fim do uso, para que as verses antigas guardadas
+ * para ela sejam descartadas.</p>
+ *
+ * @author Marcos Melo
+ * @version 1.0
+ */
+public class ReadView implements AutoCloseable {
+    private final long epoca;
+    private final Map<String, User> usuarios;
+    private final List<User> usuariosPorId;
+    private final Map<String, Community> comunidades;
+    private volatile boolean fechada;
+
+    /**
+     * Cria a viso sobre uma poca j aberta. Os ndices devem ter sido copiados no
+     * mesmo instante da abertura da poca.
+     *
+     * @param epoca poca de leitura aberta
+     * @param usuarios Cpia do ndice de usurios ativos por login
+     * @param usuariosPorId Cpia do ndice de usurios por id
+     * @param comunidades Cpia do mapa de comunidades
+     */
+    public ReadView(long epoca, Map<String, User> usuarios, List<User> usuariosPorId,
+                    Map<String, Community> comunidades) {
+        this.epoca = epoca;
+        this.usuarios = usuarios;
+        this.usuariosPorId = usuariosPorId;
+        this.comunidades = comunidades;
+    }
+
+    /**
+     * Obtm a poca de leitura da viso.
+     *
+     * @return poca aberta
+     */
+    public long getEpoca() {
+        return epoca;
+    }
+
+    /**
+     * Verifica se dois usurios eram amigos na abertura da viso.
+     *
+     * @param login Login do usurio
+     * @param amigo Login do possvel amigo
+     * @return true se forem amigos
+     * @throws UserNotFoundException Se o usurio no existir na viso
+     */
+    public boolean ehAmigo(String login, String amigo) throws UserNotFoundException {
+        return perfil(login).getAmigos().contains(amigo) && usuarios.containsKey(amigo);
+    }
+
+    /**
+     * Obtm a lista de amigos formatada.
+     *
+     * @param login Login do usurio
+     * @return String formatada com a lista de amigos
+     * @throws UserNotFoundException Se o usurio no existir na viso
+     */
+    public String getAmigos(String login) throws UserNotFoundException {
+        List<String> amigos = new ArrayList<>(perfil(login).getAmigos());
+        amigos.removeIf(amigo -> !usuarios.containsKey(amigo));
+        return GlobalFormatter.formatList(amigos);
+    }
+
+    /**
+     * Obtm as comunidades de que um usurio participa, formatadas.
+     *
+     * @param login Login do usurio
+     * @return String formatada com as comunidades
+     * @throws UserNotFoundException Se o usurio no existir na viso
+     */
+    public String getComunidades(String login) throws UserNotFoundException {
+        List<Community> participante = new ArrayList<>(perfil(login).getComunidadesParticipante());
+        participante.removeIf(comunidade -> comunidades.get(comunidade.getName()) != comunidade);
+        return GlobalFormatter.formatList(participante);
+    }
+
+    /**
+     * Obtm os membros de uma comunidade, formatados na ordem de entrada.
+     *
+     * @param nome Nome da comunidade
+     * @return String formatada com os membros
+     * @throws CommunityNotFoundException Se a comunidade no existir na viso
+     */
+    public String getMembrosComunidade(String nome) throws CommunityNotFoundException {
+        MemberSet membros = comunidade(nome).getMemberIds();
+        List<User> ativos = new ArrayList<>(membros.tamanho());
+        membros.paraCada(id -> {
+            User membro = usuario(id);
+            if (membro != null) {
+                ativos.add(membro);
+            }
+        });
+        return GlobalFormatter.formatList(ativos);
+    }
+
+    /**
+     * Obtm os amigos de um usurio que so membros de uma comunidade, formatados na
+     * ordem da lista de amigos.
+     *
+     * @param login Login do usurio
+     * @param nome Nome da comunidade
+     * @return String formatada com os amigos membros
+     * @throws UserNotFoundException Se o usurio no existir na viso
+     * @throws CommunityNotFoundException Se a comunidade no existir na viso
+     */
+    public String getAmigosNaComunidade(String login, String nome)
+            throws UserNotFoundException, CommunityNotFoundException {
+        List<String> amigos = perfil(login).getAmigos();
+        MemberSet membros = comunidade(nome).getMemberIds();
+        List<String> resultado = new ArrayList<>();
+        for (String amigo : amigos) {
+            User user = usuarios.get(amigo);
+            if (user != null && membros.contem(user.getId())) {
+                resultado.add(amigo);
+            }
+        }
+        return GlobalFormatter.formatList(resultado);
+    }
+
+    /**
+     * Fecha a viso e libera as verses antigas guardadas para ela.
+     */
+    @Override
+    public void close() {
+        if (!fechada) {
+            fechada = true;
+            SnapshotEpoch.fechar(epoca);
+        }
+    }
+
+    /**
+     * Obtm o perfil de um usurio na verso da viso.
+     */
+    private UserProfile perfil(String login) throws UserNotFoundException {
+        verificarAberta();
+        User user = usuarios.get(login);
+        if (user == null) {
+            throw new UserNotFoundException();
+        }
+        return user.getProfile().versao(epoca);
+    }
+
+    /**
+     * Obtm uma comunidade na verso da viso.
+     */
+    private Community comunidade(String nome) throws CommunityNotFoundException {
+        verificarAberta();
+        Community comunidade = comunidades.get(nome);
+        if (comunidade == null) {
+            throw new CommunityNotFoundException();
+        }
+        return comunidade.versao(epoca);
+    }
+
+    /**
+     * Resolve um id para um usurio ativo na abertura da viso.
+     */
+    private User usuario(int id) {
+        User user = id > 0 && id < usuariosPorId.size() ? usuariosPorId.get(id) : null;
+        return user != null && usuarios.get(user.getName()) == user ? user : null;
+    }
+
+    private void verificarAberta() {
+        if (fechada) {
+            throw new IllegalStateException("Viso de leitura fechada.");
+        }
+    }
+}
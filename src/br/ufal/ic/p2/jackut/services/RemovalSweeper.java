@@ -0,0 +1,242 @@
+package br.ufal.ic.p2.jackut.services;
+
+import br.ufal.ic.p2.jackut.models.*;
+
+import java.util.*;
+
+/**
+ * Varredura incremental de usurios removidos (tombstones) no sistema Jackut.
+ *
+ * <p>Ao remover um usurio, o sistema apenas o marca como removido e o agenda aqui.
+ * Os vnculos com outros usurios (amizades, fs, paqueras, inimigos, comunidades
+ * e recados enviados) so desfeitos depois, em lotes de tamanho limitado, para que
+ * a remoo de usurios muito conectados no bloqueie a requisio.</p>
+ *
+ * <p>Enquanto a varredura no termina, as consultas filtram os usurios removidos.</p>
+ *
+ * @author Marcos Melo
+ * @version 1.0
+ */
+public class RemovalSweeper {
+    private final UserService userService;
+    private final Deque<Remocao> pendentes;
+    private final Set<String> loginsRemovidos;
+
+    /**
+     * Remoo em andamento de um nico usurio. Os passos so gerados apenas
+     * quando a varredura chega a este usurio.
+     */
+    private static class Remocao {
+        private final User usuario;
+        private Deque<Runnable> passos;
+
+        private Remocao(User usuario) {
+            this.usuario = usuario;
+        }
+    }
+
+    /**
+     * Construtor da varredura.
+     *
+     * @param userService Servio dono da lista de usurios
+     */
+    public RemovalSweeper(UserService userService) {
+        this.userService = userService;
+        this.pendentes = new ArrayDeque<>();
+        this.loginsRemovidos = new HashSet<>();
+    }
+
+    /**
+     * Agenda a varredura de um usurio j marcado como removido.
+     *
+     * @param usuario Usurio removido
+     */
+    public void agendar(User usuario) {
+        if (loginsRemovidos.add(usuario.getName())) {
+            pendentes.offer(new Remocao(usuario));
+        }
+    }
+
+    /**
+     * Verifica se um login pertence a um usurio removido ainda no varrido.
+     *
+     * @param login Login a ser verificado
+     * @return true se o login estiver aguardando varredura
+     */
+    public boolean isRemovido(String login) {
+        return loginsRemovidos.contains(login);
+    }
+
+    /**
+     * Verifica se h remoes aguardando varredura.
+     *
+     * @return true se houver usurios removidos ainda no varridos
+     */
+    public boolean temPendentes() {
+        return !pendentes.isEmpty();
+    }
+
+    /**
+     * Executa um lote da varredura.
+     *
+     * @param limite Nmero mximo de passos (vnculos ou caixas de recados) a processar
+     * @return Nmero de passos efetivamente processados
+     */
+    public int varrer(int limite) {
+        int feitos = 0;
+        while (feitos < limite && !pendentes.isEmpty()) {
+            Remocao remocao = pendentes.peek();
+            if (remocao.passos == null) {
+                remocao.passos = gerarPassos(remocao.usuario);
+            }
+            while (feitos < limite && !remocao.passos.isEmpty()) {
+                remocao.passos.poll().run();
+                feitos++;
+            }
+            if (remocao.passos.isEmpty()) {
+                pendentes.poll();
+                finalizar(remocao.usuario);
+            }
+        }
+        return feitos;
+    }
+
+    /**
+     * Conclui imediatamente a varredura de um login, se estiver pendente.
+     * Usado quando um novo usurio  criado com o login de um usurio removido.
+     *
+     * @param login Login do usurio removido
+     */
+    public void concluir(String login) {
+        if (!loginsRemovidos.contains(login)) {
+            return;
+        }
+        for (Iterator<Remocao> it = pendentes.iterator(); it.hasNext(); ) {
+            Remocao remocao = it.next();
+            if (remocao.usuario.getName().equals(login)) {
+                Deque<Runnable> passos = remocao.passos != null ? remocao.passos : gerarPassos(remocao.usuario);
+                while (!passos.isEmpty()) {
+                    passos.poll().run();
+                }
+                it.remove();
+                finalizar(remocao.usuario);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Conclui todas as remoes pendentes.
+     */
+    public void concluirTodas() {
+        while (!pendentes.isEmpty()) {
+            varrer(Integer.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Descarta todas as remoes pendentes (usado ao zerar o sistema).
+     */
+    public void limpar() {
+        pendentes.clear();
+        loginsRemovidos.clear();
+    }
+
+    /**
+     * Gera os passos de varredura de um usurio: um passo por vnculo, incluindo os
+     * perfis que guardam recados, paqueras ou convites dele (suas referncias).
+     *
+     * @param usuario Usurio removido
+     * @return Fila de passos a executar
+     */
+    private Deque<Runnable> gerarPassos(User usuario) {
+        UserProfile perfil = usuario.getProfile();
+        String login = usuario.getName();
+        Deque<Runnable> passos = new ArrayDeque<>();
+
+        for (User inimigo : new ArrayList<>(perfil.getInimigos())) {
+            passos.offer(() -> {
+                inimigo.getProfile().preservar();
+                inimigo.getProfile().removerInimigo(usuario);
+            });
+        }
+        for (String amigo : new ArrayList<>(perfil.getAmigos())) {
+            passos.offer(() -> {
+                User userAmigo = userService.buscarAtivo(amigo);
+                if (userAmigo != null) {
+                    userAmigo.getProfile().preservar();
+                    userAmigo.getProfile().removerAmizade(login, usuario.getId());
+                }
+            });
+        }
+        for (User idolo : new ArrayList<>(perfil.getIdolos())) {
+            passos.offer(() -> {
+                idolo.getProfile().preservar();
+                idolo.getProfile().removerFa(usuario);
+            });
+        }
+        for (User fa : new ArrayList<>(perfil.getFas())) {
+            passos.offer(() -> {
+                fa.getProfile().preservar();
+                fa.getProfile().removerIdolo(usuario);
+            });
+        }
+        for (Community comunidade : new ArrayList<>(perfil.getComunidadesParticipante())) {
+            passos.offer(() -> {
+                comunidade.preservar();
+                comunidade.removeMember(usuario);
+            });
+        }
+        for (Community comunidade : new ArrayList<>(perfil.getComunidadesDono())) {
+            comunidade.getMemberIds().paraCada(id -> passos.offer(() -> {
+                User member = userService.findUserById(id);
+                comunidade.preservar();
+                comunidade.removeMember(id);
+                if (member != null) {
+                    member.getProfile().preservar();
+                    member.getProfile().sairComunidade(comunidade);
+                }
+            }));
+        }
+        // Recados enviados, paqueras e convites pendentes ficam nos perfis dos outros usurios
+        for (User outro : new ArrayList<>(perfil.getReferencias())) {
+            if (outro == usuario) {
+                continue;
+            }
+            passos.offer(() -> {
+                UserProfile outroPerfil = outro.getProfile();
+                outroPerfil.preservar();
+                outroPerfil.getRecados().removeIf(note -> note.getRemetente() == usuario);
+                outroPerfil.removerPaquera(usuario);
+                outroPerfil.getAmigosPendentes().remove(login);
+            });
+        }
+        // E o usurio deixa de constar nas referncias de quem ele guardava
+        Set<User> referenciados = new LinkedHashSet<>(perfil.getPaqueras());
+        for (Note recado : perfil.getRecados()) {
+            referenciados.add(recado.getRemetente());
+        }
+        for (String convidado : perfil.getAmigosPendentes()) {
+            User user = userService.buscarAtivo(convidado);
+            if (user != null) {
+                referenciados.add(user);
+            }
+        }
+        for (User referenciado : referenciados) {
+            passos.offer(() -> referenciado.getProfile().removerReferencia(usuario));
+        }
+        return passos;
+    }
+
+    /**
+     * Apaga os dados restantes do usurio e o retira definitivamente do sistema.
+     *
+     * @param usuario Usurio cuja varredura terminou
+     */
+    private void finalizar(User usuario) {
+        usuario.getProfile().preservar();
+        usuario.getProfile().clear();
+        userService.descartarUsuario(usuario);
+        loginsRemovidos.remove(usuario.getName());
+    }
+}
@@ -0,0 +1,175 @@
+package br.ufal.ic.p2.jackut.services;
+
+import java.text.Normalizer;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * ndice invertido para busca textual por palavras-chave no sistema Jackut.
+ *
+ * <p>Cada documento (um perfil de usurio ou uma comunidade)  dividido em termos
+ * normalizados: letras minsculas e sem acentos. Para cada termo, o ndice guarda a lista
+ * de documentos em que ele aparece e quantas vezes aparece. As buscas pontuam os
+ * documentos por TF-IDF e devolvem apenas os k melhores, sem ordenar todos os
+ * resultados.</p>
+ *
+ * <p>O ndice  atualizado de forma incremental: reindexar um documento retira
+ * apenas as suas prprias entradas das listas de postagem.</p>
+ *
+ * <p>Os mtodos so sincronizados, pois perfis de usurios diferentes podem ser
+ * reindexados ao mesmo tempo.</p>
+ *
+ * @param <T> Tipo dos documentos indexados
+ * @author Marcos Melo
+ * @version 1.0
+ */
+public class SearchIndex<T> {
+    private final Map<String, Map<T, Integer>> postagens;
+    private final Map<T, Set<String>> termosPorDocumento;
+    private final Comparator<T> desempate;
+
+    /**
+     * Resultado pontuado de uma busca.
+     */
+    private static class Resultado<T> {
+        private final T documento;
+        private final double pontuacao;
+
+        private Resultado(T documento, double pontuacao) {
+            this.documento = documento;
+            this.pontuacao = pontuacao;
+        }
+    }
+
+    /**
+     * Cria um ndice vazio.
+     *
+     * @param chave Funo que obtm o nome do documento, usado para desempatar resultados
+     */
+    public SearchIndex(Function<T, String> chave) {
+        this.postagens = new HashMap<>();
+        this.termosPorDocumento = new HashMap<>();
+        this.desempate = Comparator.comparing(chave);
+    }
+
+    /**
+     * Indexa (ou reindexa) um documento com os textos fornecidos.
+     *
+     * @param documento Documento a ser indexado
+     * @param textos Textos do documento
+     */
+    public synchronized void indexar(T documento, Collection<String> textos) {
+        remover(documento);
+
+        Map<String, Integer> frequencias = new HashMap<>();
+        for (String texto : textos) {
+            for (String termo : tokenizar(texto)) {
+                frequencias.merge(termo, 1, Integer::sum);
+            }
+        }
+        if (frequencias.isEmpty()) {
+            return;
+        }
+        for (Map.Entry<String, Integer> entrada : frequencias.entrySet()) {
+            postagens.computeIfAbsent(entrada.getKey(), t -> new HashMap<>())
+                    .put(documento, entrada.getValue());
+        }
+        termosPorDocumento.put(documento, frequencias.keySet());
+    }
+
+    /**
+     * Retira um documento do ndice.
+     *
+     * @param documento Documento a ser retirado
+     */
+    public synchronized void remover(T documento) {
+        Set<String> termos = termosPorDocumento.remove(documento);
+        if (termos == null) {
+            return;
+        }
+        for (String termo : termos) {
+            Map<T, Integer> lista = postagens.get(termo);
+            lista.remove(documento);
+            if (lista.isEmpty()) {
+                postagens.remove(termo);
+            }
+        }
+    }
+
+    /**
+     * Busca os documentos mais relevantes para uma consulta.
+     * Basta o documento conter um dos termos da consulta para ser considerado.
+     *
+     * @param consulta Palavras-chave da busca
+     * @param inicio Posio do primeiro resultado
+     * @param limite Quantidade mxima de resultados
+     * @return Documentos da pgina, do mais para o menos relevante
+     */
+    public synchronized List<T> buscar(String consulta, int inicio, int limite) {
+        Map<T, Double> pontuacoes = new HashMap<>();
+        int total = termosPorDocumento.size();
+        for (String termo : new LinkedHashSet<>(tokenizar(consulta))) {
+            Map<T, Integer> lista = postagens.get(termo);
+            if (lista == null) {
+                continue;
+            }
+            double idf = Math.log(1.0 + (double) total / lista.size());
+            for (Map.Entry<T, Integer> entrada : lista.entrySet()) {
+                pontuacoes.merge(entrada.getKey(), entrada.getValue() * idf, Double::sum);
+            }
+        }
+
+        // Mantm apenas os k melhores em um heap cujo topo  o pior deles
+        int k = (int) Math.min(pontuacoes.size(), (long) inicio + limite);
+        Comparator<Resultado<T>> ordem = Comparator
+                .comparingDouble((Resultado<T> r) -> r.pontuacao).reversed()
+                .thenComparing(r -> r.documento, desempate);
+        PriorityQueue<Resultado<T>> melhores = new PriorityQueue<>(Math.max(1, k), ordem.reversed());
+        for (Map.Entry<T, Double> entrada : pontuacoes.entrySet()) {
+            Resultado<T> resultado = new Resultado<>(entrada.getKey(), entrada.getValue());
+            if (melhores.size() < k) {
+                melhores.offer(resultado);
+            } else if (k > 0 && ordem.compare(resultado, melhores.peek()) < 0) {
+                melhores.poll();
+                melhores.offer(resultado);
+            }
+        }
+
+        List<Resultado<T>> ordenados = new ArrayList<>(melhores);
+        ordenados.sort(ordem);
+        List<T> pagina = new ArrayList<>();
+        for (int i = inicio; i < ordenados.size(); i++) {
+            pagina.add(ordenados.get(i).documento);
+        }
+        return pagina;
+    }
+
+    /**
+     * Esvazia o ndice.
+     */
+    public synchronized void limpar() {
+        postagens.clear();
+        termosPorDocumento.clear();
+    }
+
+    /**
+     * Divide um texto em termos normalizados (minsculos e sem acentos).
+     *
+     * @param texto Texto a ser dividido
+     * @return Lista de termos, na ordem em que aparecem
+     */
+    static List<String> tokenizar(String texto) {
+        List<String> termos = new ArrayList<>();
+        if (texto == null) {
+            return termos;
+        }
+        String normalizado = Normalizer.normalize(texto.toLowerCase(Locale.ROOT), Normalizer.Form.NFD)
+                .replaceAll("\\p{M}", "");
+        for (String termo : normalizado.split("[^\\p{L}\\p{N}]+")) {
+            if (!termo.isEmpty()) {
+                termos.add(termo);
+            }
+        }
+        return termos;
+    }
+}
@@ -0,0 +1,207 @@
+package br.ufal.ic.p2.jackut.services;
+
+import br.ufal.ic.p2.jackut.models.User;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.IntFunction;
+import java.util.function.IntSupplier;
+
+/**
+ * Busca de caminhos de amizade entre usurios (graus de separao) no sistema Jackut.
+ *
+ * <p>A busca  uma BFS bidirecional sobre os vetores de ids dos amigos: a cada passo
+ * expande-se o nvel da fronteira menor, at que as duas buscas se encontrem. As marcas
+ * de visita ficam em vetores de inteiros reaproveitados por thread (com um contador
+ * de gerao, para no precisar limp-los a cada consulta).</p>
+ *
+ * <p>Os vetores de ids so lidos na verso de uma poca de leitura aberta por quem
+ * chama a busca (ver {@link br.ufal.ic.p2.jackut.Utils.SnapshotEpoch}), e a busca no
+ * impede que amizades sejam criadas ou desfeitas enquanto roda.</p>
+ *
+ * <p>Cada consulta  limitada a {@value #MAX_GRAUS} graus de separao e a
+ * {@value #ORCAMENTO_MS} ms, para que nenhuma consulta monopolize um ncleo. Vrias
+ * consultas podem ser executadas em paralelo com {@link #buscarVarios(int, int[], long)}.</p>
+ *
+ * @author Marcos Melo
+ * @version 1.0
+ */
+public class SeparationSearch {
+    /** Nmero mximo de amizades no caminho */
+    static final int MAX_GRAUS = 6;
+
+    /** Tempo mximo de uma consulta, em milissegundos */
+    static final long ORCAMENTO_MS = 200;
+
+    private static final ExecutorService executor = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), tarefa -> {
+                Thread thread = new Thread(tarefa, "jackut-separacao");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    private static final ThreadLocal<Area> areas = ThreadLocal.withInitial(Area::new);
+
+    private final IntFunction<User> diretorio;
+    private final IntSupplier maiorId;
+
+    /**
+     * rea de trabalho de uma thread: marcas de visita, pais e filas das duas buscas.
+     */
+    private static class Area {
+        private int geracao;
+        private int[] marcaOrigem = new int[0], marcaDestino = new int[0];
+        private int[] paiOrigem = new int[0], paiDestino = new int[0];
+        private int[] filaOrigem = new int[0], filaDestino = new int[0];
+
+        private void preparar(int tamanho) {
+            if (marcaOrigem.length < tamanho) {
+                int novo = Math.max(tamanho, marcaOrigem.length * 2);
+                marcaOrigem = new int[novo];
+                marcaDestino = new int[novo];
+                paiOrigem = new int[novo];
+                paiDestino = new int[novo];
+                filaOrigem = new int[novo];
+                filaDestino = new int[novo];
+                geracao = 0;
+            }
+            if (++geracao == Integer.MAX_VALUE) {
+                Arrays.fill(marcaOrigem, 0);
+                Arrays.fill(marcaDestino, 0);
+                geracao = 1;
+            }
+        }
+    }
+
+    /**
+     * Construtor da busca.
+     *
+     * @param diretorio Funo que obtm um usurio a partir do id
+     * @param maiorId Funo que obtm o limite superior (exclusivo) dos ids
+     */
+    public SeparationSearch(IntFunction<User> diretorio, IntSupplier maiorId) {
+        this.diretorio = diretorio;
+        this.maiorId = maiorId;
+    }
+
+    /**
+     * Busca o menor caminho de amizades entre dois usurios.
+     *
+     * @param origem Id do usurio de origem
+     * @param destino Id do usurio de destino
+     * @param epoca poca de leitura aberta
+     * @return Ids do caminho, da origem ao destino, ou um vetor vazio se no houver caminho
+     *         dentro dos limites de profundidade e de tempo
+     */
+    public int[] buscar(int origem, int destino, long epoca) {
+        if (origem == destino) {
+            return new int[]{origem};
+        }
+        Area area = areas.get();
+        area.preparar(maiorId.getAsInt());
+        int geracao = area.geracao;
+        long prazo = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ORCAMENTO_MS);
+
+        int[] marcaO = area.marcaOrigem, marcaD = area.marcaDestino;
+        int[] paiO = area.paiOrigem, paiD = area.paiDestino;
+        int[] filaO = area.filaOrigem, filaD = area.filaDestino;
+        marcaO[origem] = geracao;
+        paiO[origem] = 0;
+        marcaD[destino] = geracao;
+        paiD[destino] = 0;
+        filaO[0] = origem;
+        filaD[0] = destino;
+        // Cada fila guarda o nvel atual em [inicio, fim)
+        int inicioO = 0, fimO = 1, inicioD = 0, fimD = 1;
+        int graus = 0;
+        int expandidos = 0;
+
+        while (inicioO < fimO && inicioD < fimD && graus < MAX_GRAUS) {
+            boolean pelaOrigem = fimO - inicioO <= fimD - inicioD;
+            int[] fila = pelaOrigem ? filaO : filaD;
+            int[] marca = pelaOrigem ? marcaO : marcaD, outraMarca = pelaOrigem ? marcaD : marcaO;
+            int[] pai = pelaOrigem ? paiO : paiD;
+            int inicio = pelaOrigem ? inicioO : inicioD, fim = pelaOrigem ? fimO : fimD;
+            int proximo = fim;
+            graus++;
+
+            for (int i = inicio; i < fim; i++) {
+                int atual = fila[i];
+                User user = diretorio.apply(atual);
+                if (user == null) {
+                    continue;
+                }
+                for (int vizinho : user.getProfile().getIdsAmigos(epoca)) {
+                    if (vizinho >= marca.length || marca[vizinho] == geracao) {
+                        continue;
+                    }
+                    User amigo = diretorio.apply(vizinho);
+                    if (amigo == null || amigo.isRemovido()) {
+                        continue;
+                    }
+                    marca[vizinho] = geracao;
+                    pai[vizinho] = atual;
+                    if (outraMarca[vizinho] == geracao) {
+                        return montarCaminho(vizinho, paiO, paiD);
+                    }
+                    fila[proximo++] = vizinho;
+                }
+                if ((++expandidos & 255) == 0 && System.nanoTime() > prazo) {
+                    return new int[0];
+                }
+            }
+
+            if (pelaOrigem) {
+                inicioO = fim;
+                fimO = proximo;
+            } else {
+                inicioD = fim;
+                fimD = proximo;
+            }
+        }
+        return new int[0];
+    }
+
+    /**
+     * Busca, em paralelo, os caminhos de um usurio at vrios outros.
+     *
+     * @param origem Id do usurio de origem
+     * @param destinos Ids dos usurios de destino
+     * @param epoca poca de leitura aberta
+     * @return Caminhos na mesma ordem dos destinos (vazios quando no encontrados)
+     */
+    public List<int[]> buscarVarios(int origem, int[] destinos, long epoca) {
+        List<Future<int[]>> tarefas = new ArrayList<>(destinos.length);
+        for (int destino : destinos) {
+            tarefas.add(executor.submit(() -> buscar(origem, destino, epoca)));
+        }
+        List<int[]> caminhos = new ArrayList<>(destinos.length);
+        for (Future<int[]> tarefa : tarefas) {
+            try {
+                caminhos.add(tarefa.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                caminhos.add(new int[0]);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        return caminhos;
+    }
+
+    /**
+     * Monta o caminho a partir do ponto de encontro das duas buscas.
+     */
+    private static int[] montarCaminho(int encontro, int[] paiO, int[] paiD) {
+        List<Integer> caminho = new ArrayList<>();
+        for (int id = encontro; id != 0; id = paiO[id]) {
+            caminho.add(0, id);
+        }
+        for (int id = paiD[encontro]; id != 0; id = paiD[id]) {
+            caminho.add(id);
+        }
+        return caminho.stream().mapToInt(Integer::intValue).toArray();
+    }
+}
@@ -4,18 +4,17 @@ import br.ufal.ic.p2.jackut.exceptions.Session.*;
 import br.ufal.ic.p2.jackut.models.User;
 import br.ufal.ic.p2.jackut.persistence.*;
 import br.ufal.ic.p2.jackut.exceptions.User.*;
+import br.ufal.ic.p2.jackut.Utils.StringPool;
 
 import java.util.ArrayList;
 import java.util.List;
 
 /**
  * Servio para gesto de sesses de usurio no sistema Jackut.
- * Responsvel por autenticar usurios, manter sesses ativas e persistir essas informaes.
+ * Responsvel por autenticar usurios e manter sesses ativas; a gravao  feita pelo sistema.
+ * Os mtodos so sincronizados, pois sesses de usurios diferentes podem ser abertas em paralelo.
  */
 public class SessionService {
-    /** Objeto responsvel pela persistncia das sesses */
-    private final SessionDAO sessionDAO;
-
     /** Servio de usurios utilizado para autenticao */
     private final UserService userService;
 
@@ -25,14 +24,14 @@ public class SessionService {
     /**
      * Construtor do servio de sesses.
      *
-     * @param sessionDAO DAO responsvel pela persistncia das sesses
+     * @param sessionDAO DAO do qual as sesses so carregadas
      * @param userService Servio de usurios para validao de login e senha
      */
     public SessionService(SessionDAO sessionDAO, UserService userService) {
-        this.sessionDAO = sessionDAO;
         this.userService = userService;
         this.activeSessions = sessionDAO.load();
         if (activeSessions == null) activeSessions = new ArrayList<>();
+        activeSessions.replaceAll(StringPool::canonico);
     }
 
     /**
@@ -44,7 +43,7 @@ public class SessionService {
      * @throws SessionOpeningException Se login ou senha estiverem incorretos
      * @throws UserNotFoundException Se o usurio no for encontrado
      */
-    public String abrirSessao(String login, String senha) throws SessionOpeningException, UserNotFoundException {
+    public synchronized String abrirSessao(String login, String senha) throws SessionOpeningException, UserNotFoundException {
         if (login == null || senha == null) {
             throw new SessionOpeningException();
         }
@@ -58,7 +57,6 @@ public class SessionService {
             if (user != null && user.getName().equals(login)) {
                 if (user.getPassword().equals(senha)) {
                     activeSessions.add(user.getLogin());
-                    saveData();
                     return login;
                 } else {
                     throw new SessionOpeningException();
@@ -74,7 +72,7 @@ public class SessionService {
      * @param sessionId ID da sesso a ser verificada
      * @return true se a sesso estiver ativa, false caso contrrio
      */
-    public boolean isSessionValid(String sessionId) {
+    public synchronized boolean isSessionValid(String sessionId) {
         return sessionId != null && activeSessions.contains(sessionId);
     }
 
@@ -83,25 +81,16 @@ public class SessionService {
      *
      * @param sessionId ID da sesso a ser encerrada
      */
-    public void fecharSessao(String sessionId) {
+    public synchronized void fecharSessao(String sessionId) {
         activeSessions.remove(sessionId);
-        saveData();
     }
 
     /**
      * Remove todas as sesses ativas.
      * til para reincio do sistema ou logout geral.
      */
-    public void limparSessoes() {
+    public synchronized void limparSessoes() {
         activeSessions.clear();
-        saveData();
-    }
-
-    /**
-     * Salva a lista atual de sesses no armazenamento persistente.
-     */
-    private void saveData() {
-        sessionDAO.save(activeSessions);
     }
 
     /**
@@ -109,7 +98,7 @@ public class SessionService {
      *
      * @return Lista contendo os logins dos usurios com sesses ativas
      */
-    public List<String> getActiveSessions() {
+    public synchronized List<String> getActiveSessions() {
         return activeSessions;
     }
 }
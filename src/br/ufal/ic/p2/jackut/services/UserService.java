@@ -3,30 +3,132 @@ package br.ufal.ic.p2.jackut.services;
 import br.ufal.ic.p2.jackut.models.*;
 import br.ufal.ic.p2.jackut.persistence.UserDAO;
 import br.ufal.ic.p2.jackut.Utils.GlobalFormatter;
+import br.ufal.ic.p2.jackut.Utils.Leaderboard;
+import br.ufal.ic.p2.jackut.Utils.Pagination;
+import br.ufal.ic.p2.jackut.Utils.ResponseCache;
+import br.ufal.ic.p2.jackut.Utils.SnapshotEpoch;
+import br.ufal.ic.p2.jackut.Utils.SortedIntArrays;
+import br.ufal.ic.p2.jackut.Utils.StringPool;
 import br.ufal.ic.p2.jackut.exceptions.User.*;
 import br.ufal.ic.p2.jackut.exceptions.Message.*;
 import br.ufal.ic.p2.jackut.exceptions.Profile.*;
 import br.ufal.ic.p2.jackut.exceptions.Note.*;
 import br.ufal.ic.p2.jackut.exceptions.Relationship.*;
+import br.ufal.ic.p2.jackut.exceptions.Search.*;
 
+import java.io.IOException;
 import java.util.*;
+import java.util.stream.Stream;
 
 /**
  * Servio para gesto de usurios, perfis, recados e relacionamentos no sistema Jackut.
  */
 public class UserService {
-    private final UserDAO userDAO;
+    /** Nmero mximo de passos de varredura executados a cada lote */
+    private static final int LOTE_VARREDURA = 64;
+
     private List<User> users;
+    private final List<User> usersById;
+    private final Map<String, User> usersByLogin;
+    private final RemovalSweeper sweeper;
+    private final AttributeIndex indiceAtributos;
+    private final SearchIndex<User> indiceTextual;
+    private final PrefixIndex indiceLogins;
+    private final FriendSuggester sugestoes;
+    private final SeparationSearch separacao;
+    private final Leaderboard rankingIdolos;
+    private final ResponseCache respostas;
 
     /**
      * Constri um UserService com o UserDAO fornecido.
      *
-     * @param userDAO DAO para persistncia de usurios
+     * @param userDAO DAO do qual os usurios so carregados
      */
     public UserService(UserDAO userDAO) {
-        this.userDAO = userDAO;
         this.users = userDAO.load();
         if (users == null) users = new ArrayList<>();
+
+        this.usersById = new ArrayList<>();
+        usersById.add(null); // o id 0 indica usurio sem id
+        this.usersByLogin = new HashMap<>();
+        this.sweeper = new RemovalSweeper(this);
+        this.indiceAtributos = new AttributeIndex();
+        this.indiceTextual = new SearchIndex<>(User::getName);
+        this.indiceLogins = new PrefixIndex();
+        this.sugestoes = new FriendSuggester(this);
+        this.separacao = new SeparationSearch(this::findUserById, usersById::size);
+        this.rankingIdolos = new Leaderboard();
+        this.respostas = new ResponseCache();
+
+        for (User user : users) {
+            user.canonizar();
+        }
+        indexar();
+    }
+
+    /**
+     * Reconstri os ndices, contadores e a varredura pendente a partir da lista de usurios.
+     * Os ndices devem estar vazios.
+     */
+    private void indexar() {
+        for (User user : users) {
+            if (!user.isRemovido()) usersByLogin.put(user.getName(), user);
+        }
+        for (User user : users) {
+            if (user.getId() > 0 && (user.getId() >= usersById.size() || usersById.get(user.getId()) == null)) {
+                registrarId(user, user.getId());
+            }
+        }
+        for (User user : users) {
+            if (findUserById(user.getId()) != user) registrarId(user, usersById.size());
+        }
+
+        for (User user : users) {
+            user.getProfile().reconstruirIdsAmigos(login -> {
+                User amigo = usersByLogin.get(login);
+                return amigo != null ? amigo.getId() : 0;
+            });
+        }
+
+        registrarReferencias();
+        for (User user : users) {
+            if (user.isRemovido()) sweeper.agendar(user);
+        }
+
+        for (User user : users) {
+            user.getProfile().iniciarContadores();
+            if (!user.isRemovido()) atualizarRankingIdolo(user);
+        }
+        for (User user : users) {
+            if (user.isRemovido()) continue;
+            indiceAtributos.indexar(user);
+            indexarTexto(user);
+            indiceLogins.adicionar(user.getName());
+        }
+    }
+
+    /**
+     * Reconstri as referncias de cada perfil (ver {@link UserProfile#getReferencias()})
+     * a partir dos recados, paqueras e convites de amizade guardados nos outros perfis.
+     */
+    private void registrarReferencias() {
+        Map<String, User> todos = new HashMap<>();
+        for (User user : users) {
+            todos.putIfAbsent(user.getName(), user);
+        }
+        for (User user : users) {
+            UserProfile perfil = user.getProfile();
+            for (Note recado : perfil.getRecados()) {
+                recado.getRemetente().getProfile().registrarReferencia(user);
+            }
+            for (User paquera : perfil.getPaqueras()) {
+                paquera.getProfile().registrarReferencia(user);
+            }
+            for (String login : perfil.getAmigosPendentes()) {
+                User convidado = todos.get(login);
+                if (convidado != null) convidado.getProfile().registrarReferencia(user);
+            }
+        }
     }
 
     /**
@@ -47,14 +149,17 @@ public class UserService {
             throw new InvalidPasswordException();
         }
 
-        for (User user : users) {
-            if (user.getName().equals(login) || user.getName().equals(nome)) {
-                throw new AccountAlreadyExistsException();
-            }
+        sweeper.concluir(nome);
+
+        if (usersByLogin.containsKey(login) || usersByLogin.containsKey(nome)) {
+            throw new AccountAlreadyExistsException();
         }
 
-        users.add(new User(nome, senha, login));
-        saveData();
+        User user = new User(StringPool.canonico(nome), senha, login);
+        registrarId(user, usersById.size());
+        users.add(user);
+        usersByLogin.put(user.getName(), user);
+        indiceLogins.adicionar(user.getName());
     }
 
     /**
@@ -65,12 +170,32 @@ public class UserService {
      * @throws UserNotFoundException Se o usurio no for encontrado
      */
     public User findUserByLogin(String login) throws UserNotFoundException {
-        for (User user : users) {
-            if (user.getName().equals(login)) {
-                return user;
-            }
+        User user = usersByLogin.get(login);
+        if (user == null) {
+            throw new UserNotFoundException();
         }
-        throw new UserNotFoundException();
+        return user;
+    }
+
+    /**
+     * Busca um usurio ativo (no removido) pelo login, sem lanar exceo.
+     *
+     * @param login Login do usurio
+     * @return Usurio encontrado ou null
+     */
+    User buscarAtivo(String login) {
+        return usersByLogin.get(login);
+    }
+
+    /**
+     * Busca um usurio pelo seu id numrico.
+     * Usurios removidos ainda no varridos tambm so retornados.
+     *
+     * @param id Id do usurio
+     * @return Usurio correspondente ou null se no existir
+     */
+    public User findUserById(int id) {
+        return id > 0 && id < usersById.size() ? usersById.get(id) : null;
     }
 
     /**
@@ -92,10 +217,13 @@ public class UserService {
             user.setProfile(profile);
         }
 
+        // Valida antes de alterar, para que o perfil e os ndices nunca divirjam
+        String anterior = profile.getAtributo(atributo);
         if (!profile.setAtributo(atributo, valor)) {
             throw new InvalidAttributeException();
         }
-        saveData();
+        indiceAtributos.atualizar(user, atributo, anterior, valor);
+        indexarTexto(user);
     }
 
     /**
@@ -131,6 +259,66 @@ public class UserService {
         return valor;
     }
 
+    /**
+     * Estima a memria ocupada pelos atributos do perfil de um usurio.
+     *
+     * @param login Login do usurio
+     * @return Tamanho aproximado em bytes
+     * @throws UserNotFoundException Se o usurio no for encontrado
+     */
+    public long getMemoriaAtributos(String login) throws UserNotFoundException {
+        return findUserByLogin(login).getProfile().getTamanhoAtributosEmBytes();
+    }
+
+    /**
+     * Busca os usurios cujo atributo possui um determinado valor.
+     *
+     * @param atributo Nome do atributo
+     * @param valor Valor procurado
+     * @param inicio Posio do primeiro resultado (a partir de 0)
+     * @param limite Quantidade mxima de resultados
+     * @return Logins dos usurios encontrados, formatados
+     * @throws InvalidPageException Se os parmetros da pgina forem invlidos
+     */
+    public String buscarUsuariosPorAtributo(String atributo, String valor, int inicio, int limite)
+            throws InvalidPageException {
+        Pagination.validar(inicio, limite);
+        return formatarLogins(indiceAtributos.buscarPorValor(atributo, valor, inicio, limite));
+    }
+
+    /**
+     * Busca os usurios que possuem um atributo preenchido.
+     *
+     * @param atributo Nome do atributo
+     * @param inicio Posio do primeiro resultado (a partir de 0)
+     * @param limite Quantidade mxima de resultados
+     * @return Logins dos usurios encontrados, formatados
+     * @throws InvalidPageException Se os parmetros da pgina forem invlidos
+     */
+    public String buscarUsuariosComAtributo(String atributo, int inicio, int limite)
+            throws InvalidPageException {
+        Pagination.validar(inicio, limite);
+        return formatarLogins(indiceAtributos.buscarPreenchidos(atributo, inicio, limite));
+    }
+
+    /**
+     * Busca usurios por palavras-chave nos valores dos atributos de perfil.
+     *
+     * @param consulta Palavras-chave da busca
+     * @param inicio Posio do primeiro resultado (a partir de 0)
+     * @param limite Quantidade mxima de resultados
+     * @return Logins dos usurios encontrados, do mais para o menos relevante
+     * @throws InvalidPageException Se os parmetros da pgina forem invlidos
+     */
+    public String buscarUsuarios(String consulta, int inicio, int limite) throws InvalidPageException {
+        Pagination.validar(inicio, limite);
+        List<String> logins = new ArrayList<>();
+        for (User user : indiceTextual.buscar(consulta, inicio, limite)) {
+            logins.add(user.getName());
+        }
+        return GlobalFormatter.formatList(logins);
+    }
+
     // ========== MTODOS DE RELACIONAMENTOS ==========
 
     /**
@@ -157,15 +345,19 @@ public class UserService {
         if (user.getProfile().getAmigos().contains(loginAmigo))
             throw new UserAlreadyAddedException("amigo");
 
+        // As listas guardam os logins cannicos dos usurios, e no as strings recebidas
         if (amigo.getProfile().getAmigosPendentes().contains(loginUsuario)) {
-            user.getProfile().getAmigos().add(loginAmigo);
-            amigo.getProfile().getAmigos().add(loginUsuario);
+            user.getProfile().adicionarAmizade(amigo);
+            amigo.getProfile().adicionarAmizade(user);
             amigo.getProfile().getAmigosPendentes().remove(loginUsuario);
             user.getProfile().getAmigosPendentes().remove(loginAmigo);
+            sugestoes.invalidarAmizade(user, amigo);
         } else {
-            user.getProfile().getAmigosPendentes().add(loginAmigo);
+            user.getProfile().getAmigosPendentes().add(amigo.getName());
+            amigo.getProfile().registrarReferencia(user);
+            sugestoes.invalidar(user);
+            sugestoes.invalidar(amigo);
         }
-        saveData();
     }
 
     /**
@@ -186,9 +378,9 @@ public class UserService {
             throw FriendshipException.notFriends();
         }
 
-        user.getProfile().getAmigos().remove(loginAmigo);
-        amigo.getProfile().getAmigos().remove(loginUsuario);
-        saveData();
+        user.getProfile().removerAmizade(amigo.getName(), amigo.getId());
+        amigo.getProfile().removerAmizade(user.getName(), user.getId());
+        sugestoes.invalidarAmizade(user, amigo);
     }
 
     /**
@@ -201,7 +393,7 @@ public class UserService {
      */
     public boolean ehAmigo(String loginUsuario, String loginAmigo) throws UserNotFoundException {
         User user = findUserByLogin(loginUsuario);
-        return user.getProfile().getAmigos().contains(loginAmigo);
+        return user.getProfile().getAmigos().contains(loginAmigo) && !sweeper.isRemovido(loginAmigo);
     }
 
     /**
@@ -213,7 +405,102 @@ public class UserService {
      */
     public String getAmigos(String login) throws UserNotFoundException {
         User user = findUserByLogin(login);
-        return GlobalFormatter.formatList(user.getProfile().getAmigos());
+        String chave = "amigos:" + login;
+        long epoca = respostas.getEpoca();
+        long versao = user.getProfile().getVersaoAmigos();
+        String resposta = respostas.buscar(chave, versao);
+        if (resposta != null) {
+            return resposta;
+        }
+        List<String> amigos = user.getProfile().getAmigos();
+        if (sweeper.temPendentes()) {
+            amigos = new ArrayList<>(amigos);
+            amigos.removeIf(sweeper::isRemovido);
+        }
+        resposta = GlobalFormatter.formatList(amigos);
+        respostas.guardar(chave, versao, epoca, resposta);
+        return resposta;
+    }
+
+    /**
+     * Obtm o menor caminho de amizades entre dois usurios.
+     *
+     * @param login Login do usurio de origem
+     * @param outro Login do usurio de destino
+     * @param epoca poca de leitura aberta, em cuja verso as amizades so lidas
+     * @return String formatada com os logins do caminho, ou {} se no houver caminho
+     *         dentro dos limites da busca
+     * @throws UserNotFoundException Se algum usurio no for encontrado
+     */
+    public String getCaminhoAmizade(String login, String outro, long epoca) throws UserNotFoundException {
+        User origem = findUserByLogin(login);
+        User destino = findUserByLogin(outro);
+        return formatarLogins(separacao.buscar(origem.getId(), destino.getId(), epoca));
+    }
+
+    /**
+     * Obtm, em paralelo, os caminhos de amizade de um usurio at vrios outros.
+     *
+     * @param login Login do usurio de origem
+     * @param destinos Logins dos usurios de destino, separados por vrgula
+     * @param epoca poca de leitura aberta, em cuja verso as amizades so lidas
+     * @return String formatada com um caminho por destino, na ordem recebida
+     * @throws UserNotFoundException Se algum usurio no for encontrado
+     */
+    public String getCaminhosAmizade(String login, String destinos, long epoca) throws UserNotFoundException {
+        User origem = findUserByLogin(login);
+        String[] logins = destinos.split(",");
+        int[] ids = new int[logins.length];
+        for (int i = 0; i < logins.length; i++) {
+            ids[i] = findUserByLogin(logins[i].trim()).getId();
+        }
+
+        List<String> caminhos = new ArrayList<>(ids.length);
+        for (int[] caminho : separacao.buscarVarios(origem.getId(), ids, epoca)) {
+            caminhos.add(formatarLogins(caminho));
+        }
+        return GlobalFormatter.formatList(caminhos);
+    }
+
+    /**
+     * Sugere novos amigos para um usurio, a partir dos amigos dos seus amigos.
+     *
+     * @param login Login do usurio
+     * @param k Quantidade mxima de sugestes
+     * @param epoca poca de leitura aberta, em cuja verso os perfis so lidos
+     * @return String formatada com os logins sugeridos, do mais para o menos relevante
+     * @throws UserNotFoundException Se o usurio no for encontrado
+     * @throws InvalidPageException Se a quantidade de sugestes no for positiva
+     */
+    public String sugerirAmigos(String login, int k, long epoca) throws UserNotFoundException, InvalidPageException {
+        User user = findUserByLogin(login);
+        Pagination.validar(0, k);
+        return GlobalFormatter.formatList(sugestoes.sugerir(user, k, epoca));
+    }
+
+    /**
+     * Obtm os amigos em comum entre dois usurios.
+     * A interseo  feita sobre os vetores ordenados de ids dos amigos.
+     *
+     * @param login Login do primeiro usurio
+     * @param outro Login do segundo usurio
+     * @return String formatada com os logins dos amigos em comum, em ordem de cadastro
+     * @throws UserNotFoundException Se algum usurio no for encontrado
+     */
+    public String getAmigosEmComum(String login, String outro) throws UserNotFoundException {
+        UserProfile a = findUserByLogin(login).getProfile();
+        UserProfile b = findUserByLogin(outro).getProfile();
+
+        int[] comuns = SortedIntArrays.intersecao(
+                a.getIdsAmigos(), a.getTotalIdsAmigos(), b.getIdsAmigos(), b.getTotalIdsAmigos());
+        List<String> logins = new ArrayList<>(comuns.length);
+        for (int id : comuns) {
+            User amigo = findUserById(id);
+            if (amigo != null && !amigo.isRemovido()) {
+                logins.add(amigo.getName());
+            }
+        }
+        return GlobalFormatter.formatList(logins);
     }
 
     /**
@@ -225,7 +512,21 @@ public class UserService {
      */
     public String getComunidadesUsuario(String loginUsuario) throws UserNotFoundException {
         User user = findUserByLogin(loginUsuario);
-        return GlobalFormatter.formatList(user.getProfile().getComunidadesParticipante());
+        String chave = "comunidades:" + loginUsuario;
+        long epoca = respostas.getEpoca();
+        long versao = user.getProfile().getVersaoComunidades();
+        String resposta = respostas.buscar(chave, versao);
+        if (resposta != null) {
+            return resposta;
+        }
+        Collection<Community> comunidades = user.getProfile().getComunidadesParticipante();
+        if (sweeper.temPendentes()) {
+            comunidades = new ArrayList<>(comunidades);
+            comunidades.removeIf(Community::isRemovida);
+        }
+        resposta = GlobalFormatter.formatList(comunidades);
+        respostas.guardar(chave, versao, epoca, resposta);
+        return resposta;
     }
 
     // ========== MTODOS DE PAQUERAS ==========
@@ -257,12 +558,12 @@ public class UserService {
         }
 
         usuario.getProfile().getPaqueras().add(paquera);
+        paquera.getProfile().registrarReferencia(usuario);
 
         if (paquera.getProfile().getPaqueras().contains(usuario)) {
             this.enviarRecado(paquera.getName(), usuario.getName(), paquera.getLogin() + "  seu paquera - Recado do Jackut.");
             this.enviarRecado(usuario.getName(), paquera.getName(), usuario.getLogin() + "  seu paquera - Recado do Jackut.");
         }
-        saveData();
     }
 
     /**
@@ -274,7 +575,7 @@ public class UserService {
      */
     public String getPaqueras(String sessaoId) throws UserNotFoundException {
         User usuario = findUserByLogin(sessaoId);
-        return GlobalFormatter.formatList(usuario.getProfile().getPaqueras());
+        return GlobalFormatter.formatList(filtrarRemovidos(usuario.getProfile().getPaqueras()));
     }
 
     // ========== MTODOS DE FS/DOLOS ==========
@@ -306,7 +607,9 @@ public class UserService {
 
         fa.getProfile().getIdolos().add(idolo);
         idolo.getProfile().getFas().add(fa);
-        saveData();
+        idolo.getProfile().contarFas(1);
+        fa.getProfile().contarIdolos(1);
+        atualizarRankingIdolo(idolo);
     }
 
     /**
@@ -318,11 +621,45 @@ public class UserService {
      */
     public String getFas(String loginIdolo) throws UserNotFoundException {
         User idolo = findUserByLogin(loginIdolo);
-        return GlobalFormatter.formatList(idolo.getProfile().getFas());
+        return GlobalFormatter.formatList(filtrarRemovidos(idolo.getProfile().getFas()));
     }
 
     // ========== MTODOS DE INIMIGOS ==========
 
+    /**
+     * Obtm o nmero de fs de um usurio, sem percorrer a lista de fs.
+     *
+     * @param login Login do usurio
+     * @return Nmero de fs
+     * @throws UserNotFoundException Se o usurio no for encontrado
+     */
+    public long getNumeroFas(String login) throws UserNotFoundException {
+        return findUserByLogin(login).getProfile().getNumeroFas();
+    }
+
+    /**
+     * Obtm o nmero de dolos de um usurio, sem percorrer a lista de dolos.
+     *
+     * @param login Login do usurio
+     * @return Nmero de dolos
+     * @throws UserNotFoundException Se o usurio no for encontrado
+     */
+    public long getNumeroIdolos(String login) throws UserNotFoundException {
+        return findUserByLogin(login).getProfile().getNumeroIdolos();
+    }
+
+    /**
+     * Obtm os dolos com mais fs.
+     *
+     * @param n Quantidade de dolos
+     * @return String formatada com os logins, do dolo com mais fs para o com menos
+     * @throws InvalidPageException Se a quantidade no for positiva
+     */
+    public String getTopIdolos(int n) throws InvalidPageException {
+        Pagination.validar(0, n);
+        return GlobalFormatter.formatList(rankingIdolos.topo(n));
+    }
+
     /**
      * Adiciona um inimigo para o usurio.
      *
@@ -348,7 +685,8 @@ public class UserService {
 
         usuario.getProfile().getInimigos().add(inimigo);
         inimigo.getProfile().getInimigos().add(usuario);
-        saveData();
+        sugestoes.invalidar(usuario);
+        sugestoes.invalidar(inimigo);
     }
 
     /**
@@ -365,6 +703,120 @@ public class UserService {
         return usuario.getProfile().getInimigos().contains(inimigo);
     }
 
+    // ========== MTODOS DE LISTAGEM PAGINADA ==========
+
+    /**
+     * Obtm uma pgina da lista de amigos, sem formatar a lista inteira.
+     *
+     * @param login Login do usurio
+     * @param inicio Posio do primeiro item (a partir de 0)
+     * @param limite Quantidade mxima de itens
+     * @return String formatada com os logins dos amigos da pgina
+     * @throws UserNotFoundException Se o usurio no for encontrado
+     * @throws InvalidPageException Se os parmetros da pgina forem invlidos
+     */
+    public String getAmigosPaginado(String login, int inicio, int limite)
+            throws UserNotFoundException, InvalidPageException {
+        Pagination.validar(inicio, limite);
+        return GlobalFormatter.formatPage(amigosAtivos(findUserByLogin(login)), inicio, limite);
+    }
+
+    /**
+     * Escreve a lista de amigos no destino, item a item, sem montar a string inteira.
+     *
+     * @param login Login do usurio
+     * @param destino Destino da escrita
+     * @throws UserNotFoundException Se o usurio no for encontrado
+     * @throws IOException Se ocorrer erro ao escrever no destino
+     */
+    public void escreverAmigos(String login, Appendable destino) throws UserNotFoundException, IOException {
+        GlobalFormatter.writeList(amigosAtivos(findUserByLogin(login)), destino);
+    }
+
+    /**
+     * Obtm uma pgina da lista de comunidades, sem formatar a lista inteira.
+     *
+     * @param loginUsuario Login do usurio
+     * @param inicio Posio do primeiro item (a partir de 0)
+     * @param limite Quantidade mxima de itens
+     * @return String formatada com os nomes das comunidades da pgina
+     * @throws UserNotFoundException Se o usurio no for encontrado
+     * @throws InvalidPageException Se os parmetros da pgina forem invlidos
+     */
+    public String getComunidadesPaginado(String loginUsuario, int inicio, int limite)
+            throws UserNotFoundException, InvalidPageException {
+        Pagination.validar(inicio, limite);
+        return GlobalFormatter.formatPage(comunidadesAtivas(findUserByLogin(loginUsuario)), inicio, limite);
+    }
+
+    /**
+     * Escreve a lista de comunidades no destino, item a item, sem montar a string inteira.
+     *
+     * @param loginUsuario Login do usurio
+     * @param destino Destino da escrita
+     * @throws UserNotFoundException Se o usurio no for encontrado
+     * @throws IOException Se ocorrer erro ao escrever no destino
+     */
+    public void escreverComunidades(String loginUsuario, Appendable destino) throws UserNotFoundException, IOException {
+        GlobalFormatter.writeList(comunidadesAtivas(findUserByLogin(loginUsuario)), destino);
+    }
+
+    /**
+     * Obtm uma pgina da lista de paqueras, sem formatar a lista inteira.
+     *
+     * @param sessaoId Login do usurio
+     * @param inicio Posio do primeiro item (a partir de 0)
+     * @param limite Quantidade mxima de itens
+     * @return String formatada com os logins das paqueras da pgina
+     * @throws UserNotFoundException Se o usurio no for encontrado
+     * @throws InvalidPageException Se os parmetros da pgina forem invlidos
+     */
+    public String getPaquerasPaginado(String sessaoId, int inicio, int limite)
+            throws UserNotFoundException, InvalidPageException {
+        Pagination.validar(inicio, limite);
+        return GlobalFormatter.formatPage(ativos(findUserByLogin(sessaoId).getProfile().getPaqueras()), inicio, limite);
+    }
+
+    /**
+     * Escreve a lista de paqueras no destino, item a item, sem montar a string inteira.
+     *
+     * @param sessaoId Login do usurio
+     * @param destino Destino da escrita
+     * @throws UserNotFoundException Se o usurio no for encontrado
+     * @throws IOException Se ocorrer erro ao escrever no destino
+     */
+    public void escreverPaqueras(String sessaoId, Appendable destino) throws UserNotFoundException, IOException {
+        GlobalFormatter.writeList(ativos(findUserByLogin(sessaoId).getProfile().getPaqueras()), destino);
+    }
+
+    /**
+     * Obtm uma pgina da lista de fs, sem formatar a lista inteira.
+     *
+     * @param loginIdolo Login do dolo
+     * @param inicio Posio do primeiro item (a partir de 0)
+     * @param limite Quantidade mxima de itens
+     * @return String formatada com os logins dos fs da pgina
+     * @throws UserNotFoundException Se o usurio no for encontrado
+     * @throws InvalidPageException Se os parmetros da pgina forem invlidos
+     */
+    public String getFasPaginado(String loginIdolo, int inicio, int limite)
+            throws UserNotFoundException, InvalidPageException {
+        Pagination.validar(inicio, limite);
+        return GlobalFormatter.formatPage(ativos(findUserByLogin(loginIdolo).getProfile().getFas()), inicio, limite);
+    }
+
+    /**
+     * Escreve a lista de fs no destino, item a item, sem montar a string inteira.
+     *
+     * @param loginIdolo Login do dolo
+     * @param destino Destino da escrita
+     * @throws UserNotFoundException Se o usurio no for encontrado
+     * @throws IOException Se ocorrer erro ao escrever no destino
+     */
+    public void escreverFas(String loginIdolo, Appendable destino) throws UserNotFoundException, IOException {
+        GlobalFormatter.writeList(ativos(findUserByLogin(loginIdolo).getProfile().getFas()), destino);
+    }
+
     // ========== MTODOS DE RECADOS ==========
 
     /**
@@ -389,8 +841,8 @@ public class UserService {
         verificarInimizade(remetente, destinatario);
 
         Note note = new Note(remetente, destinatario, recado);
+        remetente.getProfile().registrarReferencia(destinatario);
         destinatario.getProfile().getRecados().offer(note);
-        saveData();
     }
 
     /**
@@ -403,11 +855,17 @@ public class UserService {
      */
     public Note lerRecado(String loginUsuario) throws UserNotFoundException, EmptyNotesException {
         User user = findUserByLogin(loginUsuario);
-        if (user.getProfile().getRecados().isEmpty()) {
+        Queue<Note> recados = user.getProfile().getRecados();
+
+        // Cada retirada  atmica, ento leitores simultneos nunca recebem o mesmo recado.
+        // Recados de usurios removidos ainda no varridos so descartados na leitura
+        Note recado;
+        do {
+            recado = recados.poll();
+        } while (recado != null && recado.getRemetente().isRemovido());
+        if (recado == null) {
             throw new EmptyNotesException();
         }
-        Note recado = user.getProfile().getRecados().poll();
-        saveData();
         return recado;
     }
 
@@ -439,11 +897,10 @@ public class UserService {
      */
     public Message lerMensagem(String loginUsuario) throws UserNotFoundException, EmptyMessagesException {
         User user = findUserByLogin(loginUsuario);
-        if(user.getProfile().getMensagens().isEmpty()) {
+        Message mensagem = user.getProfile().getMensagens().poll();
+        if (mensagem == null) {
             throw new EmptyMessagesException();
         }
-        Message mensagem = user.getProfile().getMensagens().poll();
-        saveData();
         return mensagem;
     }
 
@@ -476,7 +933,12 @@ public class UserService {
     }
 
     /**
-     * Remove completamente um usurio do sistema.
+     * Remove um usurio do sistema.
+     * <p>
+     * O usurio  marcado como removido e deixa de ser encontrado imediatamente.
+     * Seus relacionamentos, participaes em comunidades e recados enviados so
+     * apagados depois, em lotes, pelo {@link RemovalSweeper}.
+     * </p>
      *
      * @param sessaoId Login do usurio a ser removido
      * @throws UserNotFoundException Se o usurio no for encontrado
@@ -484,50 +946,148 @@ public class UserService {
     public void removerUsuario(String sessaoId) throws UserNotFoundException {
         User usuario = findUserByLogin(sessaoId);
 
-        // Remover das listas de inimigos
-        for (User inimigo : new ArrayList<>(usuario.getProfile().getInimigos())) {
-            inimigo.getProfile().removerInimigo(usuario);
+        usuario.marcarRemovido();
+        indiceAtributos.removerUsuario(usuario);
+        indiceTextual.remover(usuario);
+        indiceLogins.remover(usuario.getName());
+        usersByLogin.remove(usuario.getName());
+        sugestoes.limpar();
+        rankingIdolos.remover(usuario.getName());
+        for (User idolo : usuario.getProfile().getIdolos()) {
+            if (idolo.isRemovido()) continue;
+            idolo.getProfile().contarFas(-1);
+            atualizarRankingIdolo(idolo);
         }
-
-        // Remover das listas de amigos
-        for (String amigo : new ArrayList<>(usuario.getProfile().getAmigos())) {
-            User userAmigo = findUserByLogin(amigo);
-            userAmigo.getProfile().removerAmigo(usuario.getName());
+        for (User fa : usuario.getProfile().getFas()) {
+            if (!fa.isRemovido()) fa.getProfile().contarIdolos(-1);
         }
+        sweeper.agendar(usuario);
+        // O usurio (e as comunidades de que era dono) some de todas as listas formatadas;
+        // a poca avana s depois que a remoo j  visvel para quem formata as listas
+        respostas.novaEpoca();
+    }
 
-        // Remover das listas de fs de seus dolos
-        for (User idolo : new ArrayList<>(usuario.getProfile().getIdolos())) {
-            idolo.getProfile().removerIdolo(usuario);
-        }
+    /**
+     * Executa um lote da varredura de usurios removidos.
+     *
+     * @return true se ainda houver remoes aguardando varredura
+     */
+    public boolean varrerRemocoes() {
+        sweeper.varrer(LOTE_VARREDURA);
+        return sweeper.temPendentes();
+    }
 
-        // Remover das listas de dolos de seus fs
-        for (User fa : new ArrayList<>(usuario.getProfile().getFas())) {
-            fa.getProfile().removerFa(usuario);
-        }
+    /**
+     * Conclui a varredura de todos os usurios removidos.
+     */
+    public void concluirRemocoes() {
+        sweeper.concluirTodas();
+    }
 
-        // Remover das listas de paqueras de outros usurios
-        for (User paquera : new ArrayList<>(usuario.getProfile().getPaqueras())) {
-            paquera.getProfile().removerPaquera(usuario);
-        }
+    /**
+     * Remove todos os usurios do sistema (usado para reinicializao).
+     */
+    public void limparUsuarios() {
+        users.clear();
+        limparIndices();
+    }
+
+    /**
+     * Desfaz as criaes de usurios feitas a partir de um ponto e reconstri os
+     * ndices a partir dos usurios restantes. Usado para desfazer um lote, depois que
+     * os perfis alterados por ele foram restaurados.
+     *
+     * @param totalUsuarios Quantidade de usurios antes das criaes desfeitas
+     */
+    public void restaurarUsuarios(int totalUsuarios) {
+        users.subList(totalUsuarios, users.size()).clear();
+        limparIndices();
+        indexar();
+    }
+
+    /**
+     * Obtm a quantidade de usurios na lista, incluindo os removidos ainda no varridos.
+     *
+     * @return Tamanho da lista de usurios
+     */
+    public int getTotalUsuarios() {
+        return users.size();
+    }
+
+    private void limparIndices() {
+        usersById.subList(1, usersById.size()).clear();
+        sweeper.limpar();
+        indiceAtributos.limpar();
+        indiceTextual.limpar();
+        indiceLogins.limpar();
+        usersByLogin.clear();
+        sugestoes.limpar();
+        rankingIdolos.limpar();
+        respostas.limpar();
+    }
+
+    /**
+     * Obtm as mtricas do cache de listas formatadas.
+     *
+     * @return Acertos, falhas, despejos, entradas e memria estimada, formatados
+     */
+    public String getMetricasCache() {
+        return GlobalFormatter.formatList(respostas.getMetricas().entrySet());
+    }
+
+    /**
+     * Obtm o cache de listas formatadas, compartilhado com o servio de comunidades.
+     *
+     * @return Cache de respostas
+     */
+    ResponseCache getRespostas() {
+        return respostas;
+    }
 
-        // Remover o usurio dos membros das comunidades que participa
-        for (Community comunidade : usuario.getProfile().getComunidadesParticipante()) {
-            comunidade.removeMember(usuario);
+    /**
+     * Retira definitivamente um usurio j varrido das estruturas do servio.
+     *
+     * @param usuario Usurio a ser descartado
+     */
+    void descartarUsuario(User usuario) {
+        users.remove(usuario);
+        if (findUserById(usuario.getId()) == usuario) {
+            usersById.set(usuario.getId(), null);
         }
+    }
 
-        // Remover recados enviados pelo usurio
-        for (User userRecado : new ArrayList<>(this.users)) {
-            for (Note note : userRecado.getProfile().getRecados()) {
-                if(note.getRemetente().equals(usuario)) {
-                    userRecado.getProfile().removerRecado(note);
-                }
-            }
+    /**
+     * Preserva o perfil de um usurio para as pocas de leitura abertas, antes de
+     * alter-lo. Logins inexistentes so ignorados.
+     *
+     * @param login Login do usurio
+     */
+    public void preservarPerfil(String login) {
+        if (SnapshotEpoch.maisRecente() == 0 || login == null) {
+            return;
         }
+        User user = usersByLogin.get(login);
+        if (user != null && user.getProfile() != null) {
+            user.getProfile().preservar();
+        }
+    }
 
-        // Limpar dados do usurio e remover do sistema
-        usuario.getProfile().clear();
-        this.users.remove(usuario);
-        saveData();
+    /**
+     * Copia o ndice de usurios ativos por login, para uma viso de leitura.
+     *
+     * @return Cpia do mapa (login -> usurio)
+     */
+    public Map<String, User> copiarUsuariosPorLogin() {
+        return new HashMap<>(usersByLogin);
+    }
+
+    /**
+     * Copia o ndice de usurios por id, para uma viso de leitura.
+     *
+     * @return Cpia da lista, com null nos ids livres
+     */
+    public List<User> copiarUsuariosPorId() {
+        return new ArrayList<>(usersById);
     }
 
     /**
@@ -540,9 +1100,113 @@ public class UserService {
     }
 
     /**
-     * Salva os dados dos usurios no DAO.
+     * Atribui um id a um usurio e o registra no ndice por id.
+     *
+     * @param user Usurio
+     * @param id Id a ser atribudo
+     */
+    private void registrarId(User user, int id) {
+        while (usersById.size() <= id) {
+            usersById.add(null);
+        }
+        user.setId(id);
+        usersById.set(id, user);
+    }
+
+    /**
+     * Sugere logins que comeam com o prefixo digitado.
+     *
+     * @param prefixo Prefixo digitado
+     * @param limite Quantidade mxima de sugestes
+     * @return Logins encontrados, em ordem alfabtica
+     * @throws InvalidPageException Se o limite no for positivo
      */
-    private void saveData() {
-        userDAO.save(users);
+    public String autocompletarUsuarios(String prefixo, int limite) throws InvalidPageException {
+        Pagination.validar(0, limite);
+        return GlobalFormatter.formatList(indiceLogins.buscar(prefixo, limite));
+    }
+
+    /**
+     * Atualiza a posio de um dolo no ranking a partir do seu contador de fs.
+     *
+     * @param idolo Usurio cujo nmero de fs mudou
+     */
+    private void atualizarRankingIdolo(User idolo) {
+        long fas = idolo.getProfile().getNumeroFas();
+        if (fas > 0) {
+            rankingIdolos.definir(idolo.getName(), fas);
+        } else {
+            rankingIdolos.remover(idolo.getName());
+        }
+    }
+
+    /**
+     * Reindexa os valores dos atributos de um usurio para a busca textual.
+     *
+     * @param user Usurio a ser reindexado
+     */
+    private void indexarTexto(User user) {
+        List<String> valores = new ArrayList<>();
+        user.getProfile().paraCadaAtributo((atributo, valor) -> valores.add(valor));
+        indiceTextual.indexar(user, valores);
+    }
+
+    /**
+     * Formata os logins de uma lista de ids de usurios.
+     *
+     * @param ids Ids dos usurios
+     * @return Logins formatados
+     */
+    private String formatarLogins(int[] ids) {
+        List<String> logins = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            logins.add(findUserById(id).getName());
+        }
+        return GlobalFormatter.formatList(logins);
+    }
+
+    /**
+     * Obtm, de forma preguiosa, os logins dos amigos que no foram removidos.
+     *
+     * @param user Usurio
+     * @return Fluxo com os logins dos amigos
+     */
+    private Stream<String> amigosAtivos(User user) {
+        return user.getProfile().getAmigos().stream().filter(amigo -> !sweeper.isRemovido(amigo));
+    }
+
+    /**
+     * Obtm, de forma preguiosa, as comunidades do usurio que no foram removidas.
+     *
+     * @param user Usurio
+     * @return Fluxo com as comunidades
+     */
+    private Stream<Community> comunidadesAtivas(User user) {
+        return user.getProfile().getComunidadesParticipante().stream().filter(c -> !c.isRemovida());
+    }
+
+    /**
+     * Obtm, de forma preguiosa, os usurios de uma lista que no foram removidos.
+     *
+     * @param lista Lista de usurios
+     * @return Fluxo com os usurios ativos
+     */
+    private static Stream<User> ativos(List<User> lista) {
+        return lista.stream().filter(user -> !user.isRemovido());
+    }
+
+    /**
+     * Filtra usurios removidos que ainda no foram varridos de uma lista.
+     *
+     * @param lista Lista de usurios
+     * @return A prpria lista, se no houver remoes pendentes, ou uma cpia filtrada
+     */
+    private List<User> filtrarRemovidos(List<User> lista) {
+        if (!sweeper.temPendentes()) {
+            return lista;
+        }
+        List<User> ativos = new ArrayList<>(lista);
+        ativos.removeIf(User::isRemovido);
+        return ativos;
     }
 }
\ No newline at end of file